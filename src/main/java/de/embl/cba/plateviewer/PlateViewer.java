@@ -2,7 +2,6 @@ package de.embl.cba.plateviewer;
 
 import bdv.TransformEventHandler2D;
 import bdv.util.*;
-import bdv.util.volatiles.SharedQueue;
 import bdv.util.volatiles.VolatileViews;
 import bdv.viewer.Source;
 import de.embl.cba.bdv.utils.BdvUtils;
@@ -11,6 +10,7 @@ import de.embl.cba.bdv.utils.measure.PixelValueStatistics;
 import de.embl.cba.bdv.utils.sources.ARGBConvertedRealSource;
 import de.embl.cba.bdv.utils.sources.Metadata;
 import de.embl.cba.plateviewer.bdv.*;
+import de.embl.cba.plateviewer.cache.CellMemoryCache;
 import de.embl.cba.plateviewer.channel.ChannelProperties;
 import de.embl.cba.plateviewer.channel.Channels;
 import de.embl.cba.plateviewer.github.SiteIssueRaiser;
@@ -21,8 +21,11 @@ import de.embl.cba.plateviewer.image.plate.QCOverlay;
 import de.embl.cba.plateviewer.image.plate.WellAndSiteOutlinesSource;
 import de.embl.cba.plateviewer.image.plate.OverlayBdvViewable;
 import de.embl.cba.plateviewer.image.plate.WellNamesOverlay;
+import de.embl.cba.plateviewer.image.source.PlateViewerLoadingQueue;
 import de.embl.cba.plateviewer.image.source.RandomAccessibleIntervalPlateViewerSource;
-import de.embl.cba.plateviewer.io.FileUtils;
+import de.embl.cba.plateviewer.io.Hdf5ReaderPool;
+import de.embl.cba.plateviewer.io.PlateFileIndex;
+import de.embl.cba.plateviewer.io.PlateFolderWatcher;
 import de.embl.cba.plateviewer.screenshot.PlateChannelRawDataFetcher;
 import de.embl.cba.plateviewer.screenshot.SimpleScreenShotMaker;
 import de.embl.cba.plateviewer.table.BatchLibHdf5CellFeatureProvider;
@@ -64,13 +67,24 @@ import org.scijava.ui.behaviour.ClickBehaviour;
 import org.scijava.ui.behaviour.io.InputTriggerConfig;
 import org.scijava.ui.behaviour.util.Behaviours;
 
+import javax.swing.SwingUtilities;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends AnnotatedInterval >
 {
-	private final SharedQueue loadingQueue;
+	public static final int NUM_CHANNEL_CREATION_THREADS = 4;
+
+	private final PlateViewerLoadingQueue loadingQueue;
+	private SitePrefetcher sitePrefetcher;
 
 	private BdvHandle bdvHandle;
 	private PlateViewerMainPanel mainPanel;
@@ -80,8 +94,6 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 	private Interval plateInterval;
 	private Map< String, Interval > wellNameToInterval;
 	private Map< String, Interval > siteNameToInterval;
-	private Map< Interval, String > intervalToSiteName;
-	private Map< Interval, String > intervalToWellName;
 
 	private long[] siteDimensions;
 	private long[] wellDimensions;
@@ -89,9 +101,13 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 	private final String filterPattern;
 	private final boolean includeSubFolders;
 	private BdvSource dummySource;
-	private List< File > siteFiles;
+	private volatile List< File > siteFiles;
+	private BatchLibHdf5SiteIndex batchLibHdf5SiteIndex;
 	private Map< String, MultiWellImg< ? > > channelToMultiWellImg;
+	private Map< String, CompletableFuture< MultiWellImg< ? > > > channelToMultiWellImgFuture;
+	private ExecutorService channelCreationService;
 	private MultiWellImg referenceWellImg;
+	private MultiWellChannelFilesProvider plateLayout;
 	private Map< String, ChannelProperties > channelNamesToProperties;
 	private Set< BdvOverlay > overlays;
 	private Map< String, BdvViewable > nameToBdvViewable;
@@ -100,6 +116,9 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 	private BatchLibHdf5CellFeatureProvider cellFeatureProvider;
 	private CellFeatureDialog cellFeatureDialog;
 	private ArrayList< String > inputDirectories;
+	private List< PlateFileIndex > plateFileIndices;
+	private List< PlateFolderWatcher > plateFolderWatchers;
+	private boolean isClosed;
 
 	public PlateViewer( String inputDirectory, String filterPattern, int numIoThreads )
 	{
@@ -111,12 +130,13 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 		plateName = new File( inputDirectory ).getName();
 		this.filterPattern = filterPattern;
 		this.includeSubFolders = includeSubFolders;
-		channelToMultiWellImg = new HashMap<>();
-		nameToBdvViewable = new HashMap<>();
+		channelToMultiWellImg = new ConcurrentHashMap<>();
+		channelToMultiWellImgFuture = new ConcurrentHashMap<>();
+		nameToBdvViewable = new ConcurrentHashMap<>();
 		inputDirectories = new ArrayList<>();
 		inputDirectories.add( inputDirectory );
 		overlays = new HashSet<>(  );
-		this.loadingQueue = new SharedQueue( numIoThreads );
+		this.loadingQueue = PlateViewerLoadingQueue.getInstance( numIoThreads );
 		this.siteFiles = new ArrayList<>(  );
 	}
 
@@ -125,42 +145,72 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 		return inputDirectories;
 	}
 
+	/**
+	 * Opens the plate in stages: once the files and channels are known, the reference channel
+	 * and the initially visible channels are created concurrently in the background.
+	 * Meanwhile, the plate layout is determined from the file names and the well outlines and names are shown,
+	 * before the reference channel is added. The other channels are created when they are shown.
+	 */
 	public void run( )
+	{
+		SiteRegistry.acquire();
+
+		try
+		{
+			open();
+		}
+		catch ( RuntimeException e )
+		{
+			// e.g. no files were found: release what was acquired for the plate
+			close();
+			throw e;
+		}
+	}
+
+	private void open()
 	{
 		fetchSiteFiles();
 
-		namingScheme = determineImageNamingScheme( siteFiles );
+		namingScheme = fetchNamingScheme();
 
-		channelNamesToProperties = Channels.getChannels( siteFiles, namingScheme );
+		channelNamesToProperties = fetchChannels();
+
+		savePlateFileIndices();
 
 		logChannelNames();
 
-		fetchReferenceWellImg( );
+		createMultiWellImgsInBackground();
+
+		fetchPlateLayout();
 
 		initMainPanel();
 
 		mainPanel.show( null );
 
-		addToPanelAndBdv( referenceWellImg );
-
 		configPlateWellAndSiteIntervals();
 
 		addWellOutlinesImages();
 
 		addWellNamesOverlay();
 
-		addWellAndSiteInformationOverlay( referenceWellImg );
-
 		zoomToInterval( wellNameToInterval.get( wellNameToInterval.keySet().iterator().next() ), 0 );
 
+		addWellAndSiteInformationOverlay();
+
+		fetchReferenceWellImg( );
+
+		addToPanelAndBdv( referenceWellImg );
+
 		installBdvBehaviours();
 	}
 
 	public void fetchSiteFiles()
 	{
+		plateFileIndices = new ArrayList<>();
+
 		for ( String directory : inputDirectories )
 		{
-			addFiles( directory, filterPattern, includeSubFolders, siteFiles);
+			plateFileIndices.add( addFiles( directory, filterPattern, includeSubFolders, siteFiles ) );
 		}
 
 		if ( siteFiles.size() == 0 )
@@ -234,8 +284,8 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 		final RealPoint globalLocation = new RealPoint( 3 );
 		bdvHandle.getViewerPanel().getGlobalMouseCoordinates( globalLocation );
 
-		final String siteName = getIntervalName( globalLocation, intervalToSiteName );
-		final String wellName = getIntervalName( globalLocation, intervalToWellName );
+		final String siteName = getSiteName( globalLocation );
+		final String wellName = getWellName( globalLocation );
 
 		if ( siteName == null ) return;
 
@@ -319,6 +369,10 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 			}).start();
 		} );
 
+		popupMenu.addPopupAction( "Log loading statistics", () -> {
+			logLoadingStatistics();
+		} );
+
 		if ( sites != null )
 		{
 			final T site = getAnnotatedInterval( sites, siteName );
@@ -340,6 +394,17 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 		popupMenu.show( bdvHandle.getViewerPanel().getDisplay(), x, y );
 	}
 
+	private void logLoadingStatistics()
+	{
+		Utils.log( "Loading statistics:" );
+		Utils.log( "I/O threads: " + loadingQueue.getNumIoThreads() );
+		Utils.log( "Executed requests: " + loadingQueue.getNumExecutedRequests() );
+		Utils.log( "Skipped requests (no longer in view): " + loadingQueue.getNumSkippedRequests() );
+
+		if ( CellMemoryCache.getInstance() != null )
+			CellMemoryCache.getInstance().logStatistics();
+	}
+
 	private void showIntervalAnnotationDialog( T interval )
 	{
 		final GenericDialog gd = new GenericDialog( "Annotations" );
@@ -396,13 +461,14 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 		return namingScheme;
 	}
 
-	private void addWellAndSiteInformationOverlay( MultiWellImg multiWellImg )
+	private void addWellAndSiteInformationOverlay()
 	{
 		// Add overlay showing the site and well information in the bottom
 		//
 		BdvOverlay bdvOverlay = new BdvSiteAndWellInformationOverlay(
 				bdvHandle,
-				multiWellImg.getLoader() );
+				getPlateLayoutIndex(),
+				new SiteInformationFetcher( getSinglePlateFileIndex() ) );
 
 		overlays.add( bdvOverlay );
 
@@ -419,14 +485,65 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 		addToPanelAndBdv( new OverlayBdvViewable( wellNamesOverlay, "well names" ) );
 	}
 
+	/**
+	 * The naming scheme and the channels of a single plate folder are kept in its plate index,
+	 * as detecting the channels may require opening a file.
+	 */
+	private PlateFileIndex getSinglePlateFileIndex()
+	{
+		return plateFileIndices.size() == 1 ? plateFileIndices.get( 0 ) : null;
+	}
+
+	/**
+	 * @return the folder of a single plate, which keys its stored thumbnails, or null if several folders are shown
+	 */
+	private File getPlateDirectory()
+	{
+		final PlateFileIndex index = getSinglePlateFileIndex();
+		return index != null ? index.getDirectory() : null;
+	}
+
+	private String fetchNamingScheme()
+	{
+		final PlateFileIndex index = getSinglePlateFileIndex();
+
+		if ( index != null && index.getNamingScheme() != null )
+		{
+			Utils.log( "Naming scheme (from plate index): " + index.getNamingScheme() );
+			return index.getNamingScheme();
+		}
+
+		final String namingScheme = determineImageNamingScheme( siteFiles );
+		if ( index != null ) index.setNamingScheme( namingScheme );
+		return namingScheme;
+	}
+
+	private Map< String, ChannelProperties > fetchChannels()
+	{
+		final PlateFileIndex index = getSinglePlateFileIndex();
+
+		if ( index != null && index.getChannels() != null )
+			return index.getChannels();
+
+		final Map< String, ChannelProperties > channels = Channels.getChannels( siteFiles, namingScheme );
+		if ( index != null ) index.setChannels( channels );
+		return channels;
+	}
+
+	private void savePlateFileIndices()
+	{
+		for ( PlateFileIndex index : plateFileIndices )
+			index.save();
+	}
+
 	public static String determineImageNamingScheme( List< File > fileList )
 	{
-		final String namingScheme = NamingSchemes.getNamingScheme( fileList.get( 0 ) );
+		final String namingScheme = NamingSchemes.getNamingScheme( fileList );
 		Utils.log( "Detected naming scheme: " + namingScheme );
 		return namingScheme;
 	}
 
-	public static void addFiles( String inputDirectory, String filePattern, boolean includeSubFolders, List< File > files )
+	public static PlateFileIndex addFiles( String inputDirectory, String filePattern, boolean includeSubFolders, List< File > files )
 	{
 		if ( ! new File( inputDirectory ).exists() )
 		{
@@ -436,44 +553,88 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 
 		Utils.log( "Fetching files in: " + inputDirectory );
 
-		FileUtils.populateFileList( new File( inputDirectory ), filePattern, files, includeSubFolders );
+		final PlateFileIndex index = PlateFileIndex.open( new File( inputDirectory ), filePattern, includeSubFolders );
+		files.addAll( index.getFiles() );
 
 		Utils.log( "Number of files: " + files.size() );
+
+		return index;
+	}
+
+	/**
+	 * Determines the wells and sites of the plate from the file names of the reference channel
+	 * and the dimensions of one of its images, such that the plate can be shown before any channel is created.
+	 */
+	private void fetchPlateLayout()
+	{
+		final ChannelProperties properties = getReferenceChannelProperties();
+
+		if ( properties == null )
+			throw new UnsupportedOperationException( "None of the channels " + channelNamesToProperties.keySet() + " is visible." );
+
+		plateLayout = MultiWellImgCreator.createFilesProvider(
+				siteFiles,
+				namingScheme,
+				properties.name,
+				namingScheme.equals( NamingSchemes.PATTERN_NIKON_TI2_HDF5 ) ? getBatchLibHdf5SiteIndex() : null );
 	}
 
 	public void fetchReferenceWellImg( )
+	{
+		final ChannelProperties properties = getReferenceChannelProperties();
+
+		if ( properties == null ) return;
+
+		referenceWellImg = getMultiWellImg( properties.name );
+
+		referenceWellImg.setInitiallyVisible( true );
+	}
+
+	private ChannelProperties getReferenceChannelProperties()
 	{
 		for ( ChannelProperties properties : channelNamesToProperties.values() )
-		{
 			if ( properties.isInitiallyVisible || properties.name.equals( "nuclei" ) )
-			{
-				referenceWellImg = MultiWellImgCreator.create( siteFiles, namingScheme, properties.regExp );
+				return properties;
+
+		return null;
+	}
 
-				referenceWellImg.setInitiallyVisible( true );
+	/**
+	 * Starts creating the images of the reference channel and the initially visible channels;
+	 * the other channels are created when they are shown.
+	 */
+	private void createMultiWellImgsInBackground()
+	{
+		channelCreationService = Executors.newFixedThreadPool( NUM_CHANNEL_CREATION_THREADS, runnable -> {
+			final Thread thread = new Thread( runnable, "plate viewer channel creation" );
+			thread.setDaemon( true );
+			return thread;
+		} );
 
-				channelToMultiWellImg.put( properties.name, referenceWellImg );
+		final ChannelProperties referenceProperties = getReferenceChannelProperties();
+		if ( referenceProperties != null )
+			getMultiWellImgFuture( referenceProperties.name );
 
-				return;
-			}
-		}
+		for ( ChannelProperties properties : channelNamesToProperties.values() )
+			if ( properties.isInitiallyVisible )
+				getMultiWellImgFuture( properties.name );
 	}
 
 	public void configPlateWellAndSiteIntervals()
 	{
-		setPlateInterval( referenceWellImg );
+		setPlateInterval( plateLayout );
 
-		mapSiteNamesToIntervals( referenceWellImg );
+		mapSiteNamesToIntervals( plateLayout.getPlateLayoutIndex() );
 
-		mapWellNamesToIntervals( referenceWellImg );
+		mapWellNamesToIntervals( plateLayout.getPlateLayoutIndex() );
 
-		setSiteDimensions( referenceWellImg );
+		setSiteDimensions( plateLayout.getPlateLayoutIndex() );
 	}
 
 
-	public void setSiteDimensions( MultiWellImg wellImg )
+	public void setSiteDimensions( PlateLayoutIndex plateLayoutIndex )
 	{
-		siteDimensions = new long[ 2 ];
-		wellImg.getLoader().getSingleSiteChannelFiles().get( 0 ).getInterval().dimensions( siteDimensions );
+		siteDimensions = plateLayoutIndex.getSiteDimensions();
 	}
 
 	public long[] getSiteDimensions()
@@ -481,65 +642,26 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 		return siteDimensions;
 	}
 
-	public void setPlateInterval( MultiWellImg wellImg )
+	/**
+	 * The plate interval is the interval of the images of the channels.
+	 */
+	public void setPlateInterval( MultiWellChannelFilesProvider provider )
 	{
-		plateInterval = wellImg.getRAI();
+		plateInterval = new FinalInterval( MultiWellImg.getPlateDimensions( provider.getSingleSiteChannelFiles(), provider ) );
 	}
 
-	// TODO: base this on the list of sites rather than the multiWellImg?
-	public void mapSiteNamesToIntervals( MultiWellImg multiWellImg )
+	/**
+	 * The names are mapped to the intervals by the plate layout index,
+	 * which also includes sites that are added later, without storing the intervals again.
+	 */
+	public void mapSiteNamesToIntervals( PlateLayoutIndex plateLayoutIndex )
 	{
-		siteNameToInterval = new HashMap<>();
-		intervalToSiteName = new HashMap<>();
-
-		final ArrayList< SingleSiteChannelFile > siteChannelFiles =
-				multiWellImg.getLoader().getSingleSiteChannelFiles();
-
-		for ( SingleSiteChannelFile channelFile : siteChannelFiles )
-		{
-			siteNameToInterval.put( channelFile.getSiteName(), channelFile.getInterval() );
-			intervalToSiteName.put( channelFile.getInterval(), channelFile.getSiteName() );
-		}
-
-		final Interval siteInterval = siteNameToInterval.values().iterator().next();
-		final int[] numSites = new int[ 2 ];
-		for ( int d = 0; d < 2; d++ )
-		{
-			numSites[ d ] = (int) (( plateInterval.max( d ) - plateInterval.min( d ) ) / siteInterval.dimension( d )) + 1;
-		}
+		siteNameToInterval = plateLayoutIndex.getSiteNameToInterval();
 	}
 
-	public void mapWellNamesToIntervals( MultiWellImg< R > multiWellImg )
+	public void mapWellNamesToIntervals( PlateLayoutIndex plateLayoutIndex )
 	{
-		wellNameToInterval = new HashMap<>();
-		intervalToWellName = new HashMap<>();
-
-		final ArrayList< SingleSiteChannelFile > singleSiteChannelFiles =
-				multiWellImg.getLoader().getSingleSiteChannelFiles();
-
-		final ArrayList< String > wellNames = multiWellImg.getWellNames();
-
-		for ( String wellName : wellNames )
-		{
-			FinalInterval union = null;
-
-			for ( SingleSiteChannelFile singleSiteChannelFile : singleSiteChannelFiles )
-			{
-				if ( singleSiteChannelFile.getWellName().equals( wellName ) )
-				{
-					if ( union == null )
-					{
-						union = new FinalInterval( singleSiteChannelFile.getInterval() );
-					} else
-					{
-						union = Intervals.union( singleSiteChannelFile.getInterval(), union );
-					}
-				}
-			}
-
-			wellNameToInterval.put( wellName, union );
-			intervalToWellName.put( union, wellName );
-		}
+		wellNameToInterval = Collections.unmodifiableMap( plateLayoutIndex.getWellNameToInterval() );
 
 		wellDimensions = Intervals.dimensionsAsLongArray( wellNameToInterval.values().iterator().next() );
 	}
@@ -549,7 +671,7 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 		return bdvHandle;
 	}
 
-	public SharedQueue getLoadingQueue ( )
+	public PlateViewerLoadingQueue getLoadingQueue ( )
 	{
 		return loadingQueue;
 	}
@@ -576,7 +698,7 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 	public ArrayList< String > getSiteNames( )
 	{
 		final ArrayList< SingleSiteChannelFile > singleSiteChannelFiles =
-				referenceWellImg.getLoader().getSingleSiteChannelFiles();
+				getPlateLayoutIndex().getSingleSiteChannelFiles();
 
 		final ArrayList< String > siteNames = new ArrayList<>();
 
@@ -590,7 +712,7 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 
 	public ArrayList< String > getWellNames ( )
 	{
-		return referenceWellImg.getWellNames();
+		return plateLayout.getWellNames();
 	}
 
 	public void focusWell( String wellName )
@@ -611,6 +733,18 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 	public void focusSite( String siteName )
 	{
 		focusInterval( siteName, siteNameToInterval, sites, siteSelectionModel );
+
+		// with a site table, the focus event of the table triggers the prefetching
+		if ( sites == null )
+			prefetchAroundSite( siteName, getSiteNames() );
+	}
+
+	private void prefetchAroundSite( String siteName, List< String > reviewOrder )
+	{
+		if ( sitePrefetcher == null ) return;
+
+		sitePrefetcher.prefetchNextSites( reviewOrder, siteName );
+		sitePrefetcher.prefetchNeighbouringSites( siteName );
 	}
 
 	public void focusInterval( String intervalName, Map< String, Interval > nameToInterval, List< T > intervals, SelectionModel< T > selectionModel )
@@ -629,23 +763,23 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 		}
 	}
 
-	/**
-	 * TODO:
-	 * in principle the information which image is below the mouse cursor
-	 * could also come from the underlying TableRowsIntervalImage, couldn't it?
-	 *
-	 * @param point
-	 * @param intervalToName
-	 * @return
-	 */
-	public String getIntervalName( RealPoint point, Map< Interval, String > intervalToName )
+	public PlateLayoutIndex getPlateLayoutIndex()
 	{
-		for ( Interval interval : intervalToName.keySet() )
-		{
-			if ( Intervals.contains( interval, point ) ) return intervalToName.get( interval );
-		}
+		return plateLayout.getPlateLayoutIndex();
+	}
 
-		return null;
+	public String getSiteName( RealPoint point )
+	{
+		final SingleSiteChannelFile site = getPlateLayoutIndex().getSite( point );
+
+		if ( site == null ) return null;
+
+		return site.getSiteName();
+	}
+
+	public String getWellName( RealPoint point )
+	{
+		return getPlateLayoutIndex().getWellName( point );
 	}
 
 	public void notifySiteSelectionModel( String siteName )
@@ -655,6 +789,18 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 			siteSelectionModel.focus( selectedSite );
 	}
 
+	private List< String > getAnnotatedIntervalNames( List< T > annotatedIntervals )
+	{
+		final ArrayList< String > names = new ArrayList<>();
+
+		if ( annotatedIntervals == null ) return names;
+
+		for ( T interval : annotatedIntervals )
+			names.add( interval.getName() );
+
+		return names;
+	}
+
 	private T getAnnotatedInterval( List< T > annotatedIntervals, String name )
 	{
 		for ( T interval : annotatedIntervals )
@@ -667,7 +813,7 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 
 	public boolean isImageExisting ( final SingleCellArrayImg< R, ? > cell )
 	{
-		final SingleSiteChannelFile imageFile = referenceWellImg.getLoader().getChannelSource( cell );
+		final SingleSiteChannelFile imageFile = getPlateLayoutIndex().getSite( cell );
 
 		if ( imageFile != null ) return true;
 		else return false;
@@ -730,6 +876,13 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 
 		optimiseBehaviourFor2D();
 
+		// start a new request generation with each rendered frame,
+		// such that requests for cells that left the view are dropped
+		bdvHandle.getCacheControls().addCacheControl( loadingQueue::clearToPrefetch );
+
+		sitePrefetcher = new SitePrefetcher( bdvHandle, loadingQueue, getPlateLayoutIndex(), () -> new ArrayList<>( channelToMultiWellImg.values() ) );
+		bdvHandle.getViewerPanel().addTransformListener( sitePrefetcher );
+
 		// This may interfere with loading of the resolution layers => TODO right click!
 		// new BdvGrayValuesOverlay( bdv, Utils.bdvTextOverlayFontSize );
 
@@ -742,6 +895,15 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 				mainPanel.getLocation().x + mainPanel.getWidth() + 10,
 				mainPanel.getLocation().y );
 
+		BdvUtils.getViewerFrame( bdvHandle ).addWindowListener( new WindowAdapter()
+		{
+			@Override
+			public void windowClosed( WindowEvent e )
+			{
+				close();
+			}
+		} );
+
 		return bdvTmpSource;
 	}
 
@@ -768,6 +930,9 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 
 		bdvSource.setActive( bdvViewable.isInitiallyVisible() );
 
+		if ( bdvViewable instanceof MultiWellImg && sitePrefetcher != null )
+			sitePrefetcher.prefetchThumbnails();
+
 		bdvSource.setDisplayRange( bdvViewable.getContrastLimits()[ 0 ], bdvViewable.getContrastLimits()[ 1 ] );
 
 		bdvSource.setColor( bdvViewable.getColor() );
@@ -809,7 +974,7 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 
 			if ( source instanceof RandomAccessibleIntervalPlateViewerSource )
 			{
-				source = (( RandomAccessibleIntervalPlateViewerSource ) source ).asVolatile( new SharedQueue( 1 ) );
+				source = (( RandomAccessibleIntervalPlateViewerSource ) source ).asVolatile( loadingQueue );
 			}
 
 			if ( bdvViewable.getType().equals( Metadata.Type.Segmentation ) )
@@ -853,7 +1018,7 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 	{
 		final long[] coordinates = getMouseCoordinates();
 
-		final SingleSiteChannelFile singleSiteChannelFile = referenceWellImg.getLoader().getChannelSource( coordinates );
+		final SingleSiteChannelFile singleSiteChannelFile = getPlateLayoutIndex().getSite( coordinates );
 
 		if ( singleSiteChannelFile != null )
 		{
@@ -885,10 +1050,34 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 		this.sites = annotatedIntervals;
 		this.siteSelectionModel = selectionModel;
 		registerAsIntervalSelectionListener( selectionModel );
+		registerAsSitePrefetchListener( selectionModel );
 		selectionColoringModel.listeners().add( () -> BdvUtils.repaint( bdvHandle ) );
 		addAnnotatedIntervalQCOverlay( sites, "site QC" );
 	}
 
+	private void registerAsSitePrefetchListener( SelectionModel< T > selectionModel )
+	{
+		selectionModel.listeners().add( new SelectionListener< T >()
+		{
+			@Override
+			public void selectionChanged()
+			{
+				// a single selected site is likely to be viewed next; larger selections
+				// (e.g. all sites that failed QC) are not prefetched, as they would flood the queue
+				final Set< T > selected = selectionModel.getSelected();
+
+				if ( selected.size() == 1 )
+					prefetchAroundSite( selected.iterator().next().getName(), getAnnotatedIntervalNames( sites ) );
+			}
+
+			@Override
+			public void focusEvent( T selection )
+			{
+				prefetchAroundSite( selection.getName(), getAnnotatedIntervalNames( sites ) );
+			}
+		} );
+	}
+
 	// TODO: Do we really need both site and well or can we unify in a list
 	public void addAnnotatedWellIntervals(
 			List< T > annotatedIntervals,
@@ -933,7 +1122,7 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 			@Override
 			public void focusEvent( T selection )
 			{
-				final SingleSiteChannelFile singleSiteChannelFile = referenceWellImg.getLoader().getChannelSource( selection.getName() );
+				final SingleSiteChannelFile singleSiteChannelFile = getPlateLayoutIndex().getSite( selection.getName() );
 
 				if ( singleSiteChannelFile == null )
 				{
@@ -962,44 +1151,177 @@ public class PlateViewer< R extends NativeType< R > & RealType< R >, T extends A
 		addToPanelAndBdv( new OverlayBdvViewable( overlay, name ) );
 	}
 
+	/**
+	 * Adds the channel once its image is created, without blocking the calling (e.g. UI) thread.
+	 */
 	public void addToPanelAndBdv( String channel )
 	{
-		MultiWellImg multiWellImg = getMultiWellImg( channel );
+		final CompletableFuture< MultiWellImg< ? > > future = getMultiWellImgFuture( channel );
 
-		multiWellImg.setInitiallyVisible( true );
+		if ( ! future.isDone() )
+			Logger.info( "Channel " + channel + " is still being created, it will be shown when ready..." );
 
-		addToPanelAndBdv( multiWellImg );
+		future.thenAccept( multiWellImg -> SwingUtilities.invokeLater( () ->
+		{
+			multiWellImg.setInitiallyVisible( true );
+			addToPanelAndBdv( multiWellImg );
+		} ) );
 	}
 
 	public MultiWellImg getMultiWellImg( String channel )
 	{
-		if ( channelToMultiWellImg.containsKey( channel ) )
+		try
 		{
-			return channelToMultiWellImg.get( channel );
+			return getMultiWellImgFuture( channel ).join();
 		}
-		else
+		catch ( CompletionException e )
 		{
-			MultiWellImg multiWellImg = createMultiWellImg( channel );
-			channelToMultiWellImg.put( channel, multiWellImg );
-			return  multiWellImg;
+			throw new UnsupportedOperationException( "Could not create channel " + channel, e.getCause() );
 		}
 	}
 
+	/**
+	 * A channel that could not be created, e.g. because of an I/O error on network storage,
+	 * is created again when it is requested the next time.
+	 */
+	private synchronized CompletableFuture< MultiWellImg< ? > > getMultiWellImgFuture( String channel )
+	{
+		if ( channelToMultiWellImg.containsKey( channel ) )
+			return CompletableFuture.completedFuture( channelToMultiWellImg.get( channel ) );
+
+		final CompletableFuture< MultiWellImg< ? > > existing = channelToMultiWellImgFuture.get( channel );
+		if ( existing != null ) return existing;
+
+		final CompletableFuture< MultiWellImg< ? > > future = CompletableFuture.supplyAsync( () ->
+		{
+			final MultiWellImg< ? > multiWellImg = createMultiWellImg( channel );
+			channelToMultiWellImg.put( channel, multiWellImg );
+			return multiWellImg;
+		}, channelCreationService );
+
+		channelToMultiWellImgFuture.put( channel, future );
+
+		future.whenComplete( ( multiWellImg, throwable ) ->
+		{
+			if ( throwable == null ) return;
+
+			channelToMultiWellImgFuture.remove( channel, future );
+			Logger.error( "Could not create channel " + channel + ": " + throwable.getMessage() );
+		} );
+
+		return future;
+	}
+
 	public MultiWellImg createMultiWellImg( String channel )
 	{
 		MultiWellImg multiWellImg;
 		if ( namingScheme.equals( NamingSchemes.PATTERN_NIKON_TI2_HDF5  ) )
 		{
 			// All channels are in the same files, thus we do not have to fetch them again.
-			multiWellImg = MultiWellImgCreator.createFromChannelFiles( referenceWellImg.getChannelFiles(), namingScheme, channel );
+			multiWellImg = MultiWellImgCreator.createFromChannelFiles( siteFiles, namingScheme, channel, getBatchLibHdf5SiteIndex() );
 		}
 		else
 		{
-			multiWellImg = MultiWellImgCreator.create( siteFiles, namingScheme, channel );
+			multiWellImg = MultiWellImgCreator.create( siteFiles, namingScheme, channel, getPlateDirectory() );
 		}
 		return multiWellImg;
 	}
 
+	/**
+	 * The wells and sites of a BatchLib plate are parsed once for all its channels,
+	 * from the files that were there when the plate was opened.
+	 */
+	private synchronized BatchLibHdf5SiteIndex getBatchLibHdf5SiteIndex()
+	{
+		if ( batchLibHdf5SiteIndex == null )
+			batchLibHdf5SiteIndex = new BatchLibHdf5SiteIndex( siteFiles );
+
+		return batchLibHdf5SiteIndex;
+	}
+
+	/**
+	 * Follows a plate that is still being acquired: files that are written to the plate folders
+	 * are added to all channels, using the well and site layout of the files that were there when the plate was opened.
+	 *
+	 * For wells that are acquired later to be shown, the images must span the full plate,
+	 * see {@link MultiWellImg#setFullPlateExtent(boolean)}.
+	 */
+	public synchronized void startLiveMode()
+	{
+		if ( plateFolderWatchers != null ) return;
+
+		plateFolderWatchers = new ArrayList<>();
+
+		for ( PlateFileIndex index : plateFileIndices )
+		{
+			final PlateFolderWatcher watcher = new PlateFolderWatcher( index, siteFiles, this::addSiteFiles );
+			watcher.start();
+			plateFolderWatchers.add( watcher );
+		}
+
+		Utils.log( "Live mode: watching " + inputDirectories + " for new files..." );
+	}
+
+	/**
+	 * Called when the viewer is closed: stops following the plate and creating its channels, closes the HDF5 files of the plate
+	 * and releases its sites, see {@link SiteRegistry#release()}.
+	 */
+	public synchronized void close()
+	{
+		if ( isClosed ) return;
+
+		isClosed = true;
+		stopLiveMode();
+		if ( channelCreationService != null ) channelCreationService.shutdownNow();
+		if ( sitePrefetcher != null ) sitePrefetcher.close();
+		Hdf5ReaderPool.close( siteFiles );
+		SiteRegistry.release();
+	}
+
+	public synchronized void stopLiveMode()
+	{
+		if ( plateFolderWatchers == null ) return;
+
+		for ( PlateFolderWatcher watcher : plateFolderWatchers )
+			watcher.stop();
+
+		plateFolderWatchers = null;
+	}
+
+	/**
+	 * Adds the files to all channels, including the channels that are still being created
+	 * (which may or may not contain the files already).
+	 */
+	private void addSiteFiles( List< File > files )
+	{
+		synchronized ( this )
+		{
+			// the file list is replaced rather than modified, as it is shared with the channels
+			final List< File > allFiles = new ArrayList<>( siteFiles );
+			allFiles.addAll( files );
+			siteFiles = allFiles;
+		}
+
+		Utils.log( "Live mode: adding " + files.size() + " new files..." );
+
+		plateLayout.addFiles( MultiWellImgCreator.filterChannelFiles( files, namingScheme, getReferenceChannelProperties().name ) );
+
+		for ( CompletableFuture< MultiWellImg< ? > > future : channelToMultiWellImgFuture.values() )
+		{
+			future.thenAccept( multiWellImg ->
+			{
+				final List< File > channelFiles = MultiWellImgCreator.filterChannelFiles( files, namingScheme, multiWellImg.getName() );
+
+				if ( channelFiles.isEmpty() ) return;
+
+				multiWellImg.addFiles( channelFiles );
+
+				if ( bdvHandle != null )
+					bdvHandle.getViewerPanel().requestRepaint();
+			} );
+		}
+	}
+
 	public Map< String, MultiWellImg< ? > > getChannelToMultiWellImg()
 	{
 		return channelToMultiWellImg;
@@ -1,5 +1,8 @@
 package de.embl.cba.plateviewer;
 
+import de.embl.cba.plateviewer.cache.CellMemoryCache;
+import de.embl.cba.plateviewer.cache.DiskCellCache;
+import de.embl.cba.plateviewer.image.channel.MultiWellImg;
 import de.embl.cba.plateviewer.table.IntervalType;
 import de.embl.cba.plateviewer.table.TableSource;
 import org.scijava.command.Command;
@@ -17,8 +20,31 @@ public class PlateViewerAdvancedCommand extends PlateViewerCommand
 	@Parameter (label = "Images table file", style = "file", required = false )
 	public File imageTableFile;
 
+	@Parameter (label = "Cell size [pixels] (0 = whole site)", required = false )
+	public int cellSize = 0;
+
+	@Parameter (label = "Cell cache size [GB] (0 = limited by Java memory)", required = false )
+	public double cellCacheSizeGB = 0;
+
+	@Parameter (label = "Disk cache size [GB] (0 = no disk cache)", required = false )
+	public double diskCacheSizeGB = 0;
+
+	@Parameter (label = "Live mode (show files that are added during the acquisition)", required = false )
+	public boolean liveMode = false;
+
 	public void run()
 	{
+		if ( cellSize > 0 )
+			MultiWellImg.setSiteCellDimensions( new int[]{ cellSize, cellSize } );
+		else
+			MultiWellImg.setSiteCellDimensions( null );
+
+		CellMemoryCache.setMaxNumBytes( ( long ) ( cellCacheSizeGB * 1024 * 1024 * 1024 ) );
+		DiskCellCache.setMaxNumBytes( ( long ) ( diskCacheSizeGB * 1024 * 1024 * 1024 ) );
+
+		// wells that are not acquired yet must fit into the images
+		MultiWellImg.setFullPlateExtent( liveMode );
+
 		final PlateViewerInitializer plateViewerInitializer = new PlateViewerInitializer( imagesDirectory, filePattern, 4, includeSubFolders );
 
 		if ( additionalImagesDirectory != null & additionalImagesDirectory.exists())
@@ -32,6 +58,8 @@ public class PlateViewerAdvancedCommand extends PlateViewerCommand
 			plateViewerInitializer.setSiteTableSource( tableSource );
 		}
 
+		plateViewerInitializer.setLiveMode( liveMode );
+
 		plateViewerInitializer.run();
 	}
 
@@ -23,6 +23,7 @@ public class PlateViewerInitializer< R extends NativeType< R > & RealType< R >,
 	private TableSource siteTableSource;
 	private TableSource wellTableSource;
 	private String additionalImagesDirectory;
+	private boolean liveMode;
 
 	public PlateViewerInitializer( File imagesDirectory, String filePattern, int numIoThreads, boolean includeSubFolders )
 	{
@@ -46,6 +47,9 @@ public class PlateViewerInitializer< R extends NativeType< R > & RealType< R >,
 
 		plateViewer.run();
 
+		if ( liveMode )
+			plateViewer.startLiveMode();
+
 		namingScheme = plateViewer.getNamingScheme();
 
 		if ( plateViewer.getNamingScheme().equals( NamingSchemes.PATTERN_NIKON_TI2_HDF5  ) )
@@ -165,6 +169,11 @@ public class PlateViewerInitializer< R extends NativeType< R > & RealType< R >,
 		return tableSource;
 	}
 
+	public void setLiveMode( boolean liveMode )
+	{
+		this.liveMode = liveMode;
+	}
+
 	public void addInputImagesDirectory( String additionalImagesDirectory )
 	{
 		this.additionalImagesDirectory = additionalImagesDirectory;
@@ -4,9 +4,11 @@ package de.embl.cba.plateviewer.bdv;
 import bdv.util.Bdv;
 import bdv.util.BdvOverlay;
 import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
-import de.embl.cba.plateviewer.image.cellloader.MultiSiteLoader;
+import de.embl.cba.plateviewer.image.SiteInformationFetcher;
+import de.embl.cba.plateviewer.image.PlateLayoutIndex;
 import net.imglib2.RealPoint;
 
+import javax.swing.SwingUtilities;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionListener;
 import java.awt.*;
@@ -14,21 +16,32 @@ import java.awt.*;
 import static de.embl.cba.plateviewer.util.Utils.bdvTextOverlayFontSize;
 
 
+/**
+ * Shows the well and site under the mouse, with their information.
+ * The information is fetched in the background when a site is hovered for the first time,
+ * until then a placeholder is shown.
+ */
 public class BdvSiteAndWellInformationOverlay extends BdvOverlay implements MouseMotionListener
 {
+	public static final String INFORMATION_PLACEHOLDER = "...";
+
 	final int numDimensions;
 	final Bdv bdv;
-	final MultiSiteLoader multiSiteLoader;
+	final PlateLayoutIndex plateLayoutIndex;
+	final SiteInformationFetcher informationFetcher;
+	private volatile SingleSiteChannelFile site;
 	private String wellName;
 	private String siteName;
 
 	public BdvSiteAndWellInformationOverlay(
 			Bdv bdv,
-			MultiSiteLoader multiSiteLoader )
+			PlateLayoutIndex plateLayoutIndex,
+			SiteInformationFetcher informationFetcher )
 	{
 		super();
 		this.bdv = bdv;
-		this.multiSiteLoader = multiSiteLoader;
+		this.plateLayoutIndex = plateLayoutIndex;
+		this.informationFetcher = informationFetcher;
 		this.numDimensions = 2;
 
 		bdv.getBdvHandle().getViewerPanel().getDisplay().addMouseMotionListener( this );
@@ -88,17 +101,43 @@ public class BdvSiteAndWellInformationOverlay extends BdvOverlay implements Mous
 
 		final long[] coordinate2D = getCoordinate2D( globalMouseCoordinates );
 
-		final SingleSiteChannelFile singleSiteChannelFile = multiSiteLoader.getChannelSource( coordinate2D );
-		if ( singleSiteChannelFile != null )
+		final SingleSiteChannelFile singleSiteChannelFile = plateLayoutIndex.getSite( coordinate2D );
+
+		if ( singleSiteChannelFile == site ) return;
+
+		site = singleSiteChannelFile;
+
+		if ( singleSiteChannelFile == null )
 		{
-			wellName = singleSiteChannelFile.getWellName() + " " + singleSiteChannelFile.getWellInformation();
-			siteName = singleSiteChannelFile.getSiteName() + " " + singleSiteChannelFile.getSiteInformation();
+			wellName = "";
+			siteName = "";
+		}
+		else if ( informationFetcher.fetch( singleSiteChannelFile, () -> onInformationFetched( singleSiteChannelFile ) ) )
+		{
+			setNames( singleSiteChannelFile, singleSiteChannelFile.getWellInformation(), singleSiteChannelFile.getSiteInformation() );
 		}
 		else
 		{
-			wellName = "";
-			siteName = "";
+			setNames( singleSiteChannelFile, INFORMATION_PLACEHOLDER, INFORMATION_PLACEHOLDER );
 		}
 	}
+
+	private void onInformationFetched( SingleSiteChannelFile singleSiteChannelFile )
+	{
+		SwingUtilities.invokeLater( () ->
+		{
+			// the mouse may have moved on in the meantime
+			if ( singleSiteChannelFile != site ) return;
+
+			setNames( singleSiteChannelFile, singleSiteChannelFile.getWellInformation(), singleSiteChannelFile.getSiteInformation() );
+			bdv.getBdvHandle().getViewerPanel().getDisplay().repaint();
+		} );
+	}
+
+	private void setNames( SingleSiteChannelFile singleSiteChannelFile, String wellInformation, String siteInformation )
+	{
+		wellName = singleSiteChannelFile.getWellName() + " " + wellInformation;
+		siteName = singleSiteChannelFile.getSiteName() + " " + siteInformation;
+	}
 }
 
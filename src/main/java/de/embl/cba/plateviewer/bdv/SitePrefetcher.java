@@ -0,0 +1,280 @@
+package de.embl.cba.plateviewer.bdv;
+
+import bdv.util.BdvHandle;
+import bdv.util.BdvSource;
+import bdv.util.BdvStackSource;
+import bdv.util.volatiles.VolatileViews;
+import bdv.viewer.TransformListener;
+import de.embl.cba.bdv.utils.BdvUtils;
+import de.embl.cba.plateviewer.cache.ThumbnailStore;
+import de.embl.cba.plateviewer.image.PlateLayoutIndex;
+import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.image.channel.MultiWellImg;
+import de.embl.cba.plateviewer.image.source.PlateViewerLoadingQueue;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.Volatile;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Intervals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Enqueues the full resolution cells of sites that are likely to be viewed next:
+ * the sites ahead of the current panning direction, the next sites of the
+ * site list or table that is being reviewed, and the neighbours of a focused site.
+ * It also keeps the thumbnails of the shown channels being computed in the background.
+ *
+ * Requests are enqueued with {@link PlateViewerLoadingQueue#PREFETCH_PRIORITY},
+ * such that they are only loaded when no visible cells are waiting.
+ * As these requests are never dropped, the panning direction is only predicted
+ * once the view has settled, and not for every frame of a pan or zoom animation.
+ */
+public class SitePrefetcher implements TransformListener< AffineTransform3D >
+{
+	public static final int NUM_NEXT_SITES = 3;
+	public static final int MAX_NUM_PANNING_SITES = 8;
+	public static final long PAN_SETTLE_MILLIS = 150;
+
+	// shared by all plates, as it only schedules the predictions
+	private static final ScheduledExecutorService panPredictionExecutor = Executors.newSingleThreadScheduledExecutor( runnable -> {
+		final Thread thread = new Thread( runnable, "pan prediction" );
+		thread.setDaemon( true );
+		return thread;
+	} );
+
+	private final BdvHandle bdvHandle;
+	private final PlateViewerLoadingQueue loadingQueue;
+	private final PlateLayoutIndex plateLayoutIndex;
+	private final Supplier< Collection< MultiWellImg< ? > > > channels;
+	private final Map< MultiWellImg< ? >, RandomAccessibleInterval< ? extends Volatile< ? > > > channelToPrefetchView;
+	private Interval settledView;
+	private ScheduledFuture< ? > panPrediction;
+	private volatile boolean isClosed;
+
+	/**
+	 * @param channels
+	 * 			supplies the channels of the plate; only channels that are shown in BigDataViewer are prefetched
+	 */
+	public SitePrefetcher(
+			BdvHandle bdvHandle,
+			PlateViewerLoadingQueue loadingQueue,
+			PlateLayoutIndex plateLayoutIndex,
+			Supplier< Collection< MultiWellImg< ? > > > channels )
+	{
+		this.bdvHandle = bdvHandle;
+		this.loadingQueue = loadingQueue;
+		this.plateLayoutIndex = plateLayoutIndex;
+		this.channels = channels;
+		this.channelToPrefetchView = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Prefetches the sites that follow the given site in the given review order.
+	 */
+	public void prefetchNextSites( List< String > siteNames, String siteName )
+	{
+		final int index = siteNames.indexOf( siteName );
+		if ( index == -1 ) return;
+
+		for ( int i = index + 1; i < Math.min( index + 1 + NUM_NEXT_SITES, siteNames.size() ); i++ )
+		{
+			final SingleSiteChannelFile site = plateLayoutIndex.getSite( siteNames.get( i ) );
+			if ( site != null )
+				prefetch( site.getInterval() );
+		}
+	}
+
+	/**
+	 * Prefetches the (up to eight) sites that surround the given site.
+	 */
+	public void prefetchNeighbouringSites( String siteName )
+	{
+		final SingleSiteChannelFile site = plateLayoutIndex.getSite( siteName );
+		if ( site == null ) return;
+
+		for ( int dy = -1; dy <= 1; dy++ )
+			for ( int dx = -1; dx <= 1; dx++ )
+			{
+				if ( dx == 0 && dy == 0 ) continue;
+
+				final SingleSiteChannelFile neighbour = plateLayoutIndex.getSite(
+						site.min( 0 ) + dx * site.dimension( 0 ),
+						site.min( 1 ) + dy * site.dimension( 1 ) );
+
+				if ( neighbour != null )
+					prefetch( neighbour.getInterval() );
+			}
+	}
+
+	/**
+	 * Continues the computation of the thumbnails of the shown channels,
+	 * see {@link ThumbnailStore#computeInBackground}, until they are hidden or the plate is closed.
+	 */
+	public void prefetchThumbnails()
+	{
+		for ( MultiWellImg< ? > channel : getShownChannels() )
+		{
+			final ThumbnailStore< ? > thumbnailStore = channel.getThumbnailStore();
+			if ( thumbnailStore != null )
+				thumbnailStore.computeInBackground( loadingQueue, () -> ! isClosed && isVisible( channel.getBdvSource() ) );
+		}
+	}
+
+	/**
+	 * Restarts the wait for the view to settle, see {@link #predictPan(AffineTransform3D)}.
+	 */
+	@Override
+	public synchronized void transformChanged( AffineTransform3D transform )
+	{
+		if ( isClosed ) return;
+		if ( panPrediction != null ) panPrediction.cancel( false );
+
+		final AffineTransform3D settledTransform = transform.copy();
+		panPrediction = panPredictionExecutor.schedule( () -> predictPan( settledTransform ), PAN_SETTLE_MILLIS, TimeUnit.MILLISECONDS );
+	}
+
+	/**
+	 * Stops predicting the panning direction, e.g. when the viewer is closed.
+	 */
+	public synchronized void close()
+	{
+		isClosed = true;
+		if ( panPrediction != null ) panPrediction.cancel( false );
+	}
+
+	/**
+	 * Prefetches the region that the view would show after panning once more by its own size
+	 * in the direction of the last movement, i.e. from the previously settled view to the given one.
+	 * Zooming, which changes the size of the view, is not predicted.
+	 */
+	private synchronized void predictPan( AffineTransform3D transform )
+	{
+		prefetchThumbnails();
+
+		final Interval view = getViewInterval( transform );
+		if ( view == null ) return;
+
+		final Interval previous = settledView;
+		settledView = view;
+		if ( previous == null || ! isSameSize( view, previous ) ) return;
+
+		final double dx = view.min( 0 ) - previous.min( 0 );
+		final double dy = view.min( 1 ) - previous.min( 1 );
+		final double distance = Math.sqrt( dx * dx + dy * dy );
+		if ( distance == 0 ) return;
+
+		final long[] siteDimensions = plateLayoutIndex.getSiteDimensions();
+		final long numSites = ( view.dimension( 0 ) / siteDimensions[ 0 ] + 1 ) * ( view.dimension( 1 ) / siteDimensions[ 1 ] + 1 );
+
+		// zoomed out too far to load the sites at full resolution
+		if ( numSites > MAX_NUM_PANNING_SITES ) return;
+
+		final long shiftX = Math.round( dx / distance * view.dimension( 0 ) );
+		final long shiftY = Math.round( dy / distance * view.dimension( 1 ) );
+
+		prefetch( Intervals.translate( Intervals.translate( view, shiftX, 0 ), shiftY, 1 ) );
+	}
+
+	/**
+	 * Rounding the view to pixels may change its size by one pixel while panning.
+	 */
+	private static boolean isSameSize( Interval view, Interval previous )
+	{
+		for ( int d = 0; d < 2; d++ )
+			if ( Math.abs( view.dimension( d ) - previous.dimension( d ) ) > 1 ) return false;
+
+		return true;
+	}
+
+	/**
+	 * Enqueues the loading of all cells within the given interval of the full resolution plate.
+	 */
+	public void prefetch( Interval interval )
+	{
+		for ( MultiWellImg< ? > channel : getShownChannels() )
+		{
+			final RandomAccessibleInterval< ? extends Volatile< ? > > view = getPrefetchView( channel );
+
+			final Interval clipped = Intervals.intersect( interval, view );
+			if ( Intervals.isEmpty( clipped ) ) continue;
+
+			final int[] cellDimensions = channel.getCellDimensions();
+			final RandomAccess< ? extends Volatile< ? > > access = view.randomAccess();
+
+			// one access per cell enqueues its loading without waiting for it
+			for ( long y = clipped.min( 1 ); y <= clipped.max( 1 ); y = ( y / cellDimensions[ 1 ] + 1 ) * cellDimensions[ 1 ] )
+				for ( long x = clipped.min( 0 ); x <= clipped.max( 0 ); x = ( x / cellDimensions[ 0 ] + 1 ) * cellDimensions[ 0 ] )
+				{
+					access.setPosition( x, 0 );
+					access.setPosition( y, 1 );
+					access.get();
+				}
+		}
+	}
+
+	private List< MultiWellImg< ? > > getShownChannels()
+	{
+		final List< MultiWellImg< ? > > shownChannels = new ArrayList<>();
+
+		for ( MultiWellImg< ? > channel : channels.get() )
+			if ( isVisible( channel.getBdvSource() ) )
+				shownChannels.add( channel );
+
+		return shownChannels;
+	}
+
+	private boolean isVisible( BdvSource bdvSource )
+	{
+		if ( ! ( bdvSource instanceof BdvStackSource ) ) return false;
+
+		final BdvStackSource< ? > bdvStackSource = ( BdvStackSource< ? > ) bdvSource;
+		return BdvUtils.isActive( bdvHandle, bdvStackSource.getSources().get( 0 ).getSpimSource() );
+	}
+
+	private RandomAccessibleInterval< ? extends Volatile< ? > > getPrefetchView( MultiWellImg< ? > channel )
+	{
+		// enqueued to the front, ahead of the background computation of thumbnails
+		return channelToPrefetchView.computeIfAbsent( channel, c ->
+				( RandomAccessibleInterval< ? extends Volatile< ? > > ) VolatileViews.wrapAsVolatile(
+						( RandomAccessibleInterval ) c.getRAI(),
+						loadingQueue,
+						new CacheHints( LoadingStrategy.VOLATILE, PlateViewerLoadingQueue.PREFETCH_PRIORITY, true ) ) );
+	}
+
+	private Interval getViewInterval( AffineTransform3D transform )
+	{
+		final int width = bdvHandle.getViewerPanel().getDisplay().getWidth();
+		final int height = bdvHandle.getViewerPanel().getDisplay().getHeight();
+		if ( width == 0 || height == 0 ) return null;
+
+		final long[] min = new long[]{ Long.MAX_VALUE, Long.MAX_VALUE };
+		final long[] max = new long[]{ Long.MIN_VALUE, Long.MIN_VALUE };
+		final double[] global = new double[ 3 ];
+
+		for ( double[] corner : new double[][]{ { 0, 0, 0 }, { width, 0, 0 }, { 0, height, 0 }, { width, height, 0 } } )
+		{
+			transform.applyInverse( global, corner );
+			for ( int d = 0; d < 2; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], ( long ) Math.floor( global[ d ] ) );
+				max[ d ] = Math.max( max[ d ], ( long ) Math.ceil( global[ d ] ) );
+			}
+		}
+
+		return new FinalInterval( min, max );
+	}
+}
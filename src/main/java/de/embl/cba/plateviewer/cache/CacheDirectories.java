@@ -0,0 +1,67 @@
+package de.embl.cba.plateviewer.cache;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Locations of the files that the plate viewer keeps between sessions,
+ * below ~/.cache/plateviewer (or $XDG_CACHE_HOME/plateviewer).
+ */
+public class CacheDirectories
+{
+	public static final String CACHE_DIRECTORY_NAME = "plateviewer";
+
+	public static File getRootDirectory()
+	{
+		final String xdgCacheHome = System.getenv( "XDG_CACHE_HOME" );
+
+		final File cacheHome = xdgCacheHome != null && ! xdgCacheHome.isEmpty()
+				? new File( xdgCacheHome )
+				: new File( System.getProperty( "user.home" ), ".cache" );
+
+		return new File( cacheHome, CACHE_DIRECTORY_NAME );
+	}
+
+	/**
+	 * @return the directory for the cached files of the plate in the given directory,
+	 * which is created if it does not exist yet
+	 */
+	public static File getPlateDirectory( String plateDirectory )
+	{
+		return getDirectory( hash( new File( plateDirectory ).getAbsolutePath() ) );
+	}
+
+	/**
+	 * @return the directory with the given name below the root directory,
+	 * which is created if it does not exist yet
+	 */
+	public static File getDirectory( String name )
+	{
+		final File directory = new File( getRootDirectory(), name );
+
+		if ( ! directory.exists() && ! directory.mkdirs() && ! directory.exists() )
+			throw new UnsupportedOperationException( "Could not create cache directory " + directory );
+
+		return directory;
+	}
+
+	public static String hash( String key )
+	{
+		try
+		{
+			final byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( key.getBytes( StandardCharsets.UTF_8 ) );
+
+			final StringBuilder hex = new StringBuilder();
+			for ( byte b : digest )
+				hex.append( String.format( "%02x", b ) );
+
+			return hex.toString();
+		}
+		catch ( NoSuchAlgorithmException e )
+		{
+			throw new UnsupportedOperationException( e );
+		}
+	}
+}
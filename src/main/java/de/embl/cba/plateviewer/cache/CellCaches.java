@@ -0,0 +1,195 @@
+package de.embl.cba.plateviewer.cache;
+
+import de.embl.cba.plateviewer.util.Utils;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.LoaderCache;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.LoadedCellCacheLoader;
+import net.imglib2.cache.ref.SoftRefLoaderCache;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.ArrayDataAccessFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.Intervals;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Creates the read-only cached cell images of the plate viewer,
+ * which share the {@link CellMemoryCache} if a memory budget is set.
+ *
+ * Cells that do not contain any image data (e.g. regions of the plate without sites)
+ * are not loaded, but backed by one shared array of zeros per type and cell size.
+ * The shared arrays are never handed to a {@link CellLoader}, which only ever fills new cells,
+ * and are checked to still be zero before they back another cell.
+ */
+public class CellCaches
+{
+	private static final Map< String, ArrayDataAccess< ? > > emptyAccesses = new ConcurrentHashMap<>();
+	private static final Set< Object > emptyData = Collections.synchronizedSet( Collections.newSetFromMap( new IdentityHashMap<>() ) );
+
+	public static < T extends NativeType< T > > CachedCellImg< T, ? > create(
+			String name,
+			long[] dimensions,
+			int[] cellDimensions,
+			T type,
+			CellLoader< T > loader )
+	{
+		return create( name, dimensions, cellDimensions, type, loader, null );
+	}
+
+	/**
+	 * @param isEmpty
+	 * 			tests whether a cell has no image data, or null if all cells are loaded
+	 */
+	public static < T extends NativeType< T > > CachedCellImg< T, ? > create(
+			String name,
+			long[] dimensions,
+			int[] cellDimensions,
+			T type,
+			CellLoader< T > loader,
+			Predicate< Interval > isEmpty )
+	{
+		return createCachedCellImg( name, dimensions, cellDimensions, type, loader, isEmpty );
+	}
+
+	/**
+	 * @return whether the given cell data is the shared data of empty cells,
+	 * which does not count towards the memory budget
+	 */
+	public static boolean isEmptyCellData( Object data )
+	{
+		return emptyData.contains( data );
+	}
+
+	private static < T extends NativeType< T >, A extends ArrayDataAccess< A > > CachedCellImg< T, A > createCachedCellImg(
+			String name,
+			long[] dimensions,
+			int[] cellDimensions,
+			T type,
+			CellLoader< T > loader,
+			Predicate< Interval > isEmpty )
+	{
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+
+		// volatile accesses, as for the ReadOnlyCachedCellImgFactory, such that the images can be wrapped as volatile
+		final Set< AccessFlags > flags = AccessFlags.setOf( AccessFlags.VOLATILE );
+
+		final A accessType = ArrayDataAccessFactory.get( type, flags );
+
+		CacheLoader< Long, Cell< A > > cacheLoader = LoadedCellCacheLoader.get( grid, loader, type, flags );
+
+		if ( isEmpty != null )
+			cacheLoader = new EmptyCellCacheLoader<>( cacheLoader, grid, type, accessType, isEmpty );
+
+		final CellMemoryCache cellMemoryCache = CellMemoryCache.getInstance();
+
+		final LoaderCache< Long, Cell< A > > loaderCache = cellMemoryCache != null
+				? cellMemoryCache.createLoaderCache( name )
+				: new SoftRefLoaderCache<>();
+
+		final Cache< Long, Cell< A > > cache = loaderCache.withLoader( cacheLoader );
+
+		return new CachedCellImg<>( grid, type, cache, accessType );
+	}
+
+	private static < A extends ArrayDataAccess< A > > A getEmptyAccess( A accessType, int numEntities )
+	{
+		final String key = accessType.getClass().getName() + ";" + numEntities;
+
+		return ( A ) emptyAccesses.compute( key, ( k, access ) -> {
+			if ( access != null && isZero( access.getCurrentStorageArray() ) )
+				return access;
+
+			if ( access != null )
+				Utils.log( "The shared data of empty cells has been written to; replacing it." );
+
+			final A emptyAccess = accessType.createArray( numEntities );
+			emptyData.add( emptyAccess );
+			return emptyAccess;
+		} );
+	}
+
+	private static boolean isZero( Object array )
+	{
+		if ( array instanceof byte[] )
+		{
+			for ( byte value : ( byte[] ) array ) if ( value != 0 ) return false;
+		}
+		else if ( array instanceof short[] )
+		{
+			for ( short value : ( short[] ) array ) if ( value != 0 ) return false;
+		}
+		else if ( array instanceof int[] )
+		{
+			for ( int value : ( int[] ) array ) if ( value != 0 ) return false;
+		}
+		else if ( array instanceof long[] )
+		{
+			for ( long value : ( long[] ) array ) if ( value != 0 ) return false;
+		}
+		else if ( array instanceof float[] )
+		{
+			for ( float value : ( float[] ) array ) if ( value != 0 ) return false;
+		}
+		else if ( array instanceof double[] )
+		{
+			for ( double value : ( double[] ) array ) if ( value != 0 ) return false;
+		}
+
+		return true;
+	}
+
+	private static class EmptyCellCacheLoader< T extends NativeType< T >, A extends ArrayDataAccess< A > > implements CacheLoader< Long, Cell< A > >
+	{
+		private final CacheLoader< Long, Cell< A > > cacheLoader;
+		private final CellGrid grid;
+		private final T type;
+		private final A accessType;
+		private final Predicate< Interval > isEmpty;
+
+		EmptyCellCacheLoader( CacheLoader< Long, Cell< A > > cacheLoader, CellGrid grid, T type, A accessType, Predicate< Interval > isEmpty )
+		{
+			this.cacheLoader = cacheLoader;
+			this.grid = grid;
+			this.type = type;
+			this.accessType = accessType;
+			this.isEmpty = isEmpty;
+		}
+
+		@Override
+		public Cell< A > get( Long key ) throws Exception
+		{
+			final long[] cellMin = new long[ grid.numDimensions() ];
+			final int[] cellDimensions = new int[ grid.numDimensions() ];
+			grid.getCellDimensions( key, cellMin, cellDimensions );
+
+			if ( ! isEmpty.test( FinalInterval.createMinSize( cellMin, toLong( cellDimensions ) ) ) )
+				return cacheLoader.get( key );
+
+			final long numPixels = Intervals.numElements( cellDimensions );
+			final int numEntities = ( int ) type.getEntitiesPerPixel().mulCeil( numPixels );
+
+			return new Cell<>( cellDimensions, cellMin, getEmptyAccess( accessType, numEntities ) );
+		}
+
+		private static long[] toLong( int[] values )
+		{
+			final long[] longs = new long[ values.length ];
+			for ( int i = 0; i < values.length; i++ )
+				longs[ i ] = values[ i ];
+			return longs;
+		}
+	}
+}
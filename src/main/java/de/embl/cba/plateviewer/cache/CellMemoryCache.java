@@ -0,0 +1,336 @@
+package de.embl.cba.plateviewer.cache;
+
+import de.embl.cba.plateviewer.util.Utils;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.LoaderCache;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.Cell;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
+
+/**
+ * One least-recently-used cache of cells for all images of the plate viewer,
+ * bounded by the total number of bytes of the cached cell arrays.
+ *
+ * Each image gets its own {@link LoaderCache} ({@link #createLoaderCache(String)}),
+ * which keeps track of the bytes, hits and misses of that image.
+ * The statistics only reference these caches weakly, such that the caches of images
+ * that are no longer used are garbage collected once their cells are evicted.
+ */
+public class CellMemoryCache
+{
+	private static CellMemoryCache cellMemoryCache;
+
+	private final long maxNumBytes;
+	private final LinkedHashMap< Key, Entry > keyToEntry;
+	private final Map< Key, CompletableFuture< Object > > keyToLoading;
+	private final List< WeakReference< ImageCache< ? > > > imageCaches;
+	private long numBytes;
+
+	private CellMemoryCache( long maxNumBytes )
+	{
+		this.maxNumBytes = maxNumBytes;
+		this.keyToEntry = new LinkedHashMap<>( 16, 0.75f, true );
+		this.keyToLoading = new ConcurrentHashMap<>();
+		this.imageCaches = new ArrayList<>();
+	}
+
+	/**
+	 * Sets the memory budget for the cells of images that are created afterwards.
+	 *
+	 * @param maxNumBytes
+	 * 			the budget; 0 means that each image uses the default soft reference cache,
+	 * 			whose size is only limited by the Java heap
+	 */
+	public static synchronized void setMaxNumBytes( long maxNumBytes )
+	{
+		if ( cellMemoryCache != null && cellMemoryCache.maxNumBytes == maxNumBytes ) return;
+
+		if ( cellMemoryCache != null )
+			Utils.log( "Changing the cell cache size only applies to images that are created afterwards." );
+
+		cellMemoryCache = maxNumBytes > 0 ? new CellMemoryCache( maxNumBytes ) : null;
+	}
+
+	/**
+	 * @return the shared cache, or null if no memory budget is set
+	 */
+	public static synchronized CellMemoryCache getInstance()
+	{
+		return cellMemoryCache;
+	}
+
+	public long getMaxNumBytes()
+	{
+		return maxNumBytes;
+	}
+
+	public synchronized long getNumBytes()
+	{
+		return numBytes;
+	}
+
+	public synchronized < V > LoaderCache< Long, V > createLoaderCache( String name )
+	{
+		final ImageCache< V > imageCache = new ImageCache<>( name );
+		imageCaches.removeIf( reference -> reference.get() == null );
+		imageCaches.add( new WeakReference<>( imageCache ) );
+		return imageCache;
+	}
+
+	public synchronized void logStatistics()
+	{
+		Utils.log( "Cell cache: " + toMegaBytes( numBytes ) + " of " + toMegaBytes( maxNumBytes ) + " MB in use" );
+
+		imageCaches.removeIf( reference -> reference.get() == null );
+
+		for ( WeakReference< ImageCache< ? > > reference : imageCaches )
+		{
+			final ImageCache< ? > imageCache = reference.get();
+			if ( imageCache == null || imageCache.numHits == 0 && imageCache.numMisses == 0 ) continue;
+
+			Utils.log( imageCache.name
+					+ ": " + toMegaBytes( imageCache.numBytes ) + " MB in " + imageCache.numCells + " cells"
+					+ ", hits: " + imageCache.numHits
+					+ ", misses: " + imageCache.numMisses
+					+ ", evictions: " + imageCache.numEvictions );
+		}
+	}
+
+	private static long toMegaBytes( long numBytes )
+	{
+		return numBytes / ( 1024 * 1024 );
+	}
+
+	private synchronized Object getIfPresent( Key key, boolean isCounted )
+	{
+		final Entry entry = keyToEntry.get( key );
+
+		if ( isCounted )
+		{
+			if ( entry != null ) key.imageCache.numHits++;
+			else key.imageCache.numMisses++;
+		}
+
+		return entry == null ? null : entry.value;
+	}
+
+	private Object get( Key key, CacheLoader< Long, ? > loader ) throws ExecutionException
+	{
+		final Object cached = getIfPresent( key, true );
+		if ( cached != null ) return cached;
+
+		final CompletableFuture< Object > loading = new CompletableFuture<>();
+		final CompletableFuture< Object > otherLoading = keyToLoading.putIfAbsent( key, loading );
+
+		if ( otherLoading != null )
+		{
+			try
+			{
+				return otherLoading.get();
+			}
+			catch ( InterruptedException e )
+			{
+				throw new ExecutionException( e );
+			}
+		}
+
+		try
+		{
+			// another thread may have finished loading in the meantime
+			Object value = getIfPresent( key, false );
+
+			if ( value == null )
+			{
+				value = loader.get( key.index );
+				put( key, value );
+			}
+
+			loading.complete( value );
+			return value;
+		}
+		catch ( Exception e )
+		{
+			loading.completeExceptionally( e );
+			throw new ExecutionException( e );
+		}
+		finally
+		{
+			keyToLoading.remove( key );
+		}
+	}
+
+	private synchronized void put( Key key, Object value )
+	{
+		final Entry entry = new Entry( value, getNumBytes( value ) );
+
+		final Entry replaced = keyToEntry.put( key, entry );
+		if ( replaced != null ) removed( key, replaced );
+
+		numBytes += entry.numBytes;
+		key.imageCache.numBytes += entry.numBytes;
+		key.imageCache.numCells++;
+
+		final Iterator< Map.Entry< Key, Entry > > iterator = keyToEntry.entrySet().iterator();
+		while ( numBytes > maxNumBytes && keyToEntry.size() > 1 )
+		{
+			final Map.Entry< Key, Entry > eldest = iterator.next();
+			iterator.remove();
+			removed( eldest.getKey(), eldest.getValue() );
+			eldest.getKey().imageCache.numEvictions++;
+		}
+	}
+
+	private synchronized void invalidateIf( ImageCache< ? > imageCache, Predicate< Long > condition )
+	{
+		final Iterator< Map.Entry< Key, Entry > > iterator = keyToEntry.entrySet().iterator();
+		while ( iterator.hasNext() )
+		{
+			final Map.Entry< Key, Entry > entry = iterator.next();
+			if ( entry.getKey().imageCache == imageCache && condition.test( entry.getKey().index ) )
+			{
+				iterator.remove();
+				removed( entry.getKey(), entry.getValue() );
+			}
+		}
+	}
+
+	private synchronized void invalidate( Key key )
+	{
+		final Entry entry = keyToEntry.remove( key );
+		if ( entry != null ) removed( key, entry );
+	}
+
+	private void removed( Key key, Entry entry )
+	{
+		numBytes -= entry.numBytes;
+		key.imageCache.numBytes -= entry.numBytes;
+		key.imageCache.numCells--;
+	}
+
+	private static long getNumBytes( Object value )
+	{
+		if ( ! ( value instanceof Cell ) ) return 0;
+
+		final Object data = ( ( Cell< ? > ) value ).getData();
+
+		// empty cells are cached as well, such that they count as hits, but share their data
+		if ( ! ( data instanceof ArrayDataAccess ) || CellCaches.isEmptyCellData( data ) ) return 0;
+
+		final Object array = ( ( ArrayDataAccess< ? > ) data ).getCurrentStorageArray();
+		final Class< ? > componentType = array.getClass().getComponentType();
+
+		final int bytesPerElement;
+		if ( componentType == byte.class || componentType == boolean.class ) bytesPerElement = 1;
+		else if ( componentType == short.class || componentType == char.class ) bytesPerElement = 2;
+		else if ( componentType == int.class || componentType == float.class ) bytesPerElement = 4;
+		else bytesPerElement = 8;
+
+		return ( long ) Array.getLength( array ) * bytesPerElement;
+	}
+
+	private static class Entry
+	{
+		final Object value;
+		final long numBytes;
+
+		Entry( Object value, long numBytes )
+		{
+			this.value = value;
+			this.numBytes = numBytes;
+		}
+	}
+
+	private static class Key
+	{
+		final ImageCache< ? > imageCache;
+		final long index;
+
+		Key( ImageCache< ? > imageCache, long index )
+		{
+			this.imageCache = imageCache;
+			this.index = index;
+		}
+
+		@Override
+		public boolean equals( Object o )
+		{
+			if ( ! ( o instanceof Key ) ) return false;
+			final Key key = ( Key ) o;
+			return imageCache == key.imageCache && index == key.index;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * System.identityHashCode( imageCache ) + Long.hashCode( index );
+		}
+	}
+
+	/**
+	 * The view of one image onto the shared cache.
+	 * The counters are guarded by the shared cache.
+	 */
+	private class ImageCache< V > implements LoaderCache< Long, V >
+	{
+		private final String name;
+		private long numBytes;
+		private long numCells;
+		private long numHits;
+		private long numMisses;
+		private long numEvictions;
+
+		ImageCache( String name )
+		{
+			this.name = name;
+		}
+
+		@Override
+		public V getIfPresent( Long key )
+		{
+			return ( V ) CellMemoryCache.this.getIfPresent( new Key( this, key ), false );
+		}
+
+		@Override
+		public V get( Long key, CacheLoader< ? super Long, ? extends V > loader ) throws ExecutionException
+		{
+			return ( V ) CellMemoryCache.this.get( new Key( this, key ), ( CacheLoader< Long, ? > ) loader );
+		}
+
+		public void invalidate( Long key )
+		{
+			CellMemoryCache.this.invalidate( new Key( this, key ) );
+		}
+
+		public void invalidateIf( long parallelismThreshold, Predicate< Long > condition )
+		{
+			CellMemoryCache.this.invalidateIf( this, condition );
+		}
+
+		public void invalidateIf( Predicate< Long > condition )
+		{
+			CellMemoryCache.this.invalidateIf( this, condition );
+		}
+
+		public void invalidateAll( long parallelismThreshold )
+		{
+			CellMemoryCache.this.invalidateIf( this, index -> true );
+		}
+
+		@Override
+		public void invalidateAll()
+		{
+			CellMemoryCache.this.invalidateIf( this, index -> true );
+		}
+	}
+}
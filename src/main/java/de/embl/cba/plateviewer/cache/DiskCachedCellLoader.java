@@ -0,0 +1,126 @@
+package de.embl.cba.plateviewer.cache;
+
+import de.embl.cba.plateviewer.image.PlateLayoutIndex;
+import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.type.NativeType;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves cells from the {@link DiskCellCache} and stores the cells
+ * that the wrapped loader loads in it.
+ *
+ * A cell is identified by the path and modification time of the site file it lies in,
+ * the name of the image (e.g. channel and resolution level) and its position within the site,
+ * such that modified files are loaded again and the plate layout may change between sessions.
+ * Cells that do not lie in a site are not cached.
+ *
+ * The modification times are checked again after {@link #LAST_MODIFIED_REFRESH_MILLIS},
+ * such that files that are rewritten (e.g. during an acquisition) are not served from the cache.
+ */
+public class DiskCachedCellLoader< T extends NativeType< T > > implements CellLoader< T >
+{
+	public static final long LAST_MODIFIED_REFRESH_MILLIS = 10000;
+
+	private final CellLoader< T > loader;
+	private final DiskCellCache diskCellCache;
+	private final PlateLayoutIndex plateLayoutIndex;
+	private final long scale;
+	private final String name;
+	private final Map< File, long[] > fileToLastModified; // modification time and time of the check
+
+	/**
+	 * @param plateLayoutIndex
+	 * 			the sites of the plate
+	 * @param scale
+	 * 			the factor from the coordinates of the cells to the coordinates of the plate layout index
+	 * @param name
+	 * 			identifies the image within the site files
+	 */
+	public DiskCachedCellLoader( CellLoader< T > loader, DiskCellCache diskCellCache, PlateLayoutIndex plateLayoutIndex, long scale, String name )
+	{
+		this.loader = loader;
+		this.diskCellCache = diskCellCache;
+		this.plateLayoutIndex = plateLayoutIndex;
+		this.scale = scale;
+		this.name = name;
+		this.fileToLastModified = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @return the given loader wrapped by a disk cached loader, or the given loader if the disk cache is disabled
+	 */
+	public static < T extends NativeType< T > > CellLoader< T > wrap( CellLoader< T > loader, PlateLayoutIndex plateLayoutIndex, long scale, String name )
+	{
+		final DiskCellCache diskCellCache = DiskCellCache.getInstance();
+
+		if ( diskCellCache == null ) return loader;
+
+		return new DiskCachedCellLoader<>( loader, diskCellCache, plateLayoutIndex, scale, name );
+	}
+
+	@Override
+	public void load( SingleCellArrayImg< T, ? > cell ) throws Exception
+	{
+		final String key = getKey( cell );
+
+		if ( key == null )
+		{
+			loader.load( cell );
+			return;
+		}
+
+		final Object array = cell.getStorageArray();
+
+		if ( diskCellCache.read( key, array ) ) return;
+
+		loader.load( cell );
+
+		diskCellCache.write( key, array );
+	}
+
+	private String getKey( Interval cell )
+	{
+		final long[] min = new long[ 2 ];
+		final long[] max = new long[ 2 ];
+		for ( int d = 0; d < 2; d++ )
+		{
+			min[ d ] = cell.min( d ) * scale;
+			max[ d ] = ( cell.max( d ) + 1 ) * scale - 1;
+		}
+
+		final SingleSiteChannelFile site = plateLayoutIndex.getSite( new FinalInterval( min, max ) );
+
+		if ( site == null ) return null;
+
+		final File file = site.getFile();
+		final long lastModified = getLastModified( file );
+
+		return file.getAbsolutePath()
+				+ ";" + lastModified
+				+ ";" + name
+				+ ";" + ( cell.min( 0 ) - site.min( 0 ) / scale )
+				+ ";" + ( cell.min( 1 ) - site.min( 1 ) / scale )
+				+ ";" + cell.dimension( 0 )
+				+ ";" + cell.dimension( 1 );
+	}
+
+	private long getLastModified( File file )
+	{
+		final long now = System.currentTimeMillis();
+		final long[] lastModified = fileToLastModified.get( file );
+
+		if ( lastModified != null && now - lastModified[ 1 ] < LAST_MODIFIED_REFRESH_MILLIS )
+			return lastModified[ 0 ];
+
+		final long modified = file.lastModified();
+		fileToLastModified.put( file, new long[]{ modified, now } );
+		return modified;
+	}
+}
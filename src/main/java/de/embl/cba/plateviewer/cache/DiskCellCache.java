@@ -0,0 +1,233 @@
+package de.embl.cba.plateviewer.cache;
+
+import de.embl.cba.plateviewer.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stores the pixel arrays of loaded cells in memory-mapped files,
+ * such that cells of remote plates are read from the local disk when a plate is reopened.
+ *
+ * The files are named by the hash of a key that identifies the content of the cell
+ * (see {@link DiskCachedCellLoader}). The least recently used files are deleted
+ * when the total size exceeds the configured maximum.
+ */
+public class DiskCellCache
+{
+	public static final String CELLS_DIRECTORY_NAME = "cells";
+	public static final String CELL_FILE_EXTENSION = ".cell";
+	public static final String TMP_FILE_PREFIX = "cell";
+	public static final String TMP_FILE_EXTENSION = ".tmp";
+	public static final long STALE_TMP_FILE_MILLIS = 10 * 60 * 1000;
+
+	private static DiskCellCache diskCellCache;
+
+	private final File directory;
+	private final long maxNumBytes;
+	private final LinkedHashMap< String, Long > fileNameToNumBytes;
+	private long numBytes;
+
+	private DiskCellCache( File directory, long maxNumBytes )
+	{
+		this.directory = directory;
+		this.maxNumBytes = maxNumBytes;
+		this.fileNameToNumBytes = new LinkedHashMap<>( 16, 0.75f, true );
+
+		indexFiles();
+	}
+
+	/**
+	 * @param maxNumBytes
+	 * 			the maximal size of the cache directory; 0 disables the disk cache
+	 */
+	public static synchronized void setMaxNumBytes( long maxNumBytes )
+	{
+		if ( diskCellCache != null && diskCellCache.maxNumBytes == maxNumBytes ) return;
+
+		diskCellCache = maxNumBytes > 0
+				? new DiskCellCache( CacheDirectories.getDirectory( CELLS_DIRECTORY_NAME ), maxNumBytes )
+				: null;
+	}
+
+	/**
+	 * @return the disk cache, or null if it is disabled
+	 */
+	public static synchronized DiskCellCache getInstance()
+	{
+		return diskCellCache;
+	}
+
+	private void indexFiles()
+	{
+		deleteStaleTmpFiles();
+
+		final File[] files = directory.listFiles( ( dir, name ) -> name.endsWith( CELL_FILE_EXTENSION ) );
+
+		if ( files == null ) return;
+
+		// oldest first, such that these are evicted first
+		Arrays.sort( files, Comparator.comparingLong( File::lastModified ) );
+
+		for ( File file : files )
+		{
+			fileNameToNumBytes.put( file.getName(), file.length() );
+			numBytes += file.length();
+		}
+
+		Utils.log( "Disk cell cache: " + files.length + " cells, " + numBytes / ( 1024 * 1024 ) + " MB in " + directory );
+	}
+
+	/**
+	 * Deletes the files of writes that were interrupted, e.g. because Fiji was killed.
+	 * Recent files are kept, as they may be written by another instance that uses the same cache.
+	 */
+	private void deleteStaleTmpFiles()
+	{
+		final File[] tmpFiles = directory.listFiles( ( dir, name ) -> name.startsWith( TMP_FILE_PREFIX ) && name.endsWith( TMP_FILE_EXTENSION ) );
+
+		if ( tmpFiles == null ) return;
+
+		final long now = System.currentTimeMillis();
+		for ( File tmpFile : tmpFiles )
+			if ( now - tmpFile.lastModified() > STALE_TMP_FILE_MILLIS )
+				tmpFile.delete();
+	}
+
+	/**
+	 * Copies the cached cell into the given primitive array.
+	 *
+	 * @return false if the cell is not cached
+	 */
+	public boolean read( String key, Object array )
+	{
+		final String fileName = getFileName( key );
+
+		synchronized ( this )
+		{
+			if ( fileNameToNumBytes.get( fileName ) == null ) return false;
+		}
+
+		final File file = new File( directory, fileName );
+
+		try ( RandomAccessFile randomAccessFile = new RandomAccessFile( file, "r" ) )
+		{
+			final FileChannel channel = randomAccessFile.getChannel();
+			final long numBytes = getNumBytes( array );
+
+			if ( channel.size() != numBytes )
+				throw new IOException( "Unexpected size of cached cell " + file );
+
+			final MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, numBytes );
+			buffer.order( ByteOrder.nativeOrder() );
+			copy( buffer, array );
+
+			file.setLastModified( System.currentTimeMillis() );
+			return true;
+		}
+		catch ( IOException e )
+		{
+			remove( fileName );
+			return false;
+		}
+	}
+
+	public void write( String key, Object array )
+	{
+		final String fileName = getFileName( key );
+		final long numBytes = getNumBytes( array );
+
+		try
+		{
+			final File tmpFile = File.createTempFile( TMP_FILE_PREFIX, TMP_FILE_EXTENSION, directory );
+
+			try ( RandomAccessFile randomAccessFile = new RandomAccessFile( tmpFile, "rw" ) )
+			{
+				final MappedByteBuffer buffer = randomAccessFile.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, numBytes );
+				buffer.order( ByteOrder.nativeOrder() );
+				copy( array, buffer );
+			}
+
+			Files.move( tmpFile.toPath(), new File( directory, fileName ).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch ( IOException e )
+		{
+			Utils.log( "Could not write cell to disk cache: " + e.getMessage() );
+			return;
+		}
+
+		added( fileName, numBytes );
+	}
+
+	private synchronized void added( String fileName, long fileNumBytes )
+	{
+		final Long replaced = fileNameToNumBytes.put( fileName, fileNumBytes );
+		if ( replaced != null ) numBytes -= replaced;
+		numBytes += fileNumBytes;
+
+		final Iterator< Map.Entry< String, Long > > iterator = fileNameToNumBytes.entrySet().iterator();
+		while ( numBytes > maxNumBytes && fileNameToNumBytes.size() > 1 )
+		{
+			final Map.Entry< String, Long > eldest = iterator.next();
+			iterator.remove();
+			numBytes -= eldest.getValue();
+			new File( directory, eldest.getKey() ).delete();
+		}
+	}
+
+	private synchronized void remove( String fileName )
+	{
+		final Long removed = fileNameToNumBytes.remove( fileName );
+		if ( removed != null ) numBytes -= removed;
+		new File( directory, fileName ).delete();
+	}
+
+	private static String getFileName( String key )
+	{
+		return CacheDirectories.hash( key ) + CELL_FILE_EXTENSION;
+	}
+
+	private static long getNumBytes( Object array )
+	{
+		if ( array instanceof byte[] ) return ( ( byte[] ) array ).length;
+		if ( array instanceof short[] ) return 2L * ( ( short[] ) array ).length;
+		if ( array instanceof int[] ) return 4L * ( ( int[] ) array ).length;
+		if ( array instanceof float[] ) return 4L * ( ( float[] ) array ).length;
+		if ( array instanceof long[] ) return 8L * ( ( long[] ) array ).length;
+		if ( array instanceof double[] ) return 8L * ( ( double[] ) array ).length;
+
+		throw new UnsupportedOperationException( "Cannot cache arrays of type " + array.getClass() );
+	}
+
+	private static void copy( ByteBuffer buffer, Object array )
+	{
+		if ( array instanceof byte[] ) buffer.get( ( byte[] ) array );
+		else if ( array instanceof short[] ) buffer.asShortBuffer().get( ( short[] ) array );
+		else if ( array instanceof int[] ) buffer.asIntBuffer().get( ( int[] ) array );
+		else if ( array instanceof float[] ) buffer.asFloatBuffer().get( ( float[] ) array );
+		else if ( array instanceof long[] ) buffer.asLongBuffer().get( ( long[] ) array );
+		else if ( array instanceof double[] ) buffer.asDoubleBuffer().get( ( double[] ) array );
+	}
+
+	private static void copy( Object array, ByteBuffer buffer )
+	{
+		if ( array instanceof byte[] ) buffer.put( ( byte[] ) array );
+		else if ( array instanceof short[] ) buffer.asShortBuffer().put( ( short[] ) array );
+		else if ( array instanceof int[] ) buffer.asIntBuffer().put( ( int[] ) array );
+		else if ( array instanceof float[] ) buffer.asFloatBuffer().put( ( float[] ) array );
+		else if ( array instanceof long[] ) buffer.asLongBuffer().put( ( long[] ) array );
+		else if ( array instanceof double[] ) buffer.asDoubleBuffer().put( ( double[] ) array );
+	}
+}
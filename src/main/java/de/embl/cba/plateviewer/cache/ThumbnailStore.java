@@ -0,0 +1,296 @@
+package de.embl.cba.plateviewer.cache;
+
+import de.embl.cba.plateviewer.image.PlateLayoutIndex;
+import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.image.source.PlateViewerLoadingQueue;
+import de.embl.cba.plateviewer.util.Utils;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Small versions of all sites of one channel, for showing the whole plate
+ * without loading the sites.
+ *
+ * Thumbnails are computed as area averages of the coarsest resolution level of the sites
+ * and stored in the cache directory of the plate, keyed by the site file and its modification time.
+ * If the cache directory cannot be created the thumbnails are only computed when the viewer requests them.
+ */
+public class ThumbnailStore< T extends RealType< T > >
+{
+	public static final int THUMBNAIL_SIZE = 64;
+	public static final String THUMBNAILS_DIRECTORY_NAME = "thumbnails";
+	public static final String THUMBNAIL_FILE_EXTENSION = ".thumb";
+	public static final int NUM_BACKGROUND_THUMBNAILS = 2;
+
+	private final RandomAccessibleInterval< T > source;
+	private final long sourceScale;
+	private final PlateLayoutIndex plateLayoutIndex;
+	private final File directory;
+	private final long[] siteDimensions;
+	private final int[] thumbnailDimensions;
+
+	private Deque< SingleSiteChannelFile > pendingSites; // not computed in the background yet
+	private final Set< SingleSiteChannelFile > enqueuedSites = new HashSet<>();
+	private long backgroundPass;
+
+	/**
+	 * @param source
+	 * 			the resolution level from which the thumbnails are computed
+	 * @param sourceScale
+	 * 			the downsampling factor of the source relative to full resolution
+	 * @param plateLayoutIndex
+	 * 			the sites at full resolution
+	 * @param directory
+	 * 			where the thumbnails are stored, or null if they cannot be stored
+	 */
+	public ThumbnailStore( RandomAccessibleInterval< T > source, long sourceScale, PlateLayoutIndex plateLayoutIndex, File directory )
+	{
+		this.source = source;
+		this.sourceScale = sourceScale;
+		this.plateLayoutIndex = plateLayoutIndex;
+		this.directory = directory;
+		this.siteDimensions = plateLayoutIndex.getSiteDimensions();
+		this.thumbnailDimensions = getThumbnailDimensions( siteDimensions );
+	}
+
+	/**
+	 * @param plateDirectory
+	 * 			the folder that was opened as plate, which also keys its {@link de.embl.cba.plateviewer.io.PlateFileIndex}
+	 * @return the thumbnail directory of the given channel of the plate, or null if there is none
+	 */
+	public static File getDirectory( File plateDirectory, String channelName )
+	{
+		if ( plateDirectory == null ) return null;
+
+		try
+		{
+			final File directory = new File(
+					CacheDirectories.getPlateDirectory( plateDirectory.getAbsolutePath() ),
+					THUMBNAILS_DIRECTORY_NAME + File.separator + channelName.replaceAll( "[^A-Za-z0-9_.-]", "_" ) );
+
+			if ( ! directory.isDirectory() && ! directory.mkdirs() )
+				throw new UnsupportedOperationException( "Could not create " + directory );
+
+			return directory;
+		}
+		catch ( UnsupportedOperationException e )
+		{
+			Utils.log( "The thumbnails of channel " + channelName + " are not saved: " + e.getMessage() );
+			return null;
+		}
+	}
+
+	/**
+	 * Thumbnails keep the aspect ratio of the sites; the longer side has {@link #THUMBNAIL_SIZE} pixels.
+	 */
+	public static int[] getThumbnailDimensions( long[] siteDimensions )
+	{
+		final long maxSiteDimension = Math.max( siteDimensions[ 0 ], siteDimensions[ 1 ] );
+
+		final int[] thumbnailDimensions = new int[ 2 ];
+		for ( int d = 0; d < 2; d++ )
+			thumbnailDimensions[ d ] = ( int ) Math.max( 1, Math.round( 1.0 * THUMBNAIL_SIZE * siteDimensions[ d ] / maxSiteDimension ) );
+
+		return thumbnailDimensions;
+	}
+
+	public int[] getThumbnailDimensions()
+	{
+		return thumbnailDimensions;
+	}
+
+	/**
+	 * Called by the loader of the thumbnail level, i.e. only for the sites of shown channels
+	 * that the viewer requests; these requests are dropped by the loading queue when the view changes.
+	 */
+	public float[] getThumbnail( SingleSiteChannelFile site )
+	{
+		final float[] stored = read( site );
+		if ( stored != null ) return stored;
+
+		final float[] thumbnail = compute( site );
+		write( site, thumbnail );
+		return thumbnail;
+	}
+
+	/**
+	 * Computes the thumbnails of all sites in the background, as long as the given condition holds,
+	 * e.g. while the channel is shown.
+	 *
+	 * At most {@link #NUM_BACKGROUND_THUMBNAILS} requests are enqueued at a time, with
+	 * {@link PlateViewerLoadingQueue#PREFETCH_PRIORITY}, such that they are only loaded when no visible
+	 * cells are waiting. As the loading queue may drop waiting requests, each call starts a new pass,
+	 * which re-enqueues the sites whose requests have not started yet.
+	 * Nothing is computed if the thumbnails cannot be stored.
+	 */
+	public synchronized void computeInBackground( PlateViewerLoadingQueue loadingQueue, BooleanSupplier condition )
+	{
+		if ( directory == null ) return;
+
+		if ( pendingSites == null )
+			pendingSites = new ArrayDeque<>( plateLayoutIndex.getSingleSiteChannelFiles() );
+
+		backgroundPass++;
+		for ( SingleSiteChannelFile site : enqueuedSites )
+			pendingSites.addFirst( site );
+		enqueuedSites.clear();
+
+		enqueueBackgroundThumbnails( loadingQueue, condition );
+	}
+
+	private synchronized void enqueueBackgroundThumbnails( PlateViewerLoadingQueue loadingQueue, BooleanSupplier condition )
+	{
+		final long pass = backgroundPass;
+
+		while ( enqueuedSites.size() < NUM_BACKGROUND_THUMBNAILS && ! pendingSites.isEmpty() )
+		{
+			final SingleSiteChannelFile site = pendingSites.removeFirst();
+			enqueuedSites.add( site );
+
+			loadingQueue.put( () -> {
+				computeInBackground( site, pass, loadingQueue, condition );
+				return null;
+			}, PlateViewerLoadingQueue.PREFETCH_PRIORITY, false );
+		}
+	}
+
+	private void computeInBackground( SingleSiteChannelFile site, long pass, PlateViewerLoadingQueue loadingQueue, BooleanSupplier condition )
+	{
+		synchronized ( this )
+		{
+			// the site was re-enqueued by a later pass
+			if ( pass != backgroundPass ) return;
+
+			enqueuedSites.remove( site );
+
+			// resumed by the next pass
+			if ( ! condition.getAsBoolean() )
+			{
+				pendingSites.addFirst( site );
+				return;
+			}
+		}
+
+		try
+		{
+			if ( read( site ) == null )
+				write( site, compute( site ) );
+		}
+		finally
+		{
+			enqueueBackgroundThumbnails( loadingQueue, condition );
+		}
+	}
+
+	private float[] compute( SingleSiteChannelFile site )
+	{
+		final int thumbnailWidth = thumbnailDimensions[ 0 ];
+		final int thumbnailHeight = thumbnailDimensions[ 1 ];
+
+		final long sourceMinX = site.min( 0 ) / sourceScale;
+		final long sourceMinY = site.min( 1 ) / sourceScale;
+		final long sourceWidth = siteDimensions[ 0 ] / sourceScale;
+		final long sourceHeight = siteDimensions[ 1 ] / sourceScale;
+
+		final float[] thumbnail = new float[ thumbnailWidth * thumbnailHeight ];
+		final RandomAccess< T > access = source.randomAccess();
+
+		for ( int y = 0; y < thumbnailHeight; y++ )
+		{
+			final long y0 = y * sourceHeight / thumbnailHeight;
+			final long y1 = Math.max( y0 + 1, ( y + 1 ) * sourceHeight / thumbnailHeight );
+
+			for ( int x = 0; x < thumbnailWidth; x++ )
+			{
+				final long x0 = x * sourceWidth / thumbnailWidth;
+				final long x1 = Math.max( x0 + 1, ( x + 1 ) * sourceWidth / thumbnailWidth );
+
+				double sum = 0;
+				for ( long sy = y0; sy < y1; sy++ )
+				{
+					access.setPosition( sourceMinY + sy, 1 );
+					for ( long sx = x0; sx < x1; sx++ )
+					{
+						access.setPosition( sourceMinX + sx, 0 );
+						sum += access.get().getRealDouble();
+					}
+				}
+
+				thumbnail[ y * thumbnailWidth + x ] = ( float ) ( sum / ( ( x1 - x0 ) * ( y1 - y0 ) ) );
+			}
+		}
+
+		return thumbnail;
+	}
+
+	private float[] read( SingleSiteChannelFile site )
+	{
+		if ( directory == null ) return null;
+
+		final File file = getThumbnailFile( site );
+		if ( ! file.exists() ) return null;
+
+		try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+		{
+			if ( in.readLong() != site.getFile().lastModified() ) return null;
+			if ( in.readInt() != thumbnailDimensions[ 0 ] || in.readInt() != thumbnailDimensions[ 1 ] ) return null;
+
+			final float[] thumbnail = new float[ thumbnailDimensions[ 0 ] * thumbnailDimensions[ 1 ] ];
+			for ( int i = 0; i < thumbnail.length; i++ )
+				thumbnail[ i ] = in.readFloat();
+
+			return thumbnail;
+		}
+		catch ( IOException e )
+		{
+			return null;
+		}
+	}
+
+	private void write( SingleSiteChannelFile site, float[] thumbnail )
+	{
+		if ( directory == null ) return;
+
+		try
+		{
+			final File tmpFile = File.createTempFile( "thumbnail", ".tmp", directory );
+
+			try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) ) )
+			{
+				out.writeLong( site.getFile().lastModified() );
+				out.writeInt( thumbnailDimensions[ 0 ] );
+				out.writeInt( thumbnailDimensions[ 1 ] );
+				for ( float value : thumbnail )
+					out.writeFloat( value );
+			}
+
+			Files.move( tmpFile.toPath(), getThumbnailFile( site ).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch ( IOException e )
+		{
+			Utils.log( "Could not store thumbnail of site " + site.getSiteName() + ": " + e.getMessage() );
+		}
+	}
+
+	private File getThumbnailFile( SingleSiteChannelFile site )
+	{
+		return new File( directory, CacheDirectories.hash( site.getFile().getAbsolutePath() ) + THUMBNAIL_FILE_EXTENSION );
+	}
+}
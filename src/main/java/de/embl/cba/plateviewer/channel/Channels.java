@@ -1,14 +1,13 @@
 package de.embl.cba.plateviewer.channel;
 
-import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import de.embl.cba.plateviewer.image.NamingSchemes;
+import de.embl.cba.plateviewer.image.SiteFileName;
+import de.embl.cba.plateviewer.io.Hdf5ReaderPool;
 import de.embl.cba.plateviewer.image.channel.MultiWellBatchLibHdf5Img;
 
 import java.io.File;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class Channels
 {
@@ -35,21 +34,21 @@ public class Channels
 		Set< String > channelPatternSet = new HashSet<>(  );
 		for ( File file : files )
 		{
-			final Matcher matcher = Pattern.compile( namingScheme ).matcher( file.getName() );
+			final SiteFileName siteFileName = SiteFileName.get( file, namingScheme );
 
-			if ( matcher.matches() )
+			if ( siteFileName != null )
 			{
 				if ( namingScheme.equals( NamingSchemes.PATTERN_ALMF_TREAT1_TREAT2_WELLNUM_POSNUM_CHANNEL ) )
 				{
-					channelPatternSet.add( ".*" + matcher.group( NamingSchemes.CHANNEL ) );
+					channelPatternSet.add( ".*" + siteFileName.channel );
 				}
 				else if ( namingScheme.equals( NamingSchemes.PATTERN_SCANR_WELLNUM_SITENUM_CHANNEL ) || namingScheme.equals( NamingSchemes.PATTERN_MD_A01_WAVELENGTH ) )
 				{
-					channelPatternSet.add( ".*" + matcher.group( NamingSchemes.CHANNEL ) + "\\..*"  );
+					channelPatternSet.add( ".*" + siteFileName.channel + "\\..*"  );
 				}
 				else if ( namingScheme.equals( NamingSchemes.PATTERN_MD_A01_SITE_WAVELENGTH ) )
 				{
-					channelPatternSet.add( ".*_s.*_w" + matcher.group( NamingSchemes.CHANNEL ) + ".*" );
+					channelPatternSet.add( ".*_s.*_w" + siteFileName.channel + ".*" );
 				}
 			}
 		}
@@ -67,7 +66,13 @@ public class Channels
 
 	public static Map< String, ChannelProperties > fetchChannelsNikonTi2Hdf5( List< File > files, HashMap< String, ChannelProperties > channelNameToProperties )
 	{
-		final IHDF5Reader hdf5Reader = HDF5Factory.openForReading( files.get( 0 ) );
+		Hdf5ReaderPool.access( files.get( 0 ), hdf5Reader -> fetchChannelsNikonTi2Hdf5( hdf5Reader, channelNameToProperties ) );
+
+		return channelNameToProperties;
+	}
+
+	private static void fetchChannelsNikonTi2Hdf5( IHDF5Reader hdf5Reader, HashMap< String, ChannelProperties > channelNameToProperties )
+	{
 		final List< String > groupMembers = hdf5Reader.getGroupMembers( "/" );
 		for ( String groupMember : groupMembers )
 		{
@@ -90,8 +95,6 @@ public class Channels
 
 			channelNameToProperties.put( groupMember, properties );
 		}
-
-		return channelNameToProperties;
 	}
 
 	public static Map< String, ChannelProperties > fetchChannelsMDA01( HashMap< String, ChannelProperties > channelNameToProperties )
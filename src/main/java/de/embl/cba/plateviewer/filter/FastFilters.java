@@ -10,6 +10,11 @@ import ij.process.*;
 
 import java.awt.*;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /** A collection of fast filters (mean, min, max, median, background, ...)
  *   working on a rectangular n*m or square n*n kernel.
@@ -84,6 +89,11 @@ import java.util.*;
  *   (smoother background).
  *
  * Implementation notes:
+ * - The filter itself is stateless: {@link #filter(FloatProcessor, FloatProcessor, Parameters, ForkJoinPool)}
+ *   takes its parameters per call, such that it can run concurrently, e.g. in several cell loader threads.
+ *   The lines of large images are processed in tasks of a shared pool, in which the calling thread also
+ *   takes part; the pool is sized to the processors that the loader threads leave idle (see {@link #getPool(int)}).
+ *   The plugin uses a separate pool with one thread per processor.
  * - The plugin handles stack slices in parallel as long as there is enough free memory.
  *   This is faster than parallel processing of lines in each image because it also parallelizes the
  *   conversion to float.
@@ -127,19 +137,15 @@ public class FastFilters implements ExtendedPlugInFilter, DialogListener {
 	private final static String[] PREPROCESSES = new String[] {
 			"none", "smooth", "median"              //preprocessing types; 1 and 2 are the same as filter types 1 and 2 above
 	};
-	// F i l t e r   p a r a m e t e r s
-	// Note that this makes it impossible to run the filter in parallel threads with different filter parameters!
+	// F i l t e r   p a r a m e t e r s   o f   t h e   p l u g i n
+	// The filter methods themselves take their parameters per call (see Parameters).
 	private int type = MEAN;             // Filter type
 	private int xRadius = 5;             // The kernel radius in x direction
 	private int yRadius = 5;             // The kernel radius in x direction
 	private boolean linkXY = true;       // Whether to use the same radius in x&y
 	private int preProcess = 0;          // Preprocessing type
 	private boolean subtract = false;    // Whether output should be the original minus filtered
-	private double[] offset = new double[] { 0 };
-
-
-	private boolean subtractAbsolute = false;
-	private boolean normalize = false;
+	private double[] offset = new double[] { 0, 0, 0, 0, 0 }; // per type of ImagePlus
 
 	// F u r t h e r   c l a s s   v a r i a b l e s
 	private int flags = DOES_ALL|CONVERT_TO_FLOAT|SNAPSHOT|SUPPORTS_MASKING|KEEP_PREVIEW;
@@ -148,13 +154,86 @@ public class FastFilters implements ExtendedPlugInFilter, DialogListener {
 	private int pass;                           // Current pass
 	// Multithreading-related
 	private int maxThreads = Runtime.getRuntime().availableProcessors();  // number of threads for filtering
-	private FloatProcessor ipResult;
-	private float fFactor;
+
+	// The pool in which the lines of large images are filtered, shared by all cell loaders
+	private static ForkJoinPool pool;
+	// The pool of the plugin, which does not share the processors with cell loaders
+	private static ForkJoinPool pluginPool;
+
+	/**
+	 * The parameters of one filter operation; they are immutable, such that one instance
+	 * can be shared by all threads that filter with it.
+	 */
+	public static class Parameters
+	{
+		public final int type;
+		public final int xRadius;
+		public final int yRadius;
+		public final int preProcess;
+		public final boolean subtract;
+		public final float offset;
+		public final boolean subtractAbsolute;
+		public final boolean normalize;
+		public final float factor;
+
+		public Parameters( int type, int xRadius, int yRadius, int preProcess, boolean subtract, double offset,
+						   boolean subtractAbsolute, boolean normalize, double factor )
+		{
+			this.type = type;
+			this.xRadius = xRadius;
+			this.yRadius = yRadius;
+			this.preProcess = preProcess;
+			this.subtract = subtract;
+			this.offset = (float) offset;
+			this.subtractAbsolute = subtractAbsolute;
+			this.normalize = normalize;
+			this.factor = (float) factor;
+		}
+
+		/**
+		 * The image minus its median, optionally normalised by the square root of the image (see {@link ImageFilterSettings#normalize}).
+		 */
+		public static Parameters medianDeviation( ImageFilterSettings settings )
+		{
+			return new Parameters( MEDIAN, settings.radius, settings.radius, 0, true, settings.offset,
+					false, settings.normalize, settings.factor );
+		}
+	}
 
 	public FastFilters()
 	{
 	}
 
+	/**
+	 * If the number of loader threads changes, e.g. because another plate is opened with more I/O threads,
+	 * the pool is replaced; tasks that were already submitted to the previous pool still complete.
+	 *
+	 * @param numLoaderThreads
+	 * 			the number of threads that load cells and thus already keep processors busy with filtering
+	 */
+	public static synchronized ForkJoinPool getPool( int numLoaderThreads )
+	{
+		final int parallelism = Math.max( 1, Runtime.getRuntime().availableProcessors() - numLoaderThreads );
+
+		if ( pool == null || pool.getParallelism() != parallelism )
+		{
+			if ( pool != null )
+				pool.shutdown();
+
+			pool = new ForkJoinPool( parallelism );
+		}
+
+		return pool;
+	}
+
+	private static synchronized ForkJoinPool getPluginPool()
+	{
+		if ( pluginPool == null )
+			pluginPool = new ForkJoinPool( Runtime.getRuntime().availableProcessors() );
+
+		return pluginPool;
+	}
+
 	/**
 	 *
 	 * This method is called by ImageJ for initialization.
@@ -228,19 +307,6 @@ public class FastFilters implements ExtendedPlugInFilter, DialogListener {
 		return (!gd.invalidNumber() && xRadius>=0 && yRadius>=0 && xRadius<1000000 && yRadius<1000000);
 	}
 
-	public void configureMedianDeviation( ImageFilterSettings settings )
-	{
-		type = MEDIAN;
-		xRadius = settings.radius;
-		yRadius = settings.radius;
-		linkXY = true;
-		subtract = true;
-		offset[ 0 ] = settings.offset;
-		subtractAbsolute = false;
-		normalize = settings.normalize;
-		fFactor = (float) settings.factor;
-	}
-
 	@Override
 	public void run( ImageProcessor ip )
 	{
@@ -248,8 +314,35 @@ public class FastFilters implements ExtendedPlugInFilter, DialogListener {
 
 	// Process a FloatProcessor (with the CONVERT_TO_FLOAT flag,ImageJ does the conversion).
 	// Called by ImageJ for each stack slice (when processing a full stack); for RGB image also called once for each color.
-	public synchronized void run( FloatProcessor ip, FloatProcessor ipSnapShot )
+	public void run( FloatProcessor ip, FloatProcessor ipSnapShot )
+	{
+		final Parameters parameters = new Parameters( type, xRadius, yRadius, preProcess, subtract, offset[ impType ], false, false, 1 );
+		filter( ip, ipSnapShot, parameters, getPluginPool(), maxThreads );
+		pass += taskLists[ type ].length * ( xRadius>0 && yRadius>0 ? 2 : 1 );
+	}
+
+	/**
+	 * Filters a float image; the result replaces the pixels of ip.
+	 * Can be called concurrently, also with different parameters.
+	 * If the calling thread is interrupted, the filter stops after the current pass,
+	 * leaving ip partially filtered.
+	 *
+	 * @param ip         The image with the original data where also the result will be stored
+	 * @param ipSnapShot The original data, which is read when subtracting the filtered image
+	 * @param parameters The filter parameters
+	 * @param pool       The pool in which the lines of large images are processed, in addition to the calling thread
+	 */
+	public static void filter( FloatProcessor ip, FloatProcessor ipSnapShot, Parameters parameters, ForkJoinPool pool )
 	{
+		filter( ip, ipSnapShot, parameters, pool, pool.getParallelism() + 1 );
+	}
+
+	private static void filter( FloatProcessor ip, FloatProcessor ipSnapShot, Parameters parameters, ForkJoinPool pool, int maxTasks )
+	{
+		final int type = parameters.type;
+		final int xRadius = parameters.xRadius;
+		final int yRadius = parameters.yRadius;
+		final int preProcess = parameters.preProcess;
 		int width = ip.getWidth();
 		int height = ip.getHeight();
 		Rectangle roiRect = ip.getRoi();
@@ -260,31 +353,31 @@ public class FastFilters implements ExtendedPlugInFilter, DialogListener {
 		if (preProcess > 0) {
 			extraX += xRadius;
 			if (xRadius>0 && yRadius>0) {
-				filterFloat(ip, preProcess, 1, true, extraX, extraY+1, maxThreads);
-				filterFloat(ip, preProcess, 1, false, extraX, extraY, maxThreads);
+				filterFloat(ip, preProcess, 1, true, extraX, extraY+1, pool, maxTasks);
+				filterFloat(ip, preProcess, 1, false, extraX, extraY, pool, maxTasks);
 				extraY++;
 			} else if (xRadius>0) {
-				filterFloat(ip, preProcess, 2, true, extraX, extraY, maxThreads);
+				filterFloat(ip, preProcess, 2, true, extraX, extraY, pool, maxTasks);
 			} else if (yRadius>0) {
-				filterFloat(ip, preProcess, 2, false, extraX, extraY, maxThreads);
+				filterFloat(ip, preProcess, 2, false, extraX, extraY, pool, maxTasks);
 			}
 		}
 		for (int iTask=0; iTask<nTasks; iTask++) {
 			if (xRadius>0)
-				filterFloat(ip, taskList[iTask], xRadius, true, xRadius*(nTasks-iTask-1), yRadius*(nTasks-iTask), maxThreads);
+				filterFloat(ip, taskList[iTask], xRadius, true, xRadius*(nTasks-iTask-1), yRadius*(nTasks-iTask), pool, maxTasks);
 			if (yRadius>0)
-				filterFloat(ip, taskList[iTask], yRadius, false, xRadius*(nTasks-iTask-1), yRadius*(nTasks-iTask-1), maxThreads);
+				filterFloat(ip, taskList[iTask], yRadius, false, xRadius*(nTasks-iTask-1), yRadius*(nTasks-iTask-1), pool, maxTasks);
 			if (Thread.currentThread().isInterrupted()) return; // interruption for new parameters during preview?
 		}
-		if (subtract) {
+		if (parameters.subtract) {
 
 			float[] pixels = (float[]) ip.getPixels();
 			float[] snapPixels = (float[]) ipSnapShot.getPixels();
-			float fOffset = (float) offset[0];
-
-			if( subtractAbsolute )
+			float fOffset = parameters.offset;
+			float fFactor = parameters.factor;
+			if( parameters.subtractAbsolute )
 			{
-				if ( normalize )
+				if ( parameters.normalize )
 				{
 					for ( int y = roiRect.y; y < roiRect.y + roiRect.height; y++ )
 						for ( int x = roiRect.x, p = x + y * width; x < roiRect.x + roiRect.width; x++, p++ )
@@ -300,7 +393,7 @@ public class FastFilters implements ExtendedPlugInFilter, DialogListener {
 			else
 			{
 
-				if ( normalize )
+				if ( parameters.normalize )
 				{
 					for ( int y = roiRect.y; y < roiRect.y + roiRect.height; y++ )
 						for ( int x = roiRect.x, p = x + y * width; x < roiRect.x + roiRect.width; x++, p++ )
@@ -319,8 +412,6 @@ public class FastFilters implements ExtendedPlugInFilter, DialogListener {
 		if (roiRect.height!=height || roiRect.width!=width)
 			resetOutOfRoi(ip, extraX, extraY); // reset out-of-Rectangle pixels above and below roi
 
-		ipResult = ip;
-
 		return;
 	}
 
@@ -377,11 +468,12 @@ public class FastFilters implements ExtendedPlugInFilter, DialogListener {
 	 * @param xDirection True for filtering in x direction, false for y direction
 	 * @param extraX     The roi bounds should be grown by this in x direction
 	 * @param extraY     The roi bounds should be grown by this in y direction
-	 * @param maxThreads Maximum number of threads to use for processing (irrespective of this value,
-	 *                   no more than 1 thread per 100 kPixels is used).
+	 * @param pool       The pool in which tasks other than the first one are processed
+	 * @param maxTasks   Maximum number of concurrent tasks, including the calling thread (irrespective of this value,
+	 *                   no more than 1 task per 100 kPixels is used).
 	 */
-	public void filterFloat(ImageProcessor ip, final int type, final int radius, boolean xDirection,
-							 int extraX, int extraY, int maxThreads) {
+	public static void filterFloat(ImageProcessor ip, final int type, final int radius, boolean xDirection,
+							 int extraX, int extraY, ForkJoinPool pool, int maxTasks) {
 		final float sign = (type==MIN) ? -1 : 1;
 		final int width = ip.getWidth();
 		final int height = ip.getHeight();
@@ -401,50 +493,65 @@ public class FastFilters implements ExtendedPlugInFilter, DialogListener {
 		final int readFrom = (writeFrom-radius < 0) ? 0 : writeFrom-radius;
 		final int readTo = (writeTo+radius > length) ? length : writeTo+radius;
 
-		int tmpMaxThreads = Math.min(((lineTo-lineFrom)*(writeTo-writeFrom))/100000+1, maxThreads); //avoid multithread overhead for small areas
-		final int numThreads = Math.min(tmpMaxThreads, lineTo-lineFrom);
-		final Thread[] lineThreads = new Thread[numThreads-1];
-		for (int t=0; t < numThreads-1; t++) {
-			final int ti = t+1;    //this thread starts at lineFrom+0, the other (new) threads do the rest
-			final Thread thread = new Thread(
-					new Runnable() {
-						final public void run() { try {
-							filterLines(pixels, type, sign, radius, lineFrom+ti, lineTo, /*lineStep=*/numThreads,
-									length, readFrom, readTo, writeFrom, writeTo, pointInc, lineInc, /*isMainThread=*/false);
-						} catch(Exception ex) {IJ.handleException(ex);} }
-					},
-					"FastFilters-"+t);
-			thread.setPriority( Thread.currentThread().getPriority() );
-			lineThreads[t] = thread;
-			thread.start();
+		int tmpMaxTasks = Math.min(((lineTo-lineFrom)*(writeTo-writeFrom))/100000+1, maxTasks); //avoid task overhead for small areas
+		final int numTasks = Math.min(tmpMaxTasks, lineTo-lineFrom);
+		if (numTasks <= 1) {
+			filterLines(pixels, type, sign, radius, lineFrom, lineTo, /*lineStep=*/1,
+					length, readFrom, readTo, writeFrom, writeTo, pointInc, lineInc);
+			return;
 		}
-		filterLines(pixels, type, sign, radius, lineFrom+0, lineTo, /*lineStep=*/numThreads,
-				length, readFrom, readTo, writeFrom, writeTo, pointInc, lineInc, /*isMainThread=*/true);
 
-		try {
-			for ( final Thread thread : lineThreads )
-				if ( thread != null ) thread.join();
+		// Task t filters every numTasks-th line, starting at lineFrom+t. The calling thread and the pool threads
+		// take the next task that nobody has taken, such that the caller never waits for a task that did not start,
+		// e.g. because all pool threads are busy with other images.
+		final AtomicInteger nextTask = new AtomicInteger();
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final CountDownLatch tasksDone = new CountDownLatch(numTasks);
+		final Runnable worker = () -> {
+			for (int t = nextTask.getAndIncrement(); t < numTasks; t = nextTask.getAndIncrement()) {
+				try {
+					filterLines(pixels, type, sign, radius, lineFrom+t, lineTo, /*lineStep=*/numTasks,
+							length, readFrom, readTo, writeFrom, writeTo, pointInc, lineInc);
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				} finally {
+					tasksDone.countDown();
+				}
+			}
+		};
+		for (int t=1; t<numTasks; t++) {
+			try {
+				pool.execute(worker);
+			} catch (RejectedExecutionException e) {
+				break;                              //the pool was replaced (see getPool), the calling thread takes the tasks
+			}
 		}
-		catch ( InterruptedException e ) {
-			for ( final Thread thread : lineThreads )
-				thread.interrupt();
+		worker.run();
+
+		// All tasks are taken once the calling thread is done with its tasks, but pool threads may still
+		// write into the pixels: wait for them also when interrupted, such that the caller never gets a
+		// partially filtered image.
+		boolean isInterrupted = false;
+		while (true) {
 			try {
-				for ( final Thread thread : lineThreads )
-					thread.join();
+				tasksDone.await();
+				break;
+			} catch (InterruptedException e) {
+				isInterrupted = true;
 			}
-			catch ( InterruptedException f ) {}
-			Thread.currentThread().interrupt();     //set 'interrupted', which was cleared by handling InterruptedException
 		}
-		pass++;
+		if (isInterrupted)
+			Thread.currentThread().interrupt();     //set 'interrupted', which was cleared by handling InterruptedException
+		if (failure.get() != null)
+			throw new RuntimeException("Fast filter failed", failure.get());
 	}
 
-	/* Filter the lines for one thread in one direction */
-	private void filterLines(float[] pixels, int type, float sign, int radius, int startLine, int lineTo, int lineStep,
-							 int length, int readFrom, int readTo, int writeFrom, int writeTo, int pointInc, int lineInc, boolean isMainThread) {
+	/* Filter the lines of one task in one direction */
+	private static void filterLines(float[] pixels, int type, float sign, int radius, int startLine, int lineTo, int lineStep,
+							 int length, int readFrom, int readTo, int writeFrom, int writeTo, int pointInc, int lineInc) {
 		float[] cache = new float[length];    //inputCachedCellImg for filter, hopefully in CPU cache
-		float[] vHi = (type == MEDIAN) ? new float[(2*xRadius+1)*(2*yRadius+1)] : null; //needed for median
-		float[] vLo = (type == MEDIAN) ? new float[(2*xRadius+1)*(2*yRadius+1)] : null; //needed for median
-		long lastTime = System.currentTimeMillis();
+		float[] vHi = (type == MEDIAN) ? new float[2*radius+2] : null; //needed for median: the kernel plus the center pixel
+		float[] vLo = (type == MEDIAN) ? new float[2*radius+2] : null; //needed for median
 		for (int line=startLine; line<lineTo; line+=lineStep) {
 			int pixel0 = line*lineInc + writeFrom*pointInc; //the first pixel to write in a line
 			int p = line*lineInc + readFrom*pointInc;
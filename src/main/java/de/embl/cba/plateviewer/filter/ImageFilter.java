@@ -1,10 +1,9 @@
 package de.embl.cba.plateviewer.filter;
 
 import bdv.util.BdvOverlay;
+import de.embl.cba.plateviewer.cache.CellCaches;
 import de.embl.cba.plateviewer.image.cellloader.ImageFilterLoader;
 import net.imglib2.cache.img.CachedCellImg;
-import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
-import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
@@ -72,11 +71,12 @@ public class ImageFilter < T extends NativeType< T > & RealType< T > >
 
 		loader = new ImageFilterLoader( settings );
 
-		final CachedCellImg< T, ? > cachedFilterImg = new ReadOnlyCachedCellImgFactory().create(
+		final CachedCellImg< T, ? > cachedFilterImg = CellCaches.create(
+				cachedFilterImgName,
 				imgDimensions,
+				cellDimensions,
 				type,
-				loader,
-				ReadOnlyCachedCellImgOptions.options().cellDimensions( cellDimensions ) );
+				loader );
 
 		cachedFilterImg.randomAccess();
 
@@ -0,0 +1,133 @@
+package de.embl.cba.plateviewer.image;
+
+import de.embl.cba.plateviewer.util.Utils;
+import net.imglib2.FinalInterval;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The wells and sites of the files of a BatchLib plate, parsed once from the file names.
+ *
+ * All channels and resolution levels of a BatchLib plate are stored in the same files,
+ * thus they share this index and only differ in the image dimensions,
+ * from which the site intervals are computed ({@link #createInterval(int, int[])}).
+ * The index is held by the plate (see {@link de.embl.cba.plateviewer.PlateViewer}),
+ * and is thus released with it.
+ */
+public class BatchLibHdf5SiteIndex
+{
+	public static final int WELL_GROUP = 1;
+	public static final int SITE_GROUP = 2;
+
+	private final List< File > files;
+	private final String[] wellNames;
+	private final String[] siteNames;
+	private final int[][] wellPositions;
+	private final int[][] sitePositions;
+	private final int[] siteDimensions; // for example, 2x2 sites
+	private final int[] wellDimensions; // for example, 10x4 wells
+
+	public BatchLibHdf5SiteIndex( List< File > files )
+	{
+		this.files = new ArrayList<>( files );
+
+		final int numFiles = files.size();
+		wellNames = new String[ numFiles ];
+		siteNames = new String[ numFiles ];
+		wellPositions = new int[ numFiles ][];
+		sitePositions = new int[ numFiles ][];
+
+		final String[] siteIndices = new String[ numFiles ];
+		final Set< String > distinctSiteIndices = new LinkedHashSet<>();
+		final int[] maximalWellPosition = new int[ 2 ];
+
+		final List< SiteFileName > siteFileNames = SiteFileName.get( files, NamingSchemes.PATTERN_NIKON_TI2_HDF5 );
+
+		for ( int i = 0; i < numFiles; i++ )
+		{
+			wellNames[ i ] = siteFileNames.get( i ).well;
+			siteIndices[ i ] = siteFileNames.get( i ).site;
+			siteNames[ i ] = wellNames[ i ] + "-" + siteIndices[ i ];
+			distinctSiteIndices.add( siteIndices[ i ] );
+
+			wellPositions[ i ] = Utils.getWellPositionFromA01( wellNames[ i ] );
+			for ( int d = 0; d < 2; ++d )
+				maximalWellPosition[ d ] = Math.max( maximalWellPosition[ d ], wellPositions[ i ][ d ] );
+		}
+
+		wellDimensions = Utils.guessWellDimensions( maximalWellPosition );
+
+		final int numSites = Math.max( 1, distinctSiteIndices.size() );
+		siteDimensions = new int[ 2 ];
+		for ( int d = 0; d < 2; ++d )
+			siteDimensions[ d ] = Math.max( 1, ( int ) Math.ceil( Math.sqrt( numSites ) ) );
+
+		for ( int i = 0; i < numFiles; i++ )
+			sitePositions[ i ] = getSitePosition( siteIndices[ i ] );
+	}
+
+	private int[] getSitePosition( String siteIndex )
+	{
+		final int index = Integer.parseInt( siteIndex );
+		return new int[]{ index % siteDimensions[ 1 ], index / siteDimensions[ 1 ] };
+	}
+
+	public List< File > getFiles()
+	{
+		return files;
+	}
+
+	public int getNumFiles()
+	{
+		return files.size();
+	}
+
+	public String getWellName( int fileIndex )
+	{
+		return wellNames[ fileIndex ];
+	}
+
+	public String getSiteName( int fileIndex )
+	{
+		return siteNames[ fileIndex ];
+	}
+
+	public ArrayList< String > getWellNames()
+	{
+		return new ArrayList<>( new LinkedHashSet<>( Arrays.asList( wellNames ) ) );
+	}
+
+	public int[] getWellDimensions()
+	{
+		return wellDimensions;
+	}
+
+	public int[] getSiteDimensions()
+	{
+		return siteDimensions;
+	}
+
+	/**
+	 * @param imageDimensions
+	 * 			the dimensions of the images of one resolution level
+	 * @return the interval of the site in the given file at that resolution level
+	 */
+	public FinalInterval createInterval( int fileIndex, int[] imageDimensions )
+	{
+		return Utils.createInterval( wellPositions[ fileIndex ], sitePositions[ fileIndex ], siteDimensions, imageDimensions );
+	}
+
+	/**
+	 * @return the interval of a site that is not part of the index, e.g. a file that was
+	 * 			acquired after the index was built, using the well and site layout of the index
+	 */
+	public FinalInterval createInterval( SiteFileName siteFileName, int[] imageDimensions )
+	{
+		return Utils.createInterval( Utils.getWellPositionFromA01( siteFileName.well ), getSitePosition( siteFileName.site ), siteDimensions, imageDimensions );
+	}
+}
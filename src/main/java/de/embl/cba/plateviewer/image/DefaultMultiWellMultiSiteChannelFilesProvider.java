@@ -8,14 +8,11 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import static de.embl.cba.plateviewer.image.NamingSchemes.WELL;
 
 public class DefaultMultiWellMultiSiteChannelFilesProvider implements MultiWellChannelFilesProvider
 {
 	final List< File > files;
+	final List< SiteFileName > siteFileNames;
 
 	int numSites;
 	int[] siteDimensions;
@@ -25,6 +22,7 @@ public class DefaultMultiWellMultiSiteChannelFilesProvider implements MultiWellC
 	final private ArrayList< SingleSiteChannelFile > singleSiteChannelFiles;
 	final private ArrayList< String > wellNames;
 	final private String namingScheme;
+	final private PlateLayoutIndex plateLayoutIndex;
 
 	// This assumes an A01 naming scheme for the wells
 	public DefaultMultiWellMultiSiteChannelFilesProvider( List< File > files, int[] imageDimensions, String namingScheme )
@@ -32,9 +30,11 @@ public class DefaultMultiWellMultiSiteChannelFilesProvider implements MultiWellC
 		this.files = files;
 		this.imageDimensions = imageDimensions;
 		this.namingScheme = namingScheme;
+		this.siteFileNames = SiteFileName.get( files, namingScheme );
 		this.singleSiteChannelFiles = new ArrayList<>();
 		setImageSources();
 		wellNames = Utils.getWellNames( files, namingScheme );
+		plateLayoutIndex = new PlateLayoutIndex( singleSiteChannelFiles );
 	}
 
 	public ArrayList< SingleSiteChannelFile > getSingleSiteChannelFiles()
@@ -42,31 +42,68 @@ public class DefaultMultiWellMultiSiteChannelFilesProvider implements MultiWellC
 		return singleSiteChannelFiles;
 	}
 
-	private void setImageSources()
+	public PlateLayoutIndex getPlateLayoutIndex()
+	{
+		return plateLayoutIndex;
+	}
+
+	@Override
+	public synchronized List< SingleSiteChannelFile > addFiles( List< File > files )
 	{
-		configWells( files );
-		configSites( files );
+		final ArrayList< SingleSiteChannelFile > sites = new ArrayList<>();
 
 		for ( File file : files )
 		{
-			final SingleSiteChannelFile singleSiteChannelFile = new SingleSiteChannelFile(
-					file,
-					getInterval( file ),
-					getPositionName(file.getName() ),
-					getWellName(file.getName() ) );
+			final SiteFileName siteFileName = SiteFileName.get( file, namingScheme );
+
+			if ( siteFileName == null ) continue;
+
+			final SingleSiteChannelFile site = createSingleSiteChannelFile( file, siteFileName );
+			sites.add( site );
+
+			if ( ! wellNames.contains( site.getWellName() ) )
+				wellNames.add( site.getWellName() );
+		}
+
+		plateLayoutIndex.addSites( sites );
+
+		return sites;
+	}
 
-			singleSiteChannelFiles.add( singleSiteChannelFile );
+	@Override
+	public long[] getPlateDimensions()
+	{
+		return Utils.computeMinCoordinates( imageDimensions, wellDimensions, new int[ 2 ], siteDimensions );
+	}
+
+	private void setImageSources()
+	{
+		configWells();
+		configSites();
+
+		for ( int i = 0; i < files.size(); i++ )
+		{
+			singleSiteChannelFiles.add( createSingleSiteChannelFile( files.get( i ), siteFileNames.get( i ) ) );
 		}
 	}
 
+	private SingleSiteChannelFile createSingleSiteChannelFile( File file, SiteFileName siteFileName )
+	{
+		return new SingleSiteChannelFile(
+				file,
+				getInterval( siteFileName ),
+				getPositionName(file.getName() ),
+				siteFileName.well );
+	}
+
 	private String getPositionName( String fileName )
 	{
 		return fileName;
 	}
 
-	private void configWells( List< File > files )
+	private void configWells()
 	{
-		int[] maximalWellPositionsInData = getMaximalWellPositionsInData( files );
+		int[] maximalWellPositionsInData = getMaximalWellPositionsInData();
 
 		wellDimensions = Utils.guessWellDimensions( maximalWellPositionsInData );
 
@@ -80,9 +117,9 @@ public class DefaultMultiWellMultiSiteChannelFilesProvider implements MultiWellC
 	}
 
 
-	private void configSites( List< File > files )
+	private void configSites()
 	{
-		numSites = getNumSites( files );
+		numSites = getNumSites();
 		siteDimensions = new int[ 2 ];
 		siteDimensions[ 0 ] = (int) Math.sqrt( numSites );
 		siteDimensions[ 1 ] = (int) Math.sqrt( numSites );
@@ -91,36 +128,16 @@ public class DefaultMultiWellMultiSiteChannelFilesProvider implements MultiWellC
 		Utils.log( "Site dimensions [ 1 ] : " +  siteDimensions[ 1 ] );
 	}
 
-	private String getWellName( String fileName )
-	{
-		final Matcher matcher = Pattern.compile( namingScheme ).matcher( fileName );
-
-		if ( matcher.matches() )
-		{
-			final String well = matcher.group( WELL );
-			return well;
-		}
-		else
-		{
-			return null;
-		}
-	}
-
-	private int getNumSites( List< File > files )
+	private int getNumSites()
 	{
 		Set< String > sites = new HashSet<>( );
 
-		for ( File file : files )
+		for ( SiteFileName siteFileName : siteFileNames )
 		{
-			final Matcher matcher = Pattern.compile( namingScheme ).matcher( file.getName() );
-
-			if ( matcher.matches() )
-			{
-				if ( matcher.group( NamingSchemes.SITE ) != null )
-					sites.add( matcher.group( NamingSchemes.SITE ) );
-				else
-					break; // naming scheme does not have sites
-			}
+			if ( siteFileName.site != null )
+				sites.add( siteFileName.site );
+			else
+				break; // naming scheme does not have sites
 		}
 
 		if ( sites.size() == 0 )
@@ -134,18 +151,13 @@ public class DefaultMultiWellMultiSiteChannelFilesProvider implements MultiWellC
 
 	}
 
-	private int[] getMaximalWellPositionsInData( List< File > files )
+	private int[] getMaximalWellPositionsInData()
 	{
 		int[] maximalWellPosition = new int[ 2 ];
 
-		for ( File file : files )
+		for ( SiteFileName siteFileName : siteFileNames )
 		{
-			final Matcher matcher = Pattern.compile( namingScheme ).matcher( file.getName() );
-
-			matcher.matches();
-
-			final String well = matcher.group( WELL );
-			int[] wellPosition = Utils.getWellPositionFromA01( well );
+			int[] wellPosition = Utils.getWellPositionFromA01( siteFileName.well );
 
 			for ( int d = 0; d < wellPosition.length; ++d )
 			{
@@ -159,30 +171,22 @@ public class DefaultMultiWellMultiSiteChannelFilesProvider implements MultiWellC
 		return maximalWellPosition;
 	}
 
-	private FinalInterval getInterval( File file )
+	private FinalInterval getInterval( SiteFileName siteFileName )
 	{
-		String filePath = file.getAbsolutePath();
-
-		final Matcher matcher = Pattern.compile( namingScheme ).matcher( filePath );
+		int[] wellPosition = Utils.getWellPositionFromA01( siteFileName.well );
+		int[] sitePosition = getSitePositionFromSiteIndex( siteFileName.site );
 
-		if ( matcher.matches() )
-		{
-			int[] wellPosition = Utils.getWellPositionFromA01( matcher.group( WELL ) );
-			int[] sitePosition = getSitePositionFromSiteIndex( matcher.group( NamingSchemes.SITE ) );
-
-			final FinalInterval interval = Utils.createInterval( wellPosition, sitePosition, siteDimensions, imageDimensions );
+		final FinalInterval interval = Utils.createInterval( wellPosition, sitePosition, siteDimensions, imageDimensions );
 
-			return interval;
-		}
-		else
-		{
-			return null;
-		}
+		return interval;
 	}
 
 	private int[] getSitePositionFromSiteIndex( String site )
 	{
 		int[] sitePosition = new int[ 2 ];
+
+		if ( site == null ) return sitePosition; // naming scheme does not have sites
+
 		int siteIndex = Integer.parseInt( site ) - 1;
 
 		sitePosition[ 0 ] = siteIndex % siteDimensions[ 1 ];
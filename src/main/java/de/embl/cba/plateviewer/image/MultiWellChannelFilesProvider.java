@@ -1,10 +1,27 @@
 package de.embl.cba.plateviewer.image;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 
 public interface MultiWellChannelFilesProvider
 {
 	ArrayList< SingleSiteChannelFile > getSingleSiteChannelFiles();
 
 	ArrayList< String > getWellNames();
+
+	PlateLayoutIndex getPlateLayoutIndex();
+
+	/**
+	 * Adds files that were written after the provider was created, e.g. during an acquisition,
+	 * placing them with the well and site layout that was determined for the initial files.
+	 *
+	 * @return the sites of the added files; files that do not match the naming scheme are skipped
+	 */
+	List< SingleSiteChannelFile > addFiles( List< File > files );
+
+	/**
+	 * @return the dimensions of the full plate, including wells and sites that have no files (yet)
+	 */
+	long[] getPlateDimensions();
 }
@@ -5,12 +5,11 @@ import net.imglib2.FinalInterval;
 
 import java.io.File;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChannelFilesProvider
 {
 	final List< File > files;
+	final List< SiteFileName > siteFileNames;
 
 	int numSites, numWells;
 	int[] numSitesPerWell;
@@ -19,6 +18,7 @@ public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChan
 
 	final ArrayList< SingleSiteChannelFile > singleSiteChannelFiles;
 	ArrayList< String > wellNames;
+	PlateLayoutIndex plateLayoutIndex;
 
 	// TODO: add to constructor
 	//  the issue however is that some of the methods are called statically, which is weird anyway
@@ -29,10 +29,13 @@ public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChan
 	public MultiWellChannelFilesProviderALMFScreening( List< File > files, int[] imageDimensions )
 	{
 		this.files = files;
+		this.siteFileNames = SiteFileName.get( files, namingScheme );
 		this.singleSiteChannelFiles = new ArrayList<>();
 		this.imageDimensions = imageDimensions;
 
 		createImageSources();
+
+		plateLayoutIndex = new PlateLayoutIndex( singleSiteChannelFiles );
 	}
 
 	@Override
@@ -41,81 +44,107 @@ public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChan
 		return singleSiteChannelFiles;
 	}
 
+	@Override
+	public PlateLayoutIndex getPlateLayoutIndex()
+	{
+		return plateLayoutIndex;
+	}
+
 	@Override
 	public ArrayList< String > getWellNames()
 	{
 		return wellNames;
 	}
 
-	private static ArrayList< String > getWellNames( List< File > files )
+	@Override
+	public synchronized List< SingleSiteChannelFile > addFiles( List< File > files )
 	{
-		Set< String > wellNameSet = new HashSet<>(  );
+		final ArrayList< SingleSiteChannelFile > sites = new ArrayList<>();
 
 		for ( File file : files )
 		{
-			wellNameSet.add( getWellName( file.getName() ) );
+			final SiteFileName siteFileName = SiteFileName.get( file, namingScheme );
+
+			if ( siteFileName == null ) continue;
+
+			final SingleSiteChannelFile site = createSingleSiteChannelFile( file, siteFileName );
+			sites.add( site );
+
+			if ( wellNames != null && ! wellNames.contains( site.getWellName() ) )
+				wellNames.add( site.getWellName() );
 		}
 
-		return new ArrayList<>( wellNameSet );
+		plateLayoutIndex.addSites( sites );
+
+		return sites;
 	}
 
-	public static String getWellName( String fileName )
+	@Override
+	public long[] getPlateDimensions()
 	{
-		final Matcher matcher = Pattern.compile( namingScheme ).matcher( fileName );
+		return Utils.computeMinCoordinates( imageDimensions, numWellsPerPlate, new int[ 2 ], numSitesPerWell );
+	}
 
-		if ( matcher.matches() )
-		{
-			String wellName = matcher.group( 1 );
-			wellName += "--" + matcher.group( 2 );
-			wellName += "--W" + matcher.group( 3 );
-			return wellName;
-		}
-		else
+	private ArrayList< String > getWellNames()
+	{
+		Set< String > wellNameSet = new HashSet<>(  );
+
+		for ( SiteFileName siteFileName : siteFileNames )
 		{
-			return null;
+			wellNameSet.add( getWellName( siteFileName ) );
 		}
+
+		return new ArrayList<>( wellNameSet );
+	}
+
+	public static String getWellName( String fileName )
+	{
+		final SiteFileName siteFileName = SiteFileName.parse( fileName, NamingSchemes.PATTERN_ALMF_TREAT1_TREAT2_WELLNUM_POSNUM_CHANNEL );
+
+		return siteFileName == null ? null : getWellName( siteFileName );
 	}
 
 	public static String getSiteName( String fileName )
 	{
-		final String pattern = NamingSchemes.PATTERN_ALMF_TREAT1_TREAT2_WELLNUM_POSNUM_CHANNEL;
-		final Matcher matcher = Pattern.compile( pattern ).matcher( fileName );
+		final SiteFileName siteFileName = SiteFileName.parse( fileName, NamingSchemes.PATTERN_ALMF_TREAT1_TREAT2_WELLNUM_POSNUM_CHANNEL );
 
-		if ( matcher.matches() )
-		{
-			String name = matcher.group( 1 );
-			name += "--" + matcher.group( 2 );
-			name += "--W" + matcher.group( NamingSchemes.WELL );
-			name += "--P" + matcher.group( NamingSchemes.SITE );
-			return name;
-		}
-		else
-		{
-			return null;
-		}
+		return siteFileName == null ? null : getSiteName( siteFileName );
+	}
+
+	private static String getWellName( SiteFileName siteFileName )
+	{
+		return siteFileName.treatment + "--W" + siteFileName.well;
+	}
+
+	private static String getSiteName( SiteFileName siteFileName )
+	{
+		return getWellName( siteFileName ) + "--P" + siteFileName.site;
 	}
 
 	private void createImageSources()
 	{
-		configWells( files );
-		configSites( files );
+		configWells();
+		configSites();
 
-		for ( File file : files )
+		for ( int i = 0; i < files.size(); i++ )
 		{
-			final SingleSiteChannelFile singleSiteChannelFile = new SingleSiteChannelFile(
-					file,
-					getInterval( file, namingScheme, numWellsPerPlate[ 0 ], numSitesPerWell[ 0 ] ),
-					getSiteName( file.getName() ),
-					getWellName( file.getName() ) );
-
-			singleSiteChannelFiles.add( singleSiteChannelFile );
+			singleSiteChannelFiles.add( createSingleSiteChannelFile( files.get( i ), siteFileNames.get( i ) ) );
 		}
 	}
 
+	private SingleSiteChannelFile createSingleSiteChannelFile( File file, SiteFileName siteFileName )
+	{
+		return new SingleSiteChannelFile(
+				file,
+				getInterval( siteFileName, numWellsPerPlate[ 0 ], numSitesPerWell[ 0 ] ),
+				getSiteName( siteFileName ),
+				getWellName( siteFileName ) );
+	}
+
 
-	private void configWells( List< File > files )
+	private void configWells()
 	{
-		numWells = getNumWells( files );
+		numWells = getNumWells();
 
 		numWellsPerPlate = Utils.guessWellDimensions( numWells );
 
@@ -123,12 +152,12 @@ public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChan
 		Utils.log( "Well layout [ 0 ] : " +  numWellsPerPlate[ 0 ] );
 		Utils.log( "Well layout [ 1 ] : " +  numWellsPerPlate[ 1 ] );
 
-		wellNames = getWellNames( files );
+		wellNames = getWellNames();
 	}
 
-	private void configSites( List< File > files )
+	private void configSites()
 	{
-		final Set< Integer > sites = getSitesSet( files );
+		final Set< Integer > sites = getSitesSet();
 
 		if ( sites.size() == 0 )
 			numSites = 1;
@@ -152,36 +181,26 @@ public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChan
 		Utils.log( "Site layout [ 1 ] : " +  numSitesPerWell[ 1 ] );
 	}
 
-	private Set< Integer > getSitesSet( List< File > files )
+	private Set< Integer > getSitesSet()
 	{
 		Set< Integer > sites = new HashSet<>( );
 
-		for ( File file : files )
-		{
-			final Matcher matcher =
-					Pattern.compile( namingScheme ).matcher( file.getName() );
-
-			if ( matcher.matches() )
-				sites.add( Integer.parseInt( matcher.group( NamingSchemes.SITE ) ) );
-		}
+		for ( SiteFileName siteFileName : siteFileNames )
+			sites.add( Integer.parseInt( siteFileName.site ) );
 
 		return sites;
 	}
 
-	private int getNumWells( List< File > files )
+	private int getNumWells()
 	{
 		Set< String > wells = new HashSet<>( );
 		int maxWellNum = 0;
 
-		for ( File file : files )
+		for ( SiteFileName siteFileName : siteFileNames )
 		{
-			final Matcher matcher = Pattern.compile( namingScheme ).matcher( file.getName() );
-
-			matcher.matches();
+			wells.add( siteFileName.well );
 
-			wells.add( matcher.group( NamingSchemes.WELL ) );
-
-			int wellNum = Integer.parseInt( matcher.group( NamingSchemes.WELL ) );
+			int wellNum = Integer.parseInt( siteFileName.well );
 
 			if ( wellNum > maxWellNum )
 			{
@@ -202,45 +221,32 @@ public class MultiWellChannelFilesProviderALMFScreening implements MultiWellChan
 	}
 
 	private FinalInterval getInterval(
-			File file,
-			String pattern,
+			SiteFileName siteFileName,
 			int numWellColumns,
 			int numSiteColumns )
 	{
-		String filePath = file.getAbsolutePath();
+		int[] wellPosition = new int[ 2 ];
+		int[] sitePosition = new int[ 2 ];
 
-		final Matcher matcher = Pattern.compile( pattern ).matcher( filePath );
+		int wellNum = Integer.parseInt( siteFileName.well ) - 1;
 
-		if ( matcher.matches() )
-		{
-			int[] wellPosition = new int[ 2 ];
-			int[] sitePosition = new int[ 2 ];
+		int siteNum = Integer.parseInt( siteFileName.site );
+		if ( ! zeroBasedSites ) siteNum -= 1;
 
-			int wellNum = Integer.parseInt( matcher.group( NamingSchemes.WELL ) ) - 1;
+		wellPosition[ 1 ] = wellNum / numWellColumns;
+		wellPosition[ 0 ] = wellNum % numWellColumns;
 
-			int siteNum = Integer.parseInt( matcher.group( NamingSchemes.SITE ) );
-			if ( ! zeroBasedSites ) siteNum -= 1;
+		sitePosition[ 1 ] = siteNum / numSiteColumns;
+		sitePosition[ 0 ] = siteNum % numSiteColumns;
 
-			wellPosition[ 1 ] = wellNum / numWellColumns;
-			wellPosition[ 0 ] = wellNum % numWellColumns;
-
-			sitePosition[ 1 ] = siteNum / numSiteColumns;
-			sitePosition[ 0 ] = siteNum % numSiteColumns;
-
-			final FinalInterval interval =
-					Utils.createInterval(
-							wellPosition,
-							sitePosition,
-							numSitesPerWell,
-							imageDimensions );
-
-			return interval;
-		}
-		else
-		{
-			return null;
-		}
+		final FinalInterval interval =
+				Utils.createInterval(
+						wellPosition,
+						sitePosition,
+						numSitesPerWell,
+						imageDimensions );
 
+		return interval;
 	}
 
 
@@ -1,17 +1,12 @@
 package de.embl.cba.plateviewer.image;
 
-import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import de.embl.cba.plateviewer.io.Hdf5ReaderPool;
 import de.embl.cba.plateviewer.util.Utils;
-import net.imglib2.FinalInterval;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class MultiWellChannelFilesProviderBatchLibHdf5 implements MultiWellChannelFilesProvider
 {
@@ -19,20 +14,25 @@ public class MultiWellChannelFilesProviderBatchLibHdf5 implements MultiWellChann
 	private final String hdf5DataSetName;
 	private final int resolutionLevel;
 
-	int numSites, numWells;
-	int[] siteDimensions; // for example, 2x2 sites
-	int[] wellDimensions; // for example, 10x4 wells
 	int[] imageDimensions; // for example, 1000x1000 pixels
 
 	final ArrayList< SingleSiteChannelFile > singleSiteChannelFiles;
 
 	final ArrayList< String > wellNames;
 
-	static final String WELL_SITE_CHANNEL_PATTERN = NamingSchemes.PATTERN_NIKON_TI2_HDF5;
-	public static final int WELL_GROUP = 1;
-	public static final int SITE_GROUP = 2;
+	final PlateLayoutIndex plateLayoutIndex;
 
-	public MultiWellChannelFilesProviderBatchLibHdf5( List< File > files, String hdf5DataSetName, int[] imageDimensions, int resolutionLevel )
+	private final BatchLibHdf5SiteIndex siteIndex;
+
+	public static final int WELL_GROUP = BatchLibHdf5SiteIndex.WELL_GROUP;
+	public static final int SITE_GROUP = BatchLibHdf5SiteIndex.SITE_GROUP;
+
+	/**
+	 * @param siteIndex
+	 * 			the wells and sites of the plate, shared by all channels and resolution levels;
+	 * 			files that are not part of it are placed using its layout
+	 */
+	public MultiWellChannelFilesProviderBatchLibHdf5( List< File > files, BatchLibHdf5SiteIndex siteIndex, String hdf5DataSetName, int[] imageDimensions, int resolutionLevel )
 	{
 		this.files = files;
 		this.hdf5DataSetName = hdf5DataSetName;
@@ -40,9 +40,17 @@ public class MultiWellChannelFilesProviderBatchLibHdf5 implements MultiWellChann
 		this.singleSiteChannelFiles = new ArrayList<>();
 		this.imageDimensions = imageDimensions;
 
+		this.siteIndex = siteIndex;
+
 		createImageSources();
 
-		this.wellNames = getWellNames( files );
+		this.wellNames = siteIndex.getWellNames();
+
+		this.plateLayoutIndex = new PlateLayoutIndex( singleSiteChannelFiles );
+
+		// e.g. files that were acquired after the plate was opened
+		if ( files.size() > siteIndex.getNumFiles() )
+			addFiles( files.subList( siteIndex.getNumFiles(), files.size() ) );
 	}
 
 	@Override
@@ -51,203 +59,105 @@ public class MultiWellChannelFilesProviderBatchLibHdf5 implements MultiWellChann
 		return singleSiteChannelFiles;
 	}
 
+	@Override
+	public PlateLayoutIndex getPlateLayoutIndex()
+	{
+		return plateLayoutIndex;
+	}
+
 	@Override
 	public ArrayList< String > getWellNames()
 	{
 		return wellNames;
 	}
 
-	private ArrayList< String > getWellNames( List< File > files )
+	@Override
+	public synchronized List< SingleSiteChannelFile > addFiles( List< File > files )
 	{
-		Set< String > wellNameSet = new HashSet<>(  );
+		final ArrayList< SingleSiteChannelFile > sites = new ArrayList<>();
 
 		for ( File file : files )
 		{
-			wellNameSet.add( getWellName( file.getName() ) );
+			final SiteFileName siteFileName = SiteFileName.get( file, NamingSchemes.PATTERN_NIKON_TI2_HDF5 );
+
+			if ( siteFileName == null ) continue;
+
+			final SingleSiteChannelFile site = new SingleSiteChannelFile(
+					file,
+					hdf5DataSetName,
+					siteIndex.createInterval( siteFileName, imageDimensions ),
+					siteFileName.well + "-" + siteFileName.site,
+					siteFileName.well );
+
+			site.setInformationReader( MultiWellChannelFilesProviderBatchLibHdf5::readInformation );
+			sites.add( site );
+
+			if ( ! wellNames.contains( site.getWellName() ) )
+				wellNames.add( site.getWellName() );
 		}
 
-		return new ArrayList<>( wellNameSet );
+		plateLayoutIndex.addSites( sites );
+
+		return sites;
 	}
 
-	// TODO: make static utility method
-	private static String getWellName( String fileName )
+	@Override
+	public long[] getPlateDimensions()
 	{
-		final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( fileName );
-
-		if ( matcher.matches() )
-		{
-			String wellName = matcher.group( 1 );
-			return wellName;
-		}
-		else
-		{
-			throw new UnsupportedOperationException( "Could not match naming scheme pattern " + WELL_SITE_CHANNEL_PATTERN + " to file " + fileName );
-		}
+		return Utils.computeMinCoordinates( imageDimensions, siteIndex.getWellDimensions(), new int[ 2 ], siteIndex.getSiteDimensions() );
 	}
 
 	private void createImageSources()
 	{
-		configWells( files );
-		configSites( files );
-
-		for ( File file : files )
+		for ( int i = 0; i < siteIndex.getNumFiles(); i++ )
 		{
 			final SingleSiteChannelFile singleSiteChannelFile =
 					new SingleSiteChannelFile(
-						file,
+						siteIndex.getFiles().get( i ),
 						hdf5DataSetName,
-						createInterval( file.getName() ),
-						createSiteName( file.getName() ),
-						getWellName( file.getName() ) );
+						siteIndex.createInterval( i, imageDimensions ),
+						siteIndex.getSiteName( i ),
+						siteIndex.getWellName( i ) );
+
+			// reading the information requires opening the file, thus it is only read when needed
+			singleSiteChannelFile.setInformationReader( MultiWellChannelFilesProviderBatchLibHdf5::readInformation );
 
-			// TODO: This is too slow, because one needs to go into all the files, one could set a String Supplier here that reads it on demand
-//			singleSiteChannelFile.setSiteInformation( readSiteInformation( file ) );
-//			singleSiteChannelFile.setWellInformation( readWellInformation( file ) );
 			singleSiteChannelFiles.add( singleSiteChannelFile );
 		}
 	}
 
-	private String readSiteInformation( File file )
+	private static void readInformation( SingleSiteChannelFile site )
 	{
-		try
+		Hdf5ReaderPool.access( site.getFile(), reader ->
 		{
-			final IHDF5Reader reader = HDF5Factory.openForReading( file );
-			return reader.string().getAttr( "/", "ImageInformation" );
-		}
-		catch ( Exception e )
-		{
-			return "No ImageInformation found";
-		}
+			site.setSiteInformation( readAttribute( reader, "ImageInformation" ) );
+			site.setWellInformation( readAttribute( reader, "WellInformation" ) );
+		} );
 	}
 
-	private String readWellInformation( File file )
+	private static String readAttribute( IHDF5Reader reader, String attribute )
 	{
 		try
 		{
-			final IHDF5Reader reader = HDF5Factory.openForReading( file );
-			return reader.string().getAttr( "/", "WellInformation" );
+			return reader.string().getAttr( "/", attribute );
 		}
 		catch ( Exception e )
 		{
-			return "No WellInformation found";
+			return "No " + attribute + " found";
 		}
 	}
 
 	public static String createSiteName( String fileName )
 	{
-		return getWellName( fileName ) + "-" + getSiteName( fileName);
-	}
-
-	private static String getSiteName( String fileName )
-	{
-		final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( fileName );
+		final SiteFileName siteFileName = SiteFileName.parse( fileName, NamingSchemes.PATTERN_NIKON_TI2_HDF5 );
 
-		if ( matcher.matches() )
+		if ( siteFileName != null )
 		{
-			String siteName = matcher.group( 2 );
-			return siteName;
+			return siteFileName.well + "-" + siteFileName.site;
 		}
 		else
 		{
-			throw new UnsupportedOperationException( "Could not match naming scheme pattern " + WELL_SITE_CHANNEL_PATTERN + " to file " + fileName );
-		}
-	}
-
-	private void configWells( List< File > files )
-	{
-		int[] maximalWellPositionsInData = getMaximalWellPositionsInData( files );
-
-		wellDimensions = Utils.guessWellDimensions( maximalWellPositionsInData );
-	}
-
-	private void configSites( List< File > files )
-	{
-		numSites = getNumSites( files );
-		siteDimensions = new int[ 2 ];
-
-		for ( int d = 0; d < siteDimensions.length; ++d )
-		{
-			siteDimensions[ d ] = ( int ) Math.ceil( Math.sqrt( numSites ) );
-			siteDimensions[ d ] = Math.max( 1, siteDimensions[ d ] );
+			throw new UnsupportedOperationException( "Could not match naming scheme pattern " + NamingSchemes.PATTERN_NIKON_TI2_HDF5 + " to file " + fileName );
 		}
 	}
-
-	private int getNumSites( List< File > files )
-	{
-		Set< String > sites = new HashSet<>( );
-
-		for ( File file : files )
-		{
-			final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( file.getName() );
-
-			if ( matcher.matches() )
-			{
-				sites.add( matcher.group( SITE_GROUP ) );
-			}
-		}
-
-		if ( sites.size() == 0 )
-		{
-			return 1;
-		}
-		else
-		{
-			return sites.size();
-		}
-	}
-
-	private int[] getMaximalWellPositionsInData( List< File > files )
-	{
-		int[] maximalWellPosition = new int[ 2 ];
-
-		for ( File file : files )
-		{
-			final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( file.getName() );
-
-			matcher.matches();
-
-			int[] wellPosition = Utils.getWellPositionFromA01( matcher.group( WELL_GROUP ) );
-
-			for ( int d = 0; d < wellPosition.length; ++d )
-			{
-				if ( wellPosition[ d ] > maximalWellPosition[ d ] )
-				{
-					maximalWellPosition[ d ] = wellPosition[ d ];
-				}
-			}
-		}
-
-		return maximalWellPosition;
-	}
-
-	private FinalInterval createInterval( String filePath )
-	{
-		final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( filePath );
-
-		if ( matcher.matches() )
-		{
-			int[] wellPosition = Utils.getWellPositionFromA01( matcher.group( WELL_GROUP ) );
-			int[] sitePosition = getSitePositionFromSiteIndex( matcher.group( SITE_GROUP ) );
-
-			final FinalInterval interval = Utils.createInterval( wellPosition, sitePosition, siteDimensions, imageDimensions );
-
-			return interval;
-		}
-		else
-		{
-			throw new UnsupportedOperationException( "Could not match file name: " + filePath );
-		}
-	}
-
-	private int[] getSitePositionFromSiteIndex( String site )
-	{
-		int[] sitePosition = new int[ 2 ];
-		int siteIndex = Integer.parseInt( site );
-
-		sitePosition[ 0 ] = siteIndex % siteDimensions[ 1 ];
-		sitePosition[ 1 ] = siteIndex / siteDimensions[ 1 ];
-
-		return sitePosition;
-	}
-
 }
@@ -5,12 +5,11 @@ import net.imglib2.FinalInterval;
 
 import java.io.File;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class MultiWellChannelFilesProviderMolDevSingleSite implements MultiWellChannelFilesProvider
 {
 	final List< File > files;
+	final List< SiteFileName > siteFileNames;
 
 	int numSites, numWells;
 	int[] siteDimensions;
@@ -25,11 +24,14 @@ public class MultiWellChannelFilesProviderMolDevSingleSite implements MultiWellC
 
 	final ArrayList< String > wellNames;
 
+	final PlateLayoutIndex plateLayoutIndex;
+
 	// TODO: merge with multi-site
 	@Deprecated
 	public MultiWellChannelFilesProviderMolDevSingleSite( List< File > files, int[] imageDimensions )
 	{
 		this.files = files;
+		this.siteFileNames = SiteFileName.get( files, NAMING_SCHEME );
 		this.singleSiteChannelFiles = new ArrayList<>();
 		this.imageDimensions = imageDimensions;
 
@@ -39,6 +41,8 @@ public class MultiWellChannelFilesProviderMolDevSingleSite implements MultiWellC
 		createImageFileList();
 
 		wellNames = Utils.getWellNames( files, NAMING_SCHEME );
+
+		plateLayoutIndex = new PlateLayoutIndex( singleSiteChannelFiles );
 	}
 
 	public ArrayList< SingleSiteChannelFile > getSingleSiteChannelFiles()
@@ -46,51 +50,73 @@ public class MultiWellChannelFilesProviderMolDevSingleSite implements MultiWellC
 		return singleSiteChannelFiles;
 	}
 
+	public PlateLayoutIndex getPlateLayoutIndex()
+	{
+		return plateLayoutIndex;
+	}
+
 	public ArrayList< String > getWellNames()
 	{
 		return wellNames;
 	}
 
-	private void createImageFileList()
+	@Override
+	public synchronized List< SingleSiteChannelFile > addFiles( List< File > files )
 	{
-		configWells( files );
-		configSites( files );
+		final ArrayList< SingleSiteChannelFile > sites = new ArrayList<>();
 
 		for ( File file : files )
 		{
+			final SiteFileName siteFileName = SiteFileName.get( file, NAMING_SCHEME );
+
+			if ( siteFileName == null ) continue;
 
-			final SingleSiteChannelFile singleSiteChannelFile = new SingleSiteChannelFile(
-					file,
-					getInterval( file ),
-					getPositionName(file.getName() ),
-					getWellName( file.getName() ));
+			final SingleSiteChannelFile site = createSingleSiteChannelFile( file, siteFileName );
+			sites.add( site );
 
-			singleSiteChannelFiles.add( singleSiteChannelFile );
+			if ( ! wellNames.contains( site.getWellName() ) )
+				wellNames.add( site.getWellName() );
 		}
+
+		plateLayoutIndex.addSites( sites );
+
+		return sites;
 	}
 
-	private String getPositionName( String fileName )
+	@Override
+	public long[] getPlateDimensions()
 	{
-		return fileName;
+		return Utils.computeMinCoordinates( imageDimensions, wellDimensions, new int[ 2 ], siteDimensions );
 	}
 
-	private String getWellName( String fileName )
+	private void createImageFileList()
 	{
-		final Matcher matcher = Pattern.compile( NAMING_SCHEME ).matcher( fileName );
+		configWells();
+		configSites();
 
-		if ( matcher.matches() )
-		{
-			return matcher.group( NamingSchemes.WELL );
-		}
-		else
+		for ( int i = 0; i < files.size(); i++ )
 		{
-			return null;
+			singleSiteChannelFiles.add( createSingleSiteChannelFile( files.get( i ), siteFileNames.get( i ) ) );
 		}
 	}
 
-	private void configWells( List< File > files )
+	private SingleSiteChannelFile createSingleSiteChannelFile( File file, SiteFileName siteFileName )
+	{
+		return new SingleSiteChannelFile(
+				file,
+				getInterval( siteFileName ),
+				getPositionName(file.getName() ),
+				siteFileName.well );
+	}
+
+	private String getPositionName( String fileName )
+	{
+		return fileName;
+	}
+
+	private void configWells()
 	{
-		int[] maximalWellPositionsInData = getMaximalWellPositionsInData( files );
+		int[] maximalWellPositionsInData = getMaximalWellPositionsInData();
 
 		wellDimensions = Utils.guessWellDimensions( maximalWellPositionsInData );
 
@@ -99,7 +125,7 @@ public class MultiWellChannelFilesProviderMolDevSingleSite implements MultiWellC
 		Utils.log( "Well dimensions [ 1 ] : " +  wellDimensions[ 1 ] );
 	}
 
-	private void configSites( List< File > files )
+	private void configSites()
 	{
 		numSites = 1; //getNumSites( files );
 		siteDimensions = new int[ 2 ];
@@ -109,17 +135,13 @@ public class MultiWellChannelFilesProviderMolDevSingleSite implements MultiWellC
 		Utils.log( "Site dimensions [ 1 ] : " +  siteDimensions[ 1 ] );
 	}
 
-	private int[] getMaximalWellPositionsInData( List< File > files )
+	private int[] getMaximalWellPositionsInData()
 	{
 		int[] maximalWellPosition = new int[ 2 ];
 
-		for ( File file : files )
+		for ( SiteFileName siteFileName : siteFileNames )
 		{
-			final Matcher matcher = Pattern.compile( NAMING_SCHEME ).matcher( file.getName() );
-
-			matcher.matches();
-
-			int[] wellPosition = getWellPositionFromA01( matcher.group( 1 ) );
+			int[] wellPosition = getWellPositionFromA01( siteFileName.well );
 
 			for ( int d = 0; d < wellPosition.length; ++d )
 			{
@@ -134,28 +156,14 @@ public class MultiWellChannelFilesProviderMolDevSingleSite implements MultiWellC
 
 	}
 
-	private FinalInterval getInterval( File file )
+	private FinalInterval getInterval( SiteFileName siteFileName )
 	{
-		String filePath = file.getAbsolutePath();
-
-		final Matcher matcher = Pattern.compile( NAMING_SCHEME ).matcher( filePath );
+		int[] sitePosition = new int[ ]{ 1, 1};
+		int[] wellPosition = getWellPositionFromA01( siteFileName.well );
 
-		if ( matcher.matches() )
-		{
-
-			int[] sitePosition = new int[ ]{ 1, 1};
-			int[] wellPosition = getWellPositionFromA01( matcher.group( 1 ) );
-
-			final FinalInterval interval = Utils.createInterval( wellPosition, sitePosition, siteDimensions, imageDimensions );
-
-			return interval;
-
-		}
-		else
-		{
-			return null;
-		}
+		final FinalInterval interval = Utils.createInterval( wellPosition, sitePosition, siteDimensions, imageDimensions );
 
+		return interval;
 	}
 
 	private int[] getWellPositionFromA01( String well )
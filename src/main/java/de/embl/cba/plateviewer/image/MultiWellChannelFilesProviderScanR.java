@@ -8,12 +8,11 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFilesProvider
 {
 	final List< File > files;
+	final List< SiteFileName > siteFileNames;
 
 	int numSites, numWells;
 	int[] siteDimensions;
@@ -24,6 +23,8 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 
 	final ArrayList< String > wellNames;
 
+	final PlateLayoutIndex plateLayoutIndex;
+
 	final String WELL_SITE_CHANNEL_PATTERN = NamingSchemes.PATTERN_SCANR_WELLNUM_SITENUM_CHANNEL;
 	public static final int WELL_GROUP = 1;
 	public static final int SITE_GROUP = 2;
@@ -31,12 +32,15 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 	public MultiWellChannelFilesProviderScanR( List< File > files, int[] imageDimensions )
 	{
 		this.files = files;
+		this.siteFileNames = SiteFileName.get( files, WELL_SITE_CHANNEL_PATTERN );
 		this.singleSiteChannelFiles = new ArrayList<>();
 		this.imageDimensions = imageDimensions;
 
 		createChannelSources();
 
 		this.wellNames = getWellNames( files, WELL_SITE_CHANNEL_PATTERN );
+
+		this.plateLayoutIndex = new PlateLayoutIndex( singleSiteChannelFiles );
 	}
 
 	@Override
@@ -45,19 +49,54 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 		return singleSiteChannelFiles;
 	}
 
+	@Override
+	public PlateLayoutIndex getPlateLayoutIndex()
+	{
+		return plateLayoutIndex;
+	}
+
 	@Override
 	public ArrayList< String > getWellNames()
 	{
 		return wellNames;
 	}
 
+	@Override
+	public synchronized List< SingleSiteChannelFile > addFiles( List< File > files )
+	{
+		final ArrayList< SingleSiteChannelFile > sites = new ArrayList<>();
+
+		for ( File file : files )
+		{
+			final SiteFileName siteFileName = SiteFileName.get( file, WELL_SITE_CHANNEL_PATTERN );
+
+			if ( siteFileName == null ) continue;
+
+			final SingleSiteChannelFile site = createSingleSiteChannelFile( file, siteFileName );
+			sites.add( site );
+
+			if ( ! wellNames.contains( site.getWellName() ) )
+				wellNames.add( site.getWellName() );
+		}
+
+		plateLayoutIndex.addSites( sites );
+
+		return sites;
+	}
+
+	@Override
+	public long[] getPlateDimensions()
+	{
+		return Utils.computeMinCoordinates( imageDimensions, wellDimensions, new int[ 2 ], siteDimensions );
+	}
+
 	public static ArrayList< String > getWellNames( List< File > files, String well_site_channel_pattern )
 	{
 		Set< String > wellNameSet = new HashSet<>(  );
 
-		for ( File file : files )
+		for ( SiteFileName siteFileName : SiteFileName.get( files, well_site_channel_pattern ) )
 		{
-			wellNameSet.add( getWellName( file.getName(), well_site_channel_pattern ) );
+			wellNameSet.add( siteFileName.well );
 		}
 
 		return new ArrayList<>( wellNameSet );
@@ -65,39 +104,34 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 
 	public static String getWellName( String fileName, String well_site_channel_pattern )
 	{
-		final Matcher matcher = Pattern.compile( well_site_channel_pattern ).matcher( fileName );
+		final SiteFileName siteFileName = SiteFileName.parse( fileName, well_site_channel_pattern );
 
-		if ( matcher.matches() )
-		{
-			String wellName = matcher.group( 1 );
-			return wellName;
-		}
-		else
-		{
-			return null;
-		}
+		return siteFileName == null ? null : siteFileName.well;
 	}
 
 	private void createChannelSources()
 	{
-		configWells( files );
-		configSites( files );
+		configWells();
+		configSites();
 
-		for ( File file : files )
+		for ( int i = 0; i < files.size(); i++ )
 		{
-			final SingleSiteChannelFile singleSiteChannelFile = new SingleSiteChannelFile(
-					file,
-					getInterval( file, WELL_SITE_CHANNEL_PATTERN, wellDimensions[ 0 ], siteDimensions[ 0 ] ),
-					file.getName(),
-					getWellName( file.getName(), WELL_SITE_CHANNEL_PATTERN ) );
-
-			singleSiteChannelFiles.add( singleSiteChannelFile );
+			singleSiteChannelFiles.add( createSingleSiteChannelFile( files.get( i ), siteFileNames.get( i ) ) );
 		}
 	}
 
-	private void configWells( List< File > files )
+	private SingleSiteChannelFile createSingleSiteChannelFile( File file, SiteFileName siteFileName )
 	{
-		numWells = getNumWells( files );
+		return new SingleSiteChannelFile(
+				file,
+				getInterval( siteFileName, wellDimensions[ 0 ], siteDimensions[ 0 ] ),
+				file.getName(),
+				siteFileName.well );
+	}
+
+	private void configWells()
+	{
+		numWells = getNumWells();
 
 		wellDimensions = Utils.guessWellDimensions( numWells );
 
@@ -106,9 +140,9 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 		Utils.log( "Well dimensions [ 1 ] : " +  wellDimensions[ 1 ] );
 	}
 
-	private void configSites( List< File > files )
+	private void configSites()
 	{
-		numSites = getNumSites( files );
+		numSites = getNumSites();
 		siteDimensions = new int[ 2 ];
 
 		for ( int d = 0; d < siteDimensions.length; ++d )
@@ -122,18 +156,13 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 		Utils.log( "Site dimensions [ 1 ] : " +  siteDimensions[ 1 ] );
 	}
 
-	private int getNumSites( List< File > files )
+	private int getNumSites()
 	{
 		Set< String > sites = new HashSet<>( );
 
-		for ( File file : files )
+		for ( SiteFileName siteFileName : siteFileNames )
 		{
-			final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( file.getName() );
-
-			if ( matcher.matches() )
-			{
-				sites.add( matcher.group( SITE_GROUP ) );
-			}
+			sites.add( siteFileName.site );
 		}
 
 		if ( sites.size() == 0 )
@@ -146,20 +175,16 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 		}
 	}
 
-	private int getNumWells( List< File > files )
+	private int getNumWells()
 	{
 		Set< String > wells = new HashSet<>( );
 		int maxWellNum = 0;
 
-		for ( File file : files )
+		for ( SiteFileName siteFileName : siteFileNames )
 		{
-			final Matcher matcher = Pattern.compile( WELL_SITE_CHANNEL_PATTERN ).matcher( file.getName() );
-
-			matcher.matches();
+			wells.add( siteFileName.well );
 
-			wells.add( matcher.group( WELL_GROUP ) );
-
-			int wellNum = Integer.parseInt( matcher.group( WELL_GROUP ) );
+			int wellNum = Integer.parseInt( siteFileName.well );
 
 			if ( wellNum > maxWellNum )
 			{
@@ -180,46 +205,34 @@ public class MultiWellChannelFilesProviderScanR implements MultiWellChannelFiles
 	/**
 	 * Determines where the image will be displayed
 	 *
-	 * @param file
-	 * @param pattern
+	 * @param siteFileName
 	 * @param numWellColumns
 	 * @param numSiteColumns
 	 * @return
 	 */
-	private FinalInterval getInterval( File file, String pattern, int numWellColumns, int numSiteColumns )
+	private FinalInterval getInterval( SiteFileName siteFileName, int numWellColumns, int numSiteColumns )
 	{
-		String filePath = file.getAbsolutePath();
-
-		final Matcher matcher = Pattern.compile( pattern ).matcher( filePath );
-
-		if ( matcher.matches() )
-		{
-			int[] wellPosition = new int[ 2 ];
-			int[] sitePosition = new int[ 2 ];
+		int[] wellPosition = new int[ 2 ];
+		int[] sitePosition = new int[ 2 ];
 
-			int wellNum = Integer.parseInt( matcher.group( WELL_GROUP ) ) - 1;
-			int siteNum = Integer.parseInt( matcher.group( SITE_GROUP ) ) - 1;
+		int wellNum = Integer.parseInt( siteFileName.well ) - 1;
+		int siteNum = Integer.parseInt( siteFileName.site ) - 1;
 
-			wellPosition[ 1 ] = wellNum / numWellColumns;
-			wellPosition[ 0 ] = wellNum % numWellColumns;
+		wellPosition[ 1 ] = wellNum / numWellColumns;
+		wellPosition[ 0 ] = wellNum % numWellColumns;
 
-			sitePosition[ 0 ] = siteNum / numSiteColumns;
+		sitePosition[ 0 ] = siteNum / numSiteColumns;
 
-			final int modulo = siteNum % numSiteColumns;
+		final int modulo = siteNum % numSiteColumns;
 
-			if ( sitePosition[ 0 ] % 2 == 0 )
-				sitePosition[ 1 ] = modulo;
-			else
-				sitePosition[ 1 ] = ( numSiteColumns - 1 ) - modulo;
+		if ( sitePosition[ 0 ] % 2 == 0 )
+			sitePosition[ 1 ] = modulo;
+		else
+			sitePosition[ 1 ] = ( numSiteColumns - 1 ) - modulo;
 
-			final FinalInterval interval =
-					Utils.createInterval( wellPosition, sitePosition, siteDimensions, imageDimensions );
+		final FinalInterval interval =
+				Utils.createInterval( wellPosition, sitePosition, siteDimensions, imageDimensions );
 
-			return interval;
-		}
-		else
-		{
-			return null;
-		}
+		return interval;
 	}
 }
@@ -8,9 +8,11 @@ import de.embl.cba.tables.tablerow.TableRow;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 
@@ -26,7 +28,27 @@ public abstract class NamingSchemes
 	public static final String PATTERN_ALMF_TREAT1_TREAT2_WELLNUM_POSNUM_CHANNEL = ".*--(.*)--(.*)--W(?<"+WELL+">[0-9]{4})--P(?<"+SITE+">[0-9]{3})--T[0-9]{4,5}--Z[0-9]{3}--(?<"+CHANNEL+">.*)";
 	public static final String PATTERN_SCANR_WELLNUM_SITENUM_CHANNEL = ".*--W(?<"+WELL+">[0-9]{5})--P(?<"+SITE+">[0-9]{5}).*--.*--(?<"+CHANNEL+">.*)\\..*";
 	public static final String PATTERN_NIKON_TI2_HDF5 = ".*Well([A-Z]{1}[0-9]{2})_Point[A-Z]{1}[0-9]{2}_([0-9]{4})_.*h5$";
-	
+
+	// in the order in which they are tried when detecting the naming scheme
+	public static final List< String > PATTERNS = Arrays.asList(
+			PATTERN_NIKON_TI2_HDF5,
+			PATTERN_MD_A01_SITE_WAVELENGTH,
+			PATTERN_MD_A01_SITE,
+			PATTERN_MD_A01_WAVELENGTH,
+			PATTERN_ALMF_TREAT1_TREAT2_WELLNUM_POSNUM_CHANNEL,
+			PATTERN_SCANR_WELLNUM_SITENUM_CHANNEL );
+
+	public static final int NUM_DETECTION_SAMPLES = 16;
+
+	private static final Map< String, Pattern > schemeToPattern = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the compiled pattern of the naming scheme, which is only compiled once
+	 */
+	public static Pattern getPattern( String namingScheme )
+	{
+		return schemeToPattern.computeIfAbsent( namingScheme, Pattern::compile );
+	}
 
 	public static String getDefaultColumnNameX( List< ? extends TableRow > tableRows )
 	{
@@ -61,20 +83,44 @@ public abstract class NamingSchemes
 	{
 		String filePath = file.getAbsolutePath();
 
-		if ( Pattern.compile( PATTERN_NIKON_TI2_HDF5 ).matcher( filePath ).matches() )
-			return PATTERN_NIKON_TI2_HDF5;
-		else if ( Pattern.compile( PATTERN_MD_A01_SITE_WAVELENGTH ).matcher( filePath ).matches() )
-			return PATTERN_MD_A01_SITE_WAVELENGTH;
-		else if ( Pattern.compile( PATTERN_MD_A01_SITE ).matcher( filePath ).matches() )
-			return PATTERN_MD_A01_SITE;
-		else if ( Pattern.compile( PATTERN_MD_A01_WAVELENGTH ).matcher( filePath ).matches() )
-			return PATTERN_MD_A01_WAVELENGTH;
-		else if ( Pattern.compile( PATTERN_ALMF_TREAT1_TREAT2_WELLNUM_POSNUM_CHANNEL ).matcher( filePath ).matches() )
-			return PATTERN_ALMF_TREAT1_TREAT2_WELLNUM_POSNUM_CHANNEL;
-		else if ( Pattern.compile( PATTERN_SCANR_WELLNUM_SITENUM_CHANNEL ).matcher( filePath ).matches() )
-			return PATTERN_SCANR_WELLNUM_SITENUM_CHANNEL;
-		else
-			throw new UnsupportedOperationException( CHANNEL + "ould not match file name: " + file );
+		for ( String namingScheme : PATTERNS )
+			if ( getPattern( namingScheme ).matcher( filePath ).matches() )
+				return namingScheme;
+
+		throw new UnsupportedOperationException( "Could not match file name: " + file );
+	}
+
+	/**
+	 * Detects the naming scheme from up to {@link #NUM_DETECTION_SAMPLES} files, spread over the list.
+	 *
+	 * @return the first naming scheme that matches all sampled files,
+	 * or, if there is none, the naming scheme of the first file
+	 */
+	public static String getNamingScheme( List< File > files )
+	{
+		final List< String > samplePaths = new ArrayList<>();
+		final int step = Math.max( 1, files.size() / NUM_DETECTION_SAMPLES );
+		for ( int i = 0; i < files.size() && samplePaths.size() < NUM_DETECTION_SAMPLES; i += step )
+			samplePaths.add( files.get( i ).getAbsolutePath() );
+
+		for ( String namingScheme : PATTERNS )
+		{
+			final Pattern pattern = getPattern( namingScheme );
+
+			boolean matchesAll = true;
+			for ( String samplePath : samplePaths )
+			{
+				if ( ! pattern.matcher( samplePath ).matches() )
+				{
+					matchesAll = false;
+					break;
+				}
+			}
+
+			if ( matchesAll ) return namingScheme;
+		}
+
+		return getNamingScheme( files.get( 0 ) );
 	}
 
 	public static abstract class BatchLibHdf5
@@ -0,0 +1,412 @@
+package de.embl.cba.plateviewer.image;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.util.Intervals;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Spatial index of the sites of one plate channel.
+ *
+ * All sites of a channel have the same size and are laid out on a regular
+ * grid, thus a site (and the well it belongs to) can be found in constant time
+ * by dividing a plate coordinate by the site dimensions.
+ *
+ * Sites that are not aligned with this grid are kept in a separate list
+ * that is searched linearly.
+ *
+ * Sites can be added while the plate is shown (see {@link #addSites(List)}),
+ * for example while it is still being acquired.
+ */
+public class PlateLayoutIndex
+{
+	private final ArrayList< SingleSiteChannelFile > singleSiteChannelFiles;
+	private final Map< String, SingleSiteChannelFile > siteNameToFile;
+	private final Map< String, FinalInterval > wellNameToInterval;
+	private final List< SingleSiteChannelFile > irregularSites;
+
+	private long[] siteDimensions;
+	private long[] gridMin;
+	private int[] gridDimensions;
+	private SingleSiteChannelFile[] siteGrid;
+	private String[] wellNameGrid;
+
+	public PlateLayoutIndex( ArrayList< SingleSiteChannelFile > singleSiteChannelFiles )
+	{
+		this.singleSiteChannelFiles = singleSiteChannelFiles;
+		this.siteNameToFile = new ConcurrentHashMap<>();
+		this.wellNameToInterval = new ConcurrentHashMap<>();
+		this.irregularSites = new CopyOnWriteArrayList<>();
+
+		configGrid();
+		indexSites();
+		indexWells();
+	}
+
+	/**
+	 * Adds sites to the index, without changing the grid that was set up for the initial sites.
+	 * Sites outside of this grid are added to the sites that are searched linearly.
+	 */
+	public synchronized void addSites( List< SingleSiteChannelFile > sites )
+	{
+		if ( siteGrid == null )
+		{
+			singleSiteChannelFiles.addAll( sites );
+			configGrid();
+			indexSites();
+			indexWells();
+			return;
+		}
+
+		for ( SingleSiteChannelFile site : sites )
+		{
+			singleSiteChannelFiles.add( site );
+			siteNameToFile.putIfAbsent( site.getSiteName(), site );
+
+			if ( ! site.hasInterval() ) continue;
+
+			final int index = isOnGrid( site ) ? getGridIndex( site.min( 0 ), site.min( 1 ) ) : -1;
+
+			if ( index >= 0 )
+			{
+				if ( siteGrid[ index ] == null ) siteGrid[ index ] = site;
+				if ( wellNameGrid[ index ] == null ) wellNameGrid[ index ] = site.getWellName();
+			}
+			else
+			{
+				irregularSites.add( site );
+			}
+
+			addToWellInterval( site );
+		}
+	}
+
+	public ArrayList< SingleSiteChannelFile > getSingleSiteChannelFiles()
+	{
+		return singleSiteChannelFiles;
+	}
+
+	public long[] getSiteDimensions()
+	{
+		return siteDimensions;
+	}
+
+	public Map< String, FinalInterval > getWellNameToInterval()
+	{
+		return wellNameToInterval;
+	}
+
+	/**
+	 * @return a view that maps the site names to the site intervals, which are created when they are requested
+	 */
+	public Map< String, Interval > getSiteNameToInterval()
+	{
+		return new AbstractMap< String, Interval >()
+		{
+			@Override
+			public Interval get( Object siteName )
+			{
+				final SingleSiteChannelFile site = siteNameToFile.get( siteName );
+				return site == null ? null : site.getInterval();
+			}
+
+			@Override
+			public boolean containsKey( Object siteName )
+			{
+				return siteNameToFile.containsKey( siteName );
+			}
+
+			@Override
+			public Set< Entry< String, Interval > > entrySet()
+			{
+				return new AbstractSet< Entry< String, Interval > >()
+				{
+					@Override
+					public Iterator< Entry< String, Interval > > iterator()
+					{
+						final Iterator< SingleSiteChannelFile > sites = siteNameToFile.values().iterator();
+
+						return new Iterator< Entry< String, Interval > >()
+						{
+							@Override
+							public boolean hasNext()
+							{
+								return sites.hasNext();
+							}
+
+							@Override
+							public Entry< String, Interval > next()
+							{
+								final SingleSiteChannelFile site = sites.next();
+								return new SimpleImmutableEntry<>( site.getSiteName(), site.getInterval() );
+							}
+						};
+					}
+
+					@Override
+					public int size()
+					{
+						return siteNameToFile.size();
+					}
+				};
+			}
+		};
+	}
+
+	public FinalInterval getWellInterval( String wellName )
+	{
+		return wellNameToInterval.get( wellName );
+	}
+
+	public SingleSiteChannelFile getSite( String siteName )
+	{
+		return siteNameToFile.get( siteName );
+	}
+
+	public SingleSiteChannelFile getSite( long x, long y )
+	{
+		final int index = getGridIndex( x, y );
+
+		if ( index >= 0 && siteGrid[ index ] != null )
+			return siteGrid[ index ];
+
+		for ( SingleSiteChannelFile site : irregularSites )
+			if ( contains( site, x, y ) )
+				return site;
+
+		return null;
+	}
+
+	public SingleSiteChannelFile getSite( long[] position )
+	{
+		return getSite( position[ 0 ], position[ 1 ] );
+	}
+
+	public SingleSiteChannelFile getSite( RealLocalizable position )
+	{
+		return getSite(
+				( long ) Math.floor( position.getDoublePosition( 0 ) ),
+				( long ) Math.floor( position.getDoublePosition( 1 ) ) );
+	}
+
+	/**
+	 * Returns the first site intersecting the given interval,
+	 * for example the interval of a cell that should be loaded.
+	 */
+	public SingleSiteChannelFile getSite( Interval interval )
+	{
+		return getSite( interval.min( 0 ), interval.min( 1 ), interval.max( 0 ), interval.max( 1 ) );
+	}
+
+	private SingleSiteChannelFile getSite( long minX, long minY, long maxX, long maxY )
+	{
+		if ( siteGrid != null )
+		{
+			final long minGridX = Math.max( Math.floorDiv( minX, siteDimensions[ 0 ] ), gridMin[ 0 ] );
+			final long minGridY = Math.max( Math.floorDiv( minY, siteDimensions[ 1 ] ), gridMin[ 1 ] );
+			final long maxGridX = Math.min( Math.floorDiv( maxX, siteDimensions[ 0 ] ), gridMin[ 0 ] + gridDimensions[ 0 ] - 1 );
+			final long maxGridY = Math.min( Math.floorDiv( maxY, siteDimensions[ 1 ] ), gridMin[ 1 ] + gridDimensions[ 1 ] - 1 );
+
+			for ( long y = minGridY; y <= maxGridY; y++ )
+				for ( long x = minGridX; x <= maxGridX; x++ )
+				{
+					final int index = ( int ) ( ( y - gridMin[ 1 ] ) * gridDimensions[ 0 ] + ( x - gridMin[ 0 ] ) );
+					if ( siteGrid[ index ] != null )
+						return siteGrid[ index ];
+				}
+		}
+
+		for ( SingleSiteChannelFile site : irregularSites )
+			if ( intersects( site, minX, minY, maxX, maxY ) )
+				return site;
+
+		return null;
+	}
+
+	/**
+	 * @param scale
+	 * 			the factors from the coordinates of the interval to the coordinates of the sites,
+	 * 			e.g. for the cells of a lower resolution level
+	 * @return whether any site intersects the given interval
+	 */
+	public boolean hasSite( Interval interval, double[] scale )
+	{
+		return getSite(
+				( long ) Math.floor( interval.min( 0 ) * scale[ 0 ] ),
+				( long ) Math.floor( interval.min( 1 ) * scale[ 1 ] ),
+				( long ) Math.ceil( ( interval.max( 0 ) + 1 ) * scale[ 0 ] ) - 1,
+				( long ) Math.ceil( ( interval.max( 1 ) + 1 ) * scale[ 1 ] ) - 1 ) != null;
+	}
+
+	public String getWellName( long x, long y )
+	{
+		final int index = getGridIndex( x, y );
+
+		if ( index >= 0 && wellNameGrid[ index ] != null )
+			return wellNameGrid[ index ];
+
+		for ( Map.Entry< String, FinalInterval > entry : wellNameToInterval.entrySet() )
+			if ( contains( entry.getValue(), x, y ) )
+				return entry.getKey();
+
+		return null;
+	}
+
+	public String getWellName( RealLocalizable position )
+	{
+		return getWellName(
+				( long ) Math.floor( position.getDoublePosition( 0 ) ),
+				( long ) Math.floor( position.getDoublePosition( 1 ) ) );
+	}
+
+	private int getGridIndex( long x, long y )
+	{
+		if ( siteGrid == null ) return -1;
+
+		final long gridX = Math.floorDiv( x, siteDimensions[ 0 ] ) - gridMin[ 0 ];
+		final long gridY = Math.floorDiv( y, siteDimensions[ 1 ] ) - gridMin[ 1 ];
+
+		if ( gridX < 0 || gridX >= gridDimensions[ 0 ] ) return -1;
+		if ( gridY < 0 || gridY >= gridDimensions[ 1 ] ) return -1;
+
+		return ( int ) ( gridY * gridDimensions[ 0 ] + gridX );
+	}
+
+	private void configGrid()
+	{
+		SingleSiteChannelFile firstSite = null;
+		for ( SingleSiteChannelFile site : singleSiteChannelFiles )
+		{
+			if ( site.hasInterval() )
+			{
+				firstSite = site;
+				break;
+			}
+		}
+
+		if ( firstSite == null ) return;
+
+		siteDimensions = new long[]{ firstSite.dimension( 0 ), firstSite.dimension( 1 ) };
+
+		final long[] min = new long[]{ Long.MAX_VALUE, Long.MAX_VALUE };
+		final long[] max = new long[]{ Long.MIN_VALUE, Long.MIN_VALUE };
+
+		for ( SingleSiteChannelFile site : singleSiteChannelFiles )
+		{
+			if ( ! isOnGrid( site ) ) continue;
+
+			for ( int d = 0; d < 2; d++ )
+			{
+				final long gridPosition = site.min( d ) / siteDimensions[ d ];
+				min[ d ] = Math.min( min[ d ], gridPosition );
+				max[ d ] = Math.max( max[ d ], gridPosition );
+			}
+		}
+
+		gridMin = min;
+		gridDimensions = new int[ 2 ];
+		for ( int d = 0; d < 2; d++ )
+			gridDimensions[ d ] = ( int ) ( max[ d ] - min[ d ] + 1 );
+
+		siteGrid = new SingleSiteChannelFile[ gridDimensions[ 0 ] * gridDimensions[ 1 ] ];
+		wellNameGrid = new String[ siteGrid.length ];
+	}
+
+	private boolean isOnGrid( SingleSiteChannelFile site )
+	{
+		if ( ! site.hasInterval() ) return false;
+
+		for ( int d = 0; d < 2; d++ )
+		{
+			if ( site.dimension( d ) != siteDimensions[ d ] ) return false;
+			if ( Math.floorMod( site.min( d ), siteDimensions[ d ] ) != 0 ) return false;
+		}
+
+		return true;
+	}
+
+	private void indexSites()
+	{
+		for ( SingleSiteChannelFile site : singleSiteChannelFiles )
+		{
+			// keep the first file of each site, which is what the linear search used to return
+			siteNameToFile.putIfAbsent( site.getSiteName(), site );
+
+			if ( ! site.hasInterval() ) continue;
+
+			if ( isOnGrid( site ) )
+			{
+				final int index = getGridIndex( site.min( 0 ), site.min( 1 ) );
+				if ( siteGrid[ index ] == null )
+					siteGrid[ index ] = site;
+			}
+			else
+			{
+				irregularSites.add( site );
+			}
+		}
+	}
+
+	private void indexWells()
+	{
+		for ( SingleSiteChannelFile site : singleSiteChannelFiles )
+			addToWellInterval( site );
+
+		if ( siteGrid == null ) return;
+
+		for ( Map.Entry< String, FinalInterval > entry : wellNameToInterval.entrySet() )
+		{
+			final FinalInterval well = entry.getValue();
+
+			for ( long y = well.min( 1 ); y <= well.max( 1 ); y += siteDimensions[ 1 ] )
+				for ( long x = well.min( 0 ); x <= well.max( 0 ); x += siteDimensions[ 0 ] )
+				{
+					final int index = getGridIndex( x, y );
+					if ( index >= 0 && wellNameGrid[ index ] == null )
+						wellNameGrid[ index ] = entry.getKey();
+				}
+		}
+	}
+
+	private void addToWellInterval( SingleSiteChannelFile site )
+	{
+		final FinalInterval interval = site.getInterval();
+
+		if ( interval == null || site.getWellName() == null ) return;
+
+		final FinalInterval union = wellNameToInterval.get( site.getWellName() );
+
+		if ( union == null )
+			wellNameToInterval.put( site.getWellName(), interval );
+		else
+			wellNameToInterval.put( site.getWellName(), Intervals.union( interval, union ) );
+	}
+
+	private static boolean contains( Interval interval, long x, long y )
+	{
+		return interval.min( 0 ) <= x && x <= interval.max( 0 )
+				&& interval.min( 1 ) <= y && y <= interval.max( 1 );
+	}
+
+	private static boolean contains( SingleSiteChannelFile site, long x, long y )
+	{
+		return site.min( 0 ) <= x && x < site.min( 0 ) + site.dimension( 0 )
+				&& site.min( 1 ) <= y && y < site.min( 1 ) + site.dimension( 1 );
+	}
+
+	private static boolean intersects( SingleSiteChannelFile site, long minX, long minY, long maxX, long maxY )
+	{
+		return site.min( 0 ) <= maxX && minX <= site.max( 0 )
+				&& site.min( 1 ) <= maxY && minY <= site.max( 1 );
+	}
+}
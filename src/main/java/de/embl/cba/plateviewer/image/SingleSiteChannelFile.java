@@ -3,32 +3,56 @@ package de.embl.cba.plateviewer.image;
 import net.imglib2.FinalInterval;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
+/**
+ * One site of one channel at one resolution level.
+ *
+ * As there are many of them, a site only stores the index of its file, its position and
+ * references to interned names and dimensions; the rest is kept in the {@link SiteRegistry}
+ * that was current when the site was created.
+ * The interval of the site is created when it is requested; code that runs per cell
+ * should use {@link #min(int)} and {@link #dimension(int)} instead.
+ */
 public class SingleSiteChannelFile
 {
-	private final File file;
-	private String hdf5DataSetName;
-	private final FinalInterval interval;
+	private final SiteRegistry registry;
+	private final int fileIndex;
+	private final String hdf5DataSetName;
+	private final int minX;
+	private final int minY;
+	private final int[] dimensions; // null if the site has no interval
 	private final String siteName;
 	private final String wellName;
-	private String siteInformation = "";
-	private String wellInformation = "";
 
 	public SingleSiteChannelFile( File file, String hdf5DataSetName, FinalInterval interval, String siteName, String wellName )
 	{
-		this.file = file;
-		this.hdf5DataSetName = hdf5DataSetName;
-		this.interval = interval;
-		this.siteName = siteName;
-		this.wellName = wellName;
+		this.registry = SiteRegistry.getInstance();
+		this.fileIndex = registry.getFileIndex( file );
+		this.hdf5DataSetName = registry.intern( hdf5DataSetName );
+		this.siteName = registry.intern( siteName );
+		this.wellName = registry.intern( wellName );
+
+		if ( interval != null )
+		{
+			this.minX = Math.toIntExact( interval.min( 0 ) );
+			this.minY = Math.toIntExact( interval.min( 1 ) );
+			this.dimensions = registry.internDimensions( interval.dimension( 0 ), interval.dimension( 1 ) );
+		}
+		else
+		{
+			this.minX = 0;
+			this.minY = 0;
+			this.dimensions = null;
+		}
 	}
 
 	public SingleSiteChannelFile( File file, FinalInterval interval, String siteName, String wellName )
 	{
-		this.file = file;
-		this.interval = interval;
-		this.siteName = siteName;
-		this.wellName = wellName;
+		this( file, null, interval, siteName, wellName );
 	}
 
 	public String getSiteName()
@@ -38,22 +62,64 @@ public class SingleSiteChannelFile
 
 	public String getSiteInformation()
 	{
-		return siteInformation;
+		return registry.getSiteInformation( fileIndex );
 	}
 
 	public void setSiteInformation( String siteInformation )
 	{
-		this.siteInformation = siteInformation;
+		registry.setSiteInformation( fileIndex, siteInformation );
 	}
 
 	public String getWellInformation()
 	{
-		return wellInformation;
+		return registry.getWellInformation( fileIndex );
 	}
 
 	public void setWellInformation( String wellInformation )
 	{
-		this.wellInformation = wellInformation;
+		registry.setWellInformation( fileIndex, wellInformation );
+	}
+
+	/**
+	 * @param informationReader
+	 * 			sets the site and well information of a site, e.g. from its file,
+	 * 			which is only done once the information is needed (see {@link #fetchInformation(Executor)})
+	 */
+	public void setInformationReader( Consumer< SingleSiteChannelFile > informationReader )
+	{
+		registry.setInformationReader( fileIndex, informationReader );
+	}
+
+	public boolean hasInformationReader()
+	{
+		return registry.hasInformationReader( fileIndex );
+	}
+
+	/**
+	 * Sets the information that was read before, such that it is not read again.
+	 */
+	public void setInformation( String siteInformation, String wellInformation )
+	{
+		registry.setInformation( fileIndex, siteInformation, wellInformation );
+	}
+
+	/**
+	 * @return whether the site and well information are read (or there is none to read)
+	 */
+	public boolean isInformationAvailable()
+	{
+		return registry.isInformationAvailable( fileIndex );
+	}
+
+	/**
+	 * Reads the site and well information with the given executor, unless it is already read or being read.
+	 * The information is shared by all sites in the same file.
+	 *
+	 * @return completes when the information is available
+	 */
+	public CompletableFuture< Void > fetchInformation( Executor executor )
+	{
+		return registry.fetchInformation( this, executor );
 	}
 
 	public String getWellName()
@@ -63,12 +129,47 @@ public class SingleSiteChannelFile
 
 	public File getFile()
 	{
-		return file;
+		return registry.getFile( fileIndex );
 	}
 
+	public int getFileIndex()
+	{
+		return fileIndex;
+	}
+
+	/**
+	 * @return the interval of the site, or null if it has none
+	 */
 	public FinalInterval getInterval()
 	{
-		return interval;
+		if ( dimensions == null ) return null;
+
+		return FinalInterval.createMinSize( minX, minY, dimensions[ 0 ], dimensions[ 1 ] );
+	}
+
+	public boolean hasInterval()
+	{
+		return dimensions != null;
+	}
+
+	public long min( int d )
+	{
+		return d == 0 ? minX : minY;
+	}
+
+	public long max( int d )
+	{
+		return min( d ) + dimensions[ d ] - 1;
+	}
+
+	public long dimension( int d )
+	{
+		return dimensions[ d ];
+	}
+
+	public boolean hasSameInterval( SingleSiteChannelFile site )
+	{
+		return minX == site.minX && minY == site.minY && Arrays.equals( dimensions, site.dimensions );
 	}
 
 	public String getHdf5DataSetName()
@@ -0,0 +1,112 @@
+package de.embl.cba.plateviewer.image;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+
+/**
+ * The well, site, channel and treatment encoded in the name of an image file,
+ * parsed once per file and naming scheme.
+ *
+ * Parts that the naming scheme does not contain are null.
+ */
+public class SiteFileName
+{
+	public final String namingScheme;
+	public final String well;
+	public final String site;
+	public final String channel;
+	public final String treatment;
+
+	private static final Map< File, SiteFileName > fileToName = Collections.synchronizedMap( new WeakHashMap<>() );
+
+	private SiteFileName( String namingScheme, String well, String site, String channel, String treatment )
+	{
+		this.namingScheme = namingScheme;
+		this.well = well;
+		this.site = site;
+		this.channel = channel;
+		this.treatment = treatment;
+	}
+
+	/**
+	 * @return the parsed name of the file, or null if the name does not match the naming scheme
+	 */
+	public static SiteFileName get( File file, String namingScheme )
+	{
+		SiteFileName name = fileToName.get( file );
+
+		if ( name == null || ! name.namingScheme.equals( namingScheme ) )
+		{
+			name = parse( file.getName(), namingScheme );
+			if ( name != null ) fileToName.put( file, name );
+		}
+
+		return name;
+	}
+
+	/**
+	 * @return the parsed names of the files, in the same order
+	 * @throws UnsupportedOperationException if a name does not match the naming scheme
+	 */
+	public static List< SiteFileName > get( List< File > files, String namingScheme )
+	{
+		final List< SiteFileName > names = new ArrayList<>( files.size() );
+
+		for ( File file : files )
+		{
+			final SiteFileName name = get( file, namingScheme );
+
+			if ( name == null )
+				throw new UnsupportedOperationException( "Could not match naming scheme pattern " + namingScheme + " to file " + file.getName() );
+
+			names.add( name );
+		}
+
+		return names;
+	}
+
+	/**
+	 * @return the parsed file name, or null if it does not match the naming scheme
+	 */
+	public static SiteFileName parse( String fileName, String namingScheme )
+	{
+		final Matcher matcher = NamingSchemes.getPattern( namingScheme ).matcher( fileName );
+
+		if ( ! matcher.matches() ) return null;
+
+		if ( namingScheme.equals( NamingSchemes.PATTERN_NIKON_TI2_HDF5 ) )
+		{
+			return new SiteFileName( namingScheme, matcher.group( BatchLibHdf5SiteIndex.WELL_GROUP ), matcher.group( BatchLibHdf5SiteIndex.SITE_GROUP ), null, null );
+		}
+		else if ( namingScheme.equals( NamingSchemes.PATTERN_ALMF_TREAT1_TREAT2_WELLNUM_POSNUM_CHANNEL ) )
+		{
+			return new SiteFileName(
+					namingScheme,
+					matcher.group( NamingSchemes.WELL ),
+					matcher.group( NamingSchemes.SITE ),
+					matcher.group( NamingSchemes.CHANNEL ),
+					matcher.group( 1 ) + "--" + matcher.group( 2 ) );
+		}
+		else
+		{
+			return new SiteFileName(
+					namingScheme,
+					group( matcher, namingScheme, NamingSchemes.WELL ),
+					group( matcher, namingScheme, NamingSchemes.SITE ),
+					group( matcher, namingScheme, NamingSchemes.CHANNEL ),
+					null );
+		}
+	}
+
+	private static String group( Matcher matcher, String namingScheme, String groupName )
+	{
+		if ( ! namingScheme.contains( "(?<" + groupName + ">" ) ) return null;
+
+		return matcher.group( groupName );
+	}
+}
@@ -0,0 +1,82 @@
+package de.embl.cba.plateviewer.image;
+
+import de.embl.cba.plateviewer.io.PlateFileIndex;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches the site and well information of sites in the background, such that
+ * e.g. a mouse handler never waits for a file to be opened.
+ *
+ * The information that was read is kept in the plate index (if there is one),
+ * such that it is only read once per file.
+ */
+public class SiteInformationFetcher
+{
+	public static final long SAVE_DELAY_MILLIS = 5000;
+
+	private final PlateFileIndex plateFileIndex;
+	private final ScheduledExecutorService executorService;
+	private ScheduledFuture< ? > saveFuture;
+
+	/**
+	 * @param plateFileIndex
+	 * 			the index in which the information is kept, or null
+	 */
+	public SiteInformationFetcher( PlateFileIndex plateFileIndex )
+	{
+		this.plateFileIndex = plateFileIndex;
+		this.executorService = Executors.newSingleThreadScheduledExecutor( runnable -> {
+			final Thread thread = new Thread( runnable, "site information fetcher" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+	}
+
+	/**
+	 * @param onFetched
+	 * 			is called, in the background, once the information is available, if it is not available yet
+	 * @return whether the information of the site is available
+	 */
+	public boolean fetch( SingleSiteChannelFile site, Runnable onFetched )
+	{
+		if ( site.isInformationAvailable() ) return true;
+
+		if ( plateFileIndex != null )
+		{
+			final String[] information = plateFileIndex.getSiteInformation( site.getFile() );
+
+			if ( information != null )
+			{
+				site.setInformation( information[ 0 ], information[ 1 ] );
+				return true;
+			}
+		}
+
+		site.fetchInformation( executorService ).whenComplete( ( result, throwable ) ->
+		{
+			if ( throwable == null && plateFileIndex != null )
+			{
+				plateFileIndex.putSiteInformation( site.getFile(), site.getSiteInformation(), site.getWellInformation() );
+				scheduleSave();
+			}
+
+			onFetched.run();
+		} );
+
+		return false;
+	}
+
+	/**
+	 * Saves the index once no information was read for a while, as each save writes the whole index.
+	 */
+	private synchronized void scheduleSave()
+	{
+		if ( saveFuture != null ) saveFuture.cancel( false );
+
+		saveFuture = executorService.schedule( plateFileIndex::save, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS );
+	}
+}
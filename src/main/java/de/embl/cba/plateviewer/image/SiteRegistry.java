@@ -0,0 +1,208 @@
+package de.embl.cba.plateviewer.image;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * The data that the sites of all channels and resolution levels share, kept in arrays
+ * rather than in objects per site, as a campaign of plates can have millions of sites
+ * (e.g. 1536 wells x 9 sites x 6 channels x 5 resolution levels).
+ *
+ * Each file has an index into the file table, under which also the site and well information
+ * of the file is kept; names and site dimensions are interned, such that all channels
+ * and resolution levels reference the same instances.
+ * A {@link SingleSiteChannelFile} thus only consists of a file index, its position
+ * and references to interned values.
+ *
+ * Files are not removed one by one; instead, the registry is released once all plates
+ * that use it are closed (see {@link #release()}).
+ */
+public class SiteRegistry
+{
+	public static final int INITIAL_CAPACITY = 1024;
+
+	private static SiteRegistry registry;
+	private static int numPlates;
+
+	private final Map< String, String > names;
+	private final Map< Long, int[] > dimensions;
+	private final Map< File, Integer > fileToIndex;
+
+	private volatile File[] files;
+	private String[] siteInformation;
+	private String[] wellInformation;
+	private Consumer< SingleSiteChannelFile >[] informationReaders;
+	private CompletableFuture< Void >[] informationFutures;
+	private int numFiles;
+
+	private SiteRegistry()
+	{
+		names = new ConcurrentHashMap<>();
+		dimensions = new ConcurrentHashMap<>();
+		fileToIndex = new HashMap<>();
+		files = new File[ INITIAL_CAPACITY ];
+		siteInformation = new String[ INITIAL_CAPACITY ];
+		wellInformation = new String[ INITIAL_CAPACITY ];
+		informationReaders = new Consumer[ INITIAL_CAPACITY ];
+		informationFutures = new CompletableFuture[ INITIAL_CAPACITY ];
+	}
+
+	/**
+	 * @return the registry of the open plates, which is created with the first site
+	 */
+	public static synchronized SiteRegistry getInstance()
+	{
+		if ( registry == null )
+			registry = new SiteRegistry();
+
+		return registry;
+	}
+
+	/**
+	 * Registers a plate that is opened, see {@link #release()}.
+	 */
+	public static synchronized void acquire()
+	{
+		numPlates++;
+	}
+
+	/**
+	 * Unregisters a plate that is closed. Once no plate is open, the registry is released:
+	 * the files, information and readers of the closed plates do not build up over a session,
+	 * and a plate that is opened again reads its site information again.
+	 * Sites that exist already keep the released registry, which is collected with them.
+	 */
+	public static synchronized void release()
+	{
+		if ( numPlates == 0 ) return;
+
+		if ( --numPlates == 0 )
+			registry = null;
+	}
+
+	/**
+	 * @return the shared instance of the given name, or null if the name is null
+	 */
+	public String intern( String name )
+	{
+		if ( name == null ) return null;
+
+		final String interned = names.putIfAbsent( name, name );
+		return interned == null ? name : interned;
+	}
+
+	/**
+	 * @return the shared array of the given (2D) dimensions, which must not be modified
+	 */
+	public int[] internDimensions( long width, long height )
+	{
+		return dimensions.computeIfAbsent( width << 32 | height, key -> new int[]{ Math.toIntExact( width ), Math.toIntExact( height ) } );
+	}
+
+	/**
+	 * @return the index of the file in the file table, which is added if it is not in the table yet
+	 */
+	public synchronized int getFileIndex( File file )
+	{
+		final Integer index = fileToIndex.get( file );
+		if ( index != null ) return index;
+
+		if ( numFiles == files.length )
+			grow();
+
+		files[ numFiles ] = file;
+		siteInformation[ numFiles ] = "";
+		wellInformation[ numFiles ] = "";
+		fileToIndex.put( file, numFiles );
+
+		return numFiles++;
+	}
+
+	public File getFile( int fileIndex )
+	{
+		return files[ fileIndex ];
+	}
+
+	public synchronized String getSiteInformation( int fileIndex )
+	{
+		return siteInformation[ fileIndex ];
+	}
+
+	public synchronized String getWellInformation( int fileIndex )
+	{
+		return wellInformation[ fileIndex ];
+	}
+
+	public synchronized void setSiteInformation( int fileIndex, String information )
+	{
+		siteInformation[ fileIndex ] = information;
+	}
+
+	public synchronized void setWellInformation( int fileIndex, String information )
+	{
+		wellInformation[ fileIndex ] = information;
+	}
+
+	/**
+	 * Sets the information that was read before, such that it is not read again.
+	 */
+	public synchronized void setInformation( int fileIndex, String siteInformation, String wellInformation )
+	{
+		this.siteInformation[ fileIndex ] = siteInformation;
+		this.wellInformation[ fileIndex ] = wellInformation;
+		informationFutures[ fileIndex ] = CompletableFuture.completedFuture( null );
+	}
+
+	public synchronized void setInformationReader( int fileIndex, Consumer< SingleSiteChannelFile > informationReader )
+	{
+		// the information of a file is the same for all channels and resolution levels, thus it is only read once
+		if ( informationReaders[ fileIndex ] != null ) return;
+
+		informationReaders[ fileIndex ] = informationReader;
+	}
+
+	public synchronized boolean hasInformationReader( int fileIndex )
+	{
+		return informationReaders[ fileIndex ] != null;
+	}
+
+	public synchronized boolean isInformationAvailable( int fileIndex )
+	{
+		if ( informationReaders[ fileIndex ] == null ) return true;
+
+		return informationFutures[ fileIndex ] != null && informationFutures[ fileIndex ].isDone();
+	}
+
+	public synchronized CompletableFuture< Void > fetchInformation( SingleSiteChannelFile site, Executor executor )
+	{
+		final int fileIndex = site.getFileIndex();
+
+		if ( informationFutures[ fileIndex ] == null )
+		{
+			final Consumer< SingleSiteChannelFile > reader = informationReaders[ fileIndex ];
+
+			if ( reader == null )
+				informationFutures[ fileIndex ] = CompletableFuture.completedFuture( null );
+			else
+				informationFutures[ fileIndex ] = CompletableFuture.runAsync( () -> reader.accept( site ), executor );
+		}
+
+		return informationFutures[ fileIndex ];
+	}
+
+	private void grow()
+	{
+		final int capacity = files.length * 2;
+		siteInformation = Arrays.copyOf( siteInformation, capacity );
+		wellInformation = Arrays.copyOf( wellInformation, capacity );
+		informationReaders = Arrays.copyOf( informationReaders, capacity );
+		informationFutures = Arrays.copyOf( informationFutures, capacity );
+		files = Arrays.copyOf( files, capacity );
+	}
+}
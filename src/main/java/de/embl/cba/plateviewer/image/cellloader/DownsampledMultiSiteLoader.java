@@ -0,0 +1,79 @@
+package de.embl.cba.plateviewer.image.cellloader;
+
+import de.embl.cba.plateviewer.image.PlateLayoutIndex;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Computes a cell of a resolution level as the 2x2 mean of the
+ * next higher resolution level, which is read via its own cache,
+ * such that each level is only computed once per site.
+ */
+public class DownsampledMultiSiteLoader< T extends NativeType< T > & RealType< T > > implements CellLoader< T >
+{
+	private final RandomAccessibleInterval< T > higherResolution;
+	private final PlateLayoutIndex plateLayoutIndex;
+	private final long scale;
+
+	/**
+	 * @param higherResolution
+	 * 			the resolution level with twice the resolution of the level that is loaded
+	 * @param plateLayoutIndex
+	 * 			the sites at full resolution
+	 * @param scale
+	 * 			the downsampling factor of the loaded level relative to full resolution
+	 */
+	public DownsampledMultiSiteLoader( RandomAccessibleInterval< T > higherResolution, PlateLayoutIndex plateLayoutIndex, long scale )
+	{
+		this.higherResolution = higherResolution;
+		this.plateLayoutIndex = plateLayoutIndex;
+		this.scale = scale;
+	}
+
+	@Override
+	public void load( final SingleCellArrayImg< T, ? > cell )
+	{
+		if ( ! isSiteExisting( cell ) ) return;
+
+		final RandomAccess< T > access = higherResolution.randomAccess();
+		final Cursor< T > cursor = cell.localizingCursor();
+		final long[] position = new long[ 2 ];
+
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			position[ 0 ] = 2 * cursor.getLongPosition( 0 );
+			position[ 1 ] = 2 * cursor.getLongPosition( 1 );
+
+			double sum = 0;
+			for ( int dy = 0; dy < 2; dy++ )
+				for ( int dx = 0; dx < 2; dx++ )
+				{
+					access.setPosition( position[ 0 ] + dx, 0 );
+					access.setPosition( position[ 1 ] + dy, 1 );
+					sum += access.get().getRealDouble();
+				}
+
+			cursor.get().setReal( sum / 4 );
+		}
+	}
+
+	private boolean isSiteExisting( SingleCellArrayImg< T, ? > cell )
+	{
+		final long[] min = new long[ 2 ];
+		final long[] max = new long[ 2 ];
+		for ( int d = 0; d < 2; d++ )
+		{
+			min[ d ] = cell.min( d ) * scale;
+			max[ d ] = ( cell.max( d ) + 1 ) * scale - 1;
+		}
+
+		return plateLayoutIndex.getSite( new FinalInterval( min, max ) ) != null;
+	}
+}
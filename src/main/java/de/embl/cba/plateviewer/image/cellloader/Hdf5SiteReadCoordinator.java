@@ -0,0 +1,344 @@
+package de.embl.cba.plateviewer.image.cellloader;
+
+import ch.systemsx.cisd.hdf5.HDF5DataSetInformation;
+import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.io.Hdf5ReaderPool;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.util.Intervals;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads the cells of all active channels of a site together, for HDF5 files that contain all channels.
+ *
+ * When a channel loads a cell, the same cell of each other active channel whose site
+ * lies in the same file is read right afterwards, in the background and in one access to the file.
+ * These reads are kept as pending data, bounded by {@link #MAX_PENDING_NUM_BYTES}, until the other channels request them.
+ * Channels that request a cell whose read is still in flight wait for that read instead of reading the cell again.
+ * Cells that a channel holds in memory already are not read again.
+ *
+ * Channels are active if they have loaded cells within the last {@link #ACTIVE_MILLIS},
+ * which is the case for the channels (and resolution levels) that are shown.
+ */
+public class Hdf5SiteReadCoordinator
+{
+	public static final long ACTIVE_MILLIS = 5000;
+	public static final long MAX_PENDING_NUM_BYTES = 256L * 1024 * 1024;
+	public static final int NUM_SIBLING_READ_THREADS = 2;
+
+	private static Hdf5SiteReadCoordinator coordinator;
+
+	private final List< WeakReference< MultiSiteHdf5Loader > > loaders;
+	private final LinkedHashMap< CellKey, Object > pending;
+	private final Map< CellKey, CompletableFuture< Object > > reading;
+	private final ExecutorService siblingReadExecutor;
+	private long pendingNumBytes;
+
+	private Hdf5SiteReadCoordinator()
+	{
+		loaders = new ArrayList<>();
+		pending = new LinkedHashMap<>();
+		reading = new HashMap<>();
+		siblingReadExecutor = Executors.newFixedThreadPool( NUM_SIBLING_READ_THREADS, runnable -> {
+			final Thread thread = new Thread( runnable, "hdf5 sibling reads" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+	}
+
+	public static synchronized Hdf5SiteReadCoordinator getInstance()
+	{
+		if ( coordinator == null )
+			coordinator = new Hdf5SiteReadCoordinator();
+
+		return coordinator;
+	}
+
+	public synchronized void register( MultiSiteHdf5Loader loader )
+	{
+		loaders.removeIf( reference -> reference.get() == null );
+		loaders.add( new WeakReference<>( loader ) );
+	}
+
+	/**
+	 * Reads the cell of the given loader into the storage array of the cell.
+	 *
+	 * If the cell is pending or being read together with another channel, its data is taken from there.
+	 * Otherwise it is read from the file, and the same cell of the sibling channels is read in the background.
+	 */
+	public void read( MultiSiteHdf5Loader loader, SingleCellArrayImg< ?, ? > cell, SingleSiteChannelFile site )
+	{
+		final Object array = cell.getStorageArray();
+		final CellKey key = new CellKey( loader, cell );
+		final CompletableFuture< Object > ownRead;
+		final CompletableFuture< Object > otherRead;
+		final List< MultiSiteHdf5Loader > siblings;
+
+		synchronized ( this )
+		{
+			final Object data = takePending( key );
+			if ( data != null )
+			{
+				System.arraycopy( data, 0, array, 0, Array.getLength( data ) );
+				return;
+			}
+
+			otherRead = reading.get( key );
+
+			if ( otherRead == null )
+			{
+				ownRead = new CompletableFuture<>();
+				reading.put( key, ownRead );
+				siblings = getActiveSiblings( loader, cell, site );
+				for ( MultiSiteHdf5Loader sibling : siblings )
+					reading.put( new CellKey( sibling, cell ), new CompletableFuture<>() );
+			}
+			else
+			{
+				ownRead = null;
+				siblings = null;
+			}
+		}
+
+		if ( otherRead != null )
+		{
+			if ( joinRead( key, otherRead, array ) ) return;
+
+			// the other read failed, thus the cell is read without siblings
+			readCell( array, cell, site );
+			return;
+		}
+
+		try
+		{
+			readCell( array, cell, site );
+			complete( key, ownRead, array, false );
+		}
+		catch ( RuntimeException e )
+		{
+			fail( key, ownRead, e );
+			for ( MultiSiteHdf5Loader sibling : siblings )
+				fail( new CellKey( sibling, cell ), getReading( new CellKey( sibling, cell ) ), e );
+			throw e;
+		}
+
+		if ( ! siblings.isEmpty() )
+		{
+			// the cell itself is not kept by the background read
+			final Interval interval = new FinalInterval( cell );
+			siblingReadExecutor.submit( () -> readSiblings( siblings, interval, site ) );
+		}
+	}
+
+	private void readCell( Object array, Interval cell, SingleSiteChannelFile site )
+	{
+		final HDF5DataSetInformation information = Hdf5ReaderPool.getDataSetInformation( site.getFile(), site.getHdf5DataSetName() );
+
+		Hdf5ReaderPool.access( site.getFile(), hdf5Reader ->
+			MultiSiteHdf5Loader.loadHdf5IntoArray( array, cell, site, hdf5Reader, information ) );
+	}
+
+	/**
+	 * Reads the cell of the given siblings in one access to the file and keeps them as pending data.
+	 */
+	private void readSiblings( List< MultiSiteHdf5Loader > siblings, Interval cell, SingleSiteChannelFile site )
+	{
+		final File file = site.getFile();
+		final int numElements = ( int ) Intervals.numElements( cell );
+
+		try
+		{
+			Hdf5ReaderPool.access( file, hdf5Reader ->
+			{
+				for ( MultiSiteHdf5Loader sibling : siblings )
+				{
+					final CellKey key = new CellKey( sibling, cell );
+					final SingleSiteChannelFile siblingSite = sibling.getChannelSource( cell );
+					final HDF5DataSetInformation information = Hdf5ReaderPool.getDataSetInformation( file, siblingSite.getHdf5DataSetName() );
+
+					final Object array = MultiSiteHdf5Loader.createArray( information, numElements );
+					MultiSiteHdf5Loader.loadHdf5IntoArray( array, cell, siblingSite, hdf5Reader, information );
+					complete( key, getReading( key ), array, true );
+				}
+			} );
+		}
+		catch ( RuntimeException e )
+		{
+			// siblings that have not been read read their cell themselves
+			for ( MultiSiteHdf5Loader sibling : siblings )
+			{
+				final CellKey key = new CellKey( sibling, cell );
+				final CompletableFuture< Object > read = getReading( key );
+				if ( read != null ) fail( key, read, e );
+			}
+		}
+	}
+
+	/**
+	 * Waits for the read of the cell by another channel and copies its data into the given array.
+	 *
+	 * @return false if the read failed
+	 */
+	private boolean joinRead( CellKey key, CompletableFuture< Object > read, Object array )
+	{
+		final Object data;
+		try
+		{
+			data = read.join();
+		}
+		catch ( CompletionException | CancellationException e )
+		{
+			return false;
+		}
+
+		synchronized ( this )
+		{
+			// the data of a sibling read is pending as well
+			if ( pending.get( key ) == data )
+				takePending( key );
+		}
+
+		System.arraycopy( data, 0, array, 0, Array.getLength( data ) );
+		return true;
+	}
+
+	private synchronized CompletableFuture< Object > getReading( CellKey key )
+	{
+		return reading.get( key );
+	}
+
+	private void complete( CellKey key, CompletableFuture< Object > read, Object data, boolean isPending )
+	{
+		synchronized ( this )
+		{
+			reading.remove( key, read );
+			if ( isPending ) putPending( key, data );
+		}
+
+		read.complete( data );
+	}
+
+	private void fail( CellKey key, CompletableFuture< Object > read, Throwable throwable )
+	{
+		if ( read == null ) return;
+
+		synchronized ( this )
+		{
+			reading.remove( key, read );
+		}
+
+		read.completeExceptionally( throwable );
+	}
+
+	private Object takePending( CellKey key )
+	{
+		final Object data = pending.remove( key );
+		if ( data != null ) pendingNumBytes -= getNumBytes( data );
+		return data;
+	}
+
+	/**
+	 * Siblings are the other active channels whose site at the position of the cell is in the same file
+	 * and has the same interval, such that their cell grid matches, and which neither hold the cell
+	 * in memory nor have it pending or being read.
+	 */
+	private List< MultiSiteHdf5Loader > getActiveSiblings( MultiSiteHdf5Loader loader, Interval cell, SingleSiteChannelFile site )
+	{
+		final List< MultiSiteHdf5Loader > siblings = new ArrayList<>();
+		final long nowMillis = System.currentTimeMillis();
+
+		for ( WeakReference< MultiSiteHdf5Loader > reference : loaders )
+		{
+			final MultiSiteHdf5Loader sibling = reference.get();
+
+			if ( sibling == null || sibling == loader || ! sibling.isActive( nowMillis, ACTIVE_MILLIS ) ) continue;
+
+			final SingleSiteChannelFile siblingSite = sibling.getChannelSource( cell );
+
+			if ( siblingSite == null
+					|| ! siblingSite.getFile().equals( site.getFile() )
+					|| siblingSite.getHdf5DataSetName().equals( site.getHdf5DataSetName() )
+					|| ! siblingSite.hasSameInterval( site ) ) continue;
+
+			final CellKey key = new CellKey( sibling, cell );
+			if ( pending.containsKey( key ) || reading.containsKey( key ) || sibling.isCached( cell ) ) continue;
+
+			siblings.add( sibling );
+		}
+
+		return siblings;
+	}
+
+	private void putPending( CellKey key, Object data )
+	{
+		final Object replaced = pending.put( key, data );
+		if ( replaced != null ) pendingNumBytes -= getNumBytes( replaced );
+		pendingNumBytes += getNumBytes( data );
+
+		// the oldest reads are dropped, e.g. those of channels that were hidden in the meantime
+		final Iterator< Map.Entry< CellKey, Object > > iterator = pending.entrySet().iterator();
+		while ( pendingNumBytes > MAX_PENDING_NUM_BYTES && iterator.hasNext() )
+		{
+			final Map.Entry< CellKey, Object > eldest = iterator.next();
+			iterator.remove();
+			pendingNumBytes -= getNumBytes( eldest.getValue() );
+		}
+	}
+
+	private static long getNumBytes( Object array )
+	{
+		final int length = Array.getLength( array );
+
+		if ( array instanceof byte[] ) return length;
+		else if ( array instanceof short[] ) return 2L * length;
+		else return 4L * length;
+	}
+
+	private static class CellKey
+	{
+		final MultiSiteHdf5Loader loader;
+		final long min0, min1, dimension0, dimension1;
+
+		CellKey( MultiSiteHdf5Loader loader, Interval cell )
+		{
+			this.loader = loader;
+			this.min0 = cell.min( 0 );
+			this.min1 = cell.min( 1 );
+			this.dimension0 = cell.dimension( 0 );
+			this.dimension1 = cell.dimension( 1 );
+		}
+
+		@Override
+		public boolean equals( Object o )
+		{
+			if ( ! ( o instanceof CellKey ) ) return false;
+			final CellKey key = ( CellKey ) o;
+			return loader == key.loader && min0 == key.min0 && min1 == key.min1 && dimension0 == key.dimension0 && dimension1 == key.dimension1;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = System.identityHashCode( loader );
+			hash = 31 * hash + Long.hashCode( min0 );
+			hash = 31 * hash + Long.hashCode( min1 );
+			hash = 31 * hash + Long.hashCode( dimension0 );
+			return 31 * hash + Long.hashCode( dimension1 );
+		}
+	}
+}
@@ -28,17 +28,25 @@ import net.imglib2.view.Views;
 import java.awt.*;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
 
 public class ImageFilterLoader < T extends NativeType< T > & RealType< T > > implements CellLoader< T >
 {
 
 	private final ImageFilterSettings settings;
+	private final FastFilters.Parameters fastFilterParameters;
 	private BdvOverlay bdvOverlay;
 
 	public ImageFilterLoader( ImageFilterSettings settings )
 	{
 		this.settings = settings;
 
+		// shared by all loader threads, as the filter takes its parameters per call
+		if ( settings.filterType.equals( ImageFilter.MEDIAN_DEVIATION ) )
+			fastFilterParameters = FastFilters.Parameters.medianDeviation( settings );
+		else
+			fastFilterParameters = null;
+
 		if ( settings.filterType.equals( ImageFilter.SIMPLE_SEGMENTATION ) )
 		{
 			bdvOverlay = new BdvVolatileTextOverlay();
@@ -55,7 +63,7 @@ public class ImageFilterLoader < T extends NativeType< T > & RealType< T > > imp
 		}
 	}
 
-	public void applyFilterToSourceAndPutResultIntoCell( SingleCellArrayImg< T, ? > cell )
+	public void applyFilterToSourceAndPutResultIntoCell( SingleCellArrayImg< T, ? > cell ) throws InterruptedException
 	{
 		final IntervalView< T > inputInterval = Views.interval( settings.rai, cell );
 
@@ -147,7 +155,7 @@ public class ImageFilterLoader < T extends NativeType< T > & RealType< T > > imp
 		}
 	}
 
-	public void applyFastFiler( RandomAccessibleInterval< T > input, SingleCellArrayImg< T, ? > cell )
+	public void applyFastFiler( RandomAccessibleInterval< T > input, SingleCellArrayImg< T, ? > cell ) throws InterruptedException
 	{
 		if ( input.numDimensions() == 2 )
 		{
@@ -159,7 +167,7 @@ public class ImageFilterLoader < T extends NativeType< T > & RealType< T > > imp
 		}
 	}
 
-	public void applyFastFilter( RandomAccessibleInterval< T > input, SingleCellArrayImg< T, ? > cell )
+	public void applyFastFilter( RandomAccessibleInterval< T > input, SingleCellArrayImg< T, ? > cell ) throws InterruptedException
 	{
 		final short[] cellData = ( short[] ) cell.getStorageArray();
 
@@ -182,17 +190,17 @@ public class ImageFilterLoader < T extends NativeType< T > & RealType< T > > imp
 		final FloatProcessor floatInputIp = new FloatProcessor( w, h, floatInputPixels );
 		final FloatProcessor floatInputSnapShotIp = new FloatProcessor( w, h, floatInputSnapShot );
 
-		final FastFilters fastFilters = new FastFilters();
-
-		if ( settings.filterType.equals( ImageFilter.MEDIAN_DEVIATION ) )
-		{
-			fastFilters.configureMedianDeviation( settings );
-		}
+		final ForkJoinPool pool = FastFilters.getPool( settings.plateViewer.getLoadingQueue().getNumIoThreads() );
 
 		final long start = System.currentTimeMillis();
-		fastFilters.run( floatInputIp, floatInputSnapShotIp );
+		FastFilters.filter( floatInputIp, floatInputSnapShotIp, fastFilterParameters, pool );
 		Utils.debug( "Fast filter time [ms]: " + ( System.currentTimeMillis() - start) );
 
+		// the filter stops early when the loader thread is interrupted; the cell is then not loaded,
+		// such that the partially filtered pixels are not cached
+		if ( Thread.currentThread().isInterrupted() )
+			throw new InterruptedException( "Filtering of the cell was interrupted." );
+
 		final short[] shortResultPixels = new short[ h * w ];
 		for ( i = 0; i < h * w; ++i )
 		{
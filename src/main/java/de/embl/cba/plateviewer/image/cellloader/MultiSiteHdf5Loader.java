@@ -1,69 +1,133 @@
 package de.embl.cba.plateviewer.image.cellloader;
 
+import ch.systemsx.cisd.base.mdarray.MDByteArray;
+import ch.systemsx.cisd.base.mdarray.MDFloatArray;
+import ch.systemsx.cisd.base.mdarray.MDIntArray;
+import ch.systemsx.cisd.base.mdarray.MDShortArray;
 import ch.systemsx.cisd.hdf5.HDF5DataSetInformation;
-import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import de.embl.cba.plateviewer.util.Utils;
+import de.embl.cba.plateviewer.image.PlateLayoutIndex;
 import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import net.imglib2.Interval;
+import net.imglib2.cache.img.CachedCellImg;
 import net.imglib2.cache.img.SingleCellArrayImg;
-
-import java.io.File;
-import java.util.ArrayList;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.IntervalIndexer;
 
 public class MultiSiteHdf5Loader extends MultiSiteLoader
 {
-	public MultiSiteHdf5Loader( ArrayList< SingleSiteChannelFile > singleSiteChannelFiles )
+	private volatile long lastLoadMillis;
+	private volatile CachedCellImg< ?, ? > cachedCellImg;
+
+	public MultiSiteHdf5Loader( PlateLayoutIndex plateLayoutIndex )
 	{
-		super( singleSiteChannelFiles );
+		super( plateLayoutIndex );
+		Hdf5SiteReadCoordinator.getInstance().register( this );
 	}
 
 	@Override
-	public synchronized void load( final SingleCellArrayImg cell )
+	public void load( final SingleCellArrayImg cell )
 	{
 		SingleSiteChannelFile singleSiteChannelFile = getChannelSource( cell );
 
 		if ( singleSiteChannelFile != null )
 		{
-//			System.out.println( singleSiteChannelFile.getSiteName() );
+			lastLoadMillis = System.currentTimeMillis();
 
-			loadHdf5IntoCell( cell, singleSiteChannelFile.getFile(), singleSiteChannelFile.getHdf5DataSetName() );
+			// the cell may have been read together with the same cell of another channel
+			Hdf5SiteReadCoordinator.getInstance().read( this, cell, singleSiteChannelFile );
 		}
 	}
 
-	private void loadHdf5IntoCell( SingleCellArrayImg cell, File file, String hdf5DataSetName )
+	/**
+	 * @param cachedCellImg
+	 * 			the image whose cells this loader loads
+	 */
+	public void setCachedCellImg( CachedCellImg< ?, ? > cachedCellImg )
+	{
+		this.cachedCellImg = cachedCellImg;
+	}
+
+	/**
+	 * @return whether the cell of the image at the position of the given cell is in memory
+	 */
+	public boolean isCached( Interval cell )
+	{
+		final CachedCellImg< ?, ? > img = cachedCellImg;
+		if ( img == null ) return false;
+
+		final CellGrid grid = img.getCellGrid();
+		final long[] position = new long[ grid.numDimensions() ];
+		for ( int d = 0; d < position.length; d++ )
+			position[ d ] = cell.min( d );
+
+		final long[] cellPosition = new long[ position.length ];
+		grid.getCellPosition( position, cellPosition );
+
+		return img.getCache().getIfPresent( IntervalIndexer.positionToIndex( cellPosition, grid.getGridDimensions() ) ) != null;
+	}
+
+	/**
+	 * @return whether cells of this channel have been loaded recently, i.e. whether the channel is likely shown
+	 */
+	public boolean isActive( long nowMillis, long activeMillis )
 	{
-		final IHDF5Reader hdf5Reader = HDF5Factory.openForReading( file );
-		final HDF5DataSetInformation information = hdf5Reader.getDataSetInformation( hdf5DataSetName );
+		return nowMillis - lastLoadMillis < activeMillis;
+	}
+
+	/**
+	 * Reads the part of the site that is covered by the cell directly into the
+	 * given array, without allocating an intermediate array.
+	 */
+	static void loadHdf5IntoArray( Object array, Interval cell, SingleSiteChannelFile site, IHDF5Reader hdf5Reader, HDF5DataSetInformation information )
+	{
+		final String hdf5DataSetName = site.getHdf5DataSetName();
 		final String dataType = information.getTypeInformation().toString();
 		final boolean signed = information.isSigned();
 
+		// in hdf5 it is y,x
+		final int[] blockDimensions = new int[]{ ( int ) cell.dimension( 1 ), ( int ) cell.dimension( 0 ) };
+		final long[] offset = new long[]{ cell.min( 1 ) - site.min( 1 ), cell.min( 0 ) - site.min( 0 ) };
+		final int[] memoryOffset = new int[]{ 0, 0 };
+
 		if ( dataType.equals( Utils.H5_BYTE ) && ! signed )
 		{
-			final byte[] data = hdf5Reader.uint8().readArray( hdf5DataSetName );
-			final byte[] celldata = ( byte[] ) cell.getStorageArray();
-			System.arraycopy( data, 0, celldata, 0, celldata.length );
+			final MDByteArray celldata = new MDByteArray( ( byte[] ) array, blockDimensions );
+			hdf5Reader.uint8().readToMDArrayBlockWithOffset( hdf5DataSetName, celldata, blockDimensions, offset, memoryOffset );
 		}
 		else if ( dataType.equals( Utils.H5_SHORT ) && ! signed  )
 		{
-			final short[] data = hdf5Reader.uint16().readArray( hdf5DataSetName );
-			final short[] celldata = ( short[] ) cell.getStorageArray();
-			System.arraycopy( data, 0, celldata, 0, celldata.length );
+			final MDShortArray celldata = new MDShortArray( ( short[] ) array, blockDimensions );
+			hdf5Reader.uint16().readToMDArrayBlockWithOffset( hdf5DataSetName, celldata, blockDimensions, offset, memoryOffset );
 		}
 		else if ( dataType.equals( Utils.H5_INT ) && ! signed )
 		{
-			final int[] data = hdf5Reader.uint32().readArray( hdf5DataSetName );
-			final int[] celldata = ( int[] ) cell.getStorageArray();
-			System.arraycopy( data, 0, celldata, 0, celldata.length );
+			final MDIntArray celldata = new MDIntArray( ( int[] ) array, blockDimensions );
+			hdf5Reader.uint32().readToMDArrayBlockWithOffset( hdf5DataSetName, celldata, blockDimensions, offset, memoryOffset );
 		}
 		else if ( dataType.equals( Utils.H5_FLOAT ) )
 		{
-			final float[] data = hdf5Reader.float32().readArray( hdf5DataSetName );
-			final float[] celldata = ( float[] ) cell.getStorageArray();
-			System.arraycopy( data, 0, celldata, 0, celldata.length );
+			final MDFloatArray celldata = new MDFloatArray( ( float[] ) array, blockDimensions );
+			hdf5Reader.float32().readToMDArrayBlockWithOffset( hdf5DataSetName, celldata, blockDimensions, offset, memoryOffset );
 		}
 		else
 		{
 			throw new UnsupportedOperationException( "Hdf5 datatype not supported: " + dataType );
 		}
 	}
+
+	/**
+	 * @return an array that can hold the given number of pixels of the given data set
+	 */
+	static Object createArray( HDF5DataSetInformation information, int numElements )
+	{
+		final String dataType = information.getTypeInformation().toString();
+
+		if ( dataType.equals( Utils.H5_BYTE ) ) return new byte[ numElements ];
+		else if ( dataType.equals( Utils.H5_SHORT ) ) return new short[ numElements ];
+		else if ( dataType.equals( Utils.H5_INT ) ) return new int[ numElements ];
+		else if ( dataType.equals( Utils.H5_FLOAT ) ) return new float[ numElements ];
+		else throw new UnsupportedOperationException( "Hdf5 datatype not supported: " + dataType );
+	}
 }
@@ -1,6 +1,8 @@
 package de.embl.cba.plateviewer.image.cellloader;
 
+import de.embl.cba.plateviewer.io.TiffRegionReader;
 import de.embl.cba.plateviewer.util.Utils;
+import de.embl.cba.plateviewer.image.PlateLayoutIndex;
 import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
 import ij.IJ;
 import ij.ImagePlus;
@@ -8,45 +10,80 @@ import ij.process.ColorProcessor;
 import net.imglib2.cache.img.SingleCellArrayImg;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
 
 public class MultiSiteImagePlusLoader extends MultiSiteLoader
 {
-	public MultiSiteImagePlusLoader( ArrayList< SingleSiteChannelFile > singleSiteChannelFiles )
+	public MultiSiteImagePlusLoader( PlateLayoutIndex plateLayoutIndex )
 	{
-		super( singleSiteChannelFiles );
+		super( plateLayoutIndex );
 	}
 
 	@Override
-	public synchronized void load( final SingleCellArrayImg cell )
+	public void load( final SingleCellArrayImg cell )
 	{
 		SingleSiteChannelFile singleSiteChannelFile = getChannelSource( cell );
 
 		if ( singleSiteChannelFile != null )
 		{
-			loadImagePlusIntoCell( cell, singleSiteChannelFile.getFile() );
+			loadImagePlusIntoCell( cell, singleSiteChannelFile );
 		}
 	}
 
-	private void loadImagePlusIntoCell( SingleCellArrayImg< ? , ? > cell, File file )
+	protected void loadImagePlusIntoCell( SingleCellArrayImg< ? , ? > cell, SingleSiteChannelFile site )
 	{
+		final File file = site.getFile();
+
 		Utils.debug( "Loading: " + file.getName() );
 
+		final int cellWidth = ( int ) cell.dimension( 0 );
+		final int cellHeight = ( int ) cell.dimension( 1 );
+		final int offsetX = ( int ) ( cell.min( 0 ) - site.min( 0 ) );
+		final int offsetY = ( int ) ( cell.min( 1 ) - site.min( 1 ) );
+
+		try
+		{
+			final TiffRegionReader tiffReader = TiffRegionReader.open( file );
+
+			if ( tiffReader != null )
+			{
+				tiffReader.read( offsetX, offsetY, cellWidth, cellHeight, cell.getStorageArray() );
+				return;
+			}
+		}
+		catch ( IOException e )
+		{
+			Utils.log( "Could not read " + file.getName() + " as TIFF, opening it with ImageJ: " + e.getMessage() );
+		}
+
+		loadImagePlusIntoCell( cell, file, offsetX, offsetY, cellWidth, cellHeight );
+	}
+
+	/**
+	 * Reads the whole site and copies the part that is covered by the cell,
+	 * because IJ.openImage cannot read parts of an image.
+	 */
+	private void loadImagePlusIntoCell( SingleCellArrayImg< ? , ? > cell, File file, int offsetX, int offsetY, int cellWidth, int cellHeight )
+	{
 		// TODO: check for the data type of the cell (cell.getFirstElement())
 
 		final ImagePlus imp = IJ.openImage( file.getAbsolutePath() );
 
+		final int siteWidth = imp.getWidth();
+
 		if ( imp.getBitDepth() == 8 )
 		{
 			final byte[] impdata = ( byte[] ) imp.getProcessor().getPixels();
 			final byte[] celldata = ( byte[] ) cell.getStorageArray();
-			System.arraycopy( impdata, 0, celldata, 0, celldata.length );
+			for ( int y = 0; y < cellHeight; y++ )
+				System.arraycopy( impdata, ( offsetY + y ) * siteWidth + offsetX, celldata, y * cellWidth, cellWidth );
 		}
 		else if ( imp.getBitDepth() == 16 )
 		{
 			final short[] impdata = ( short[] ) imp.getProcessor().getPixels();
 			final short[] celldata = ( short[] ) cell.getStorageArray();
-			System.arraycopy( impdata, 0, celldata, 0, celldata.length );
+			for ( int y = 0; y < cellHeight; y++ )
+				System.arraycopy( impdata, ( offsetY + y ) * siteWidth + offsetX, celldata, y * cellWidth, cellWidth );
 		}
 		else if ( imp.getBitDepth() == 24 ) // RGB
 		{
@@ -60,11 +97,15 @@ public class MultiSiteImagePlusLoader extends MultiSiteLoader
 
 			final short[] celldata = ( short[] ) cell.getStorageArray();
 
-			for ( int i = 0; i < imgDataRGB[ 0 ].length; i++ )
+			for ( int y = 0; y < cellHeight; y++ )
 			{
-				for ( int c = 0; c < 3; c++ )
+				for ( int x = 0; x < cellWidth; x++ )
 				{
-					celldata[ i ] += imgDataRGB[ c ][ i ] & 0xFF;
+					final int i = ( offsetY + y ) * siteWidth + offsetX + x;
+					for ( int c = 0; c < 3; c++ )
+					{
+						celldata[ y * cellWidth + x ] += imgDataRGB[ c ][ i ] & 0xFF;
+					}
 				}
 			}
 		}
@@ -72,7 +113,8 @@ public class MultiSiteImagePlusLoader extends MultiSiteLoader
 		{
 			final float[] impdata = ( float[] ) imp.getProcessor().getPixels();
 			final float[] celldata = ( float[] ) cell.getStorageArray();
-			System.arraycopy( impdata, 0, celldata, 0, celldata.length );
+			for ( int y = 0; y < cellHeight; y++ )
+				System.arraycopy( impdata, ( offsetY + y ) * siteWidth + offsetX, celldata, y * cellWidth, cellWidth );
 		}
 	}
 }
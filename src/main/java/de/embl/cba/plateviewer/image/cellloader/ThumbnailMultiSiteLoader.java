@@ -0,0 +1,47 @@
+package de.embl.cba.plateviewer.image.cellloader;
+
+import de.embl.cba.plateviewer.cache.ThumbnailStore;
+import de.embl.cba.plateviewer.image.PlateLayoutIndex;
+import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import net.imglib2.Cursor;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Loads the thumbnail resolution level, in which each cell is the thumbnail of one site.
+ */
+public class ThumbnailMultiSiteLoader< T extends NativeType< T > & RealType< T > > implements CellLoader< T >
+{
+	private final ThumbnailStore< T > thumbnailStore;
+	private final PlateLayoutIndex plateLayoutIndex;
+	private final long[] siteDimensions;
+	private final int[] thumbnailDimensions;
+
+	public ThumbnailMultiSiteLoader( ThumbnailStore< T > thumbnailStore, PlateLayoutIndex plateLayoutIndex )
+	{
+		this.thumbnailStore = thumbnailStore;
+		this.plateLayoutIndex = plateLayoutIndex;
+		this.siteDimensions = plateLayoutIndex.getSiteDimensions();
+		this.thumbnailDimensions = thumbnailStore.getThumbnailDimensions();
+	}
+
+	@Override
+	public void load( final SingleCellArrayImg< T, ? > cell )
+	{
+		final SingleSiteChannelFile site = plateLayoutIndex.getSite(
+				cell.min( 0 ) / thumbnailDimensions[ 0 ] * siteDimensions[ 0 ],
+				cell.min( 1 ) / thumbnailDimensions[ 1 ] * siteDimensions[ 1 ] );
+
+		if ( site == null ) return;
+
+		final float[] thumbnail = thumbnailStore.getThumbnail( site );
+
+		// the cell has the dimensions of a thumbnail, thus its flat iteration order matches the thumbnail array
+		final Cursor< T > cursor = cell.cursor();
+		int i = 0;
+		while ( cursor.hasNext() )
+			cursor.next().setReal( thumbnail[ i++ ] );
+	}
+}
@@ -1,12 +1,14 @@
 package de.embl.cba.plateviewer.image.channel;
 
 import ch.systemsx.cisd.hdf5.HDF5DataSetInformation;
-import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import de.embl.cba.bdv.utils.sources.Metadata;
+import de.embl.cba.plateviewer.io.Hdf5ReaderPool;
 import de.embl.cba.plateviewer.util.Utils;
 import de.embl.cba.plateviewer.image.cellloader.MultiSiteHdf5Loader;
+import de.embl.cba.plateviewer.image.BatchLibHdf5SiteIndex;
 import de.embl.cba.plateviewer.image.MultiWellChannelFilesProviderBatchLibHdf5;
+import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
@@ -16,6 +18,7 @@ import net.imglib2.type.numeric.real.FloatType;
 
 import java.awt.*;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 public class MultiWellBatchLibHdf5Img< T extends RealType< T > & NativeType< T > > extends MultiWellImg< T >
@@ -27,47 +30,80 @@ public class MultiWellBatchLibHdf5Img< T extends RealType< T > & NativeType< T >
 	public static final String SCALE_FACTORS = "ScaleFactors";
 
 	private final String hdf5DataSetName;
+	private final List< MultiWellBatchLibHdf5Img< T > > lowerResolutionLevels = new ArrayList<>();
 
-	public MultiWellBatchLibHdf5Img( List< File > files, String namingScheme, String channelName, int resolutionLevel )
+	public MultiWellBatchLibHdf5Img( List< File > files, BatchLibHdf5SiteIndex siteIndex, String namingScheme, String channelName, int resolutionLevel )
 	{
 		super( files, namingScheme, resolutionLevel, channelName );
 
 		this.channelName = channelName;
 
-		this.hdf5DataSetName = channelName + "/s" + resolutionLevel;
+		this.hdf5DataSetName = getHdf5DataSetName( channelName, resolutionLevel );
 
 		setHdf5ImageProperties( files.get( 0 ) );
 
-		multiWellChannelFilesProvider = new MultiWellChannelFilesProviderBatchLibHdf5( files, hdf5DataSetName, imageDimensions, resolutionLevel );
+		multiWellChannelFilesProvider = new MultiWellChannelFilesProviderBatchLibHdf5( files, siteIndex, hdf5DataSetName, imageDimensions, resolutionLevel );
 
 		singleSiteChannelFiles = multiWellChannelFilesProvider.getSingleSiteChannelFiles();
 
 		if ( resolutionLevel == 0 )
 			wellNames = multiWellChannelFilesProvider.getWellNames();
 
-		loader = new MultiSiteHdf5Loader( singleSiteChannelFiles );
+		final MultiSiteHdf5Loader hdf5Loader = new MultiSiteHdf5Loader( multiWellChannelFilesProvider.getPlateLayoutIndex() );
+		loader = hdf5Loader;
 
 		setCachedCellImg();
+
+		hdf5Loader.setCachedCellImg( cachedCellImg );
+	}
+
+	public static String getHdf5DataSetName( String channelName, int resolutionLevel )
+	{
+		return channelName + "/s" + resolutionLevel;
+	}
+
+	/**
+	 * @return the dimensions of the images of the given channel and resolution level, without reading any pixels
+	 */
+	public static int[] getImageDimensions( File file, String channelName, int resolutionLevel )
+	{
+		return toImageDimensions( Hdf5ReaderPool.getDataSetInformation( file, getHdf5DataSetName( channelName, resolutionLevel ) ) );
 	}
 
 	public static int[] getScaleFactors( File file, String channel )
 	{
-		final IHDF5Reader hdf5Reader = HDF5Factory.openForReading( file );
+		return Hdf5ReaderPool.read( file, hdf5Reader -> hdf5Reader.int32().getArrayAttr( channel, SCALE_FACTORS ) );
+	}
+
+	/**
+	 * Each resolution level of a BatchLib plate is read from its own data sets,
+	 * thus files that are added to this (full resolution) image are added to the lower levels as well.
+	 */
+	public void addLowerResolutionLevel( MultiWellBatchLibHdf5Img< T > img )
+	{
+		lowerResolutionLevels.add( img );
+	}
 
-		final int[] scaleFactors = hdf5Reader.int32().getArrayAttr( channel, SCALE_FACTORS );
+	@Override
+	public synchronized List< SingleSiteChannelFile > addFiles( List< File > files )
+	{
+		for ( MultiWellBatchLibHdf5Img< T > img : lowerResolutionLevels )
+			img.addFiles( files );
 
-		return scaleFactors;
+		return super.addFiles( files );
 	}
 
 	private void setHdf5ImageProperties( File file )
 	{
-		final IHDF5Reader hdf5Reader = HDF5Factory.openForReading( file );
+		// the display settings of a channel are only used from its full resolution level
+		if ( resolutionLevel == 0 )
+			Hdf5ReaderPool.access( file, hdf5Reader -> setLut( hdf5Reader, channelName ) );
 
-		setLut( hdf5Reader, channelName );
+		final HDF5DataSetInformation information = Hdf5ReaderPool.getDataSetInformation( file, hdf5DataSetName );
 
-		setImageDataType( hdf5Reader, hdf5DataSetName );
+		setImageDataType( information );
 
-		setImageDimensions( hdf5Reader, hdf5DataSetName );
+		setImageDimensions( information );
 	}
 
 	private void setLut( IHDF5Reader hdf5Reader, String channelName )
@@ -112,17 +148,22 @@ public class MultiWellBatchLibHdf5Img< T extends RealType< T > & NativeType< T >
 		}
 	}
 
-	private void setImageDimensions( IHDF5Reader hdf5Reader, String hdf5DataSetName )
+	private void setImageDimensions( HDF5DataSetInformation information )
+	{
+		imageDimensions = toImageDimensions( information );
+	}
+
+	private static int[] toImageDimensions( HDF5DataSetInformation information )
 	{
-		final long[] dimensions = hdf5Reader.getDataSetInformation( hdf5DataSetName ).getDimensions();
-		imageDimensions = new int[ 2 ];
+		final long[] dimensions = information.getDimensions();
+		final int[] imageDimensions = new int[ 2 ];
 		imageDimensions[ 0 ] = (int) dimensions[ 1 ]; // in hdf5 it is y,x
 		imageDimensions[ 1 ] = (int) dimensions[ 0 ];
+		return imageDimensions;
 	}
 
-	private void setImageDataType( IHDF5Reader hdf5Reader, String hdf5DataSetName )
+	private void setImageDataType( HDF5DataSetInformation information )
 	{
-		final HDF5DataSetInformation information = hdf5Reader.getDataSetInformation( hdf5DataSetName );
 		final String dataType = information.getTypeInformation().toString();
 		final boolean signed = information.isSigned();
 
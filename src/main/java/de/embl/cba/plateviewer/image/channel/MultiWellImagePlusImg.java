@@ -1,7 +1,12 @@
 package de.embl.cba.plateviewer.image.channel;
 
+import bdv.util.BdvSource;
 import de.embl.cba.plateviewer.image.cellloader.MultiSiteImagePlusLoader;
 import de.embl.cba.plateviewer.image.MultiWellChannelFilesProviderFactory;
+import de.embl.cba.plateviewer.image.source.MultiResolutionImagePlusChannelSourceCreator;
+import de.embl.cba.plateviewer.io.ImageMetadataProbe;
+import de.embl.cba.plateviewer.io.TiffRegionReader;
+import de.embl.cba.plateviewer.util.Utils;
 import de.embl.cba.tables.color.ColorUtils;
 import ij.IJ;
 import ij.ImagePlus;
@@ -16,14 +21,37 @@ import net.imglib2.type.numeric.real.FloatType;
 import java.awt.*;
 import java.awt.image.IndexColorModel;
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MultiWellImagePlusImg< T extends RealType< T > & NativeType< T > > extends MultiWellImg< T >
 {
+	public static final int NUM_CONTRAST_LIMITS_THREADS = 2;
+
+	// shared by all channels, as each computation reads a whole image
+	private static final ExecutorService contrastLimitsExecutor = Executors.newFixedThreadPool( NUM_CONTRAST_LIMITS_THREADS, runnable -> {
+		final Thread thread = new Thread( runnable, "contrast limits" );
+		thread.setDaemon( true );
+		return thread;
+	} );
+
 	public MultiWellImagePlusImg( List< File > files, String channelName, String namingScheme, int resolutionLevel )
+	{
+		this( files, channelName, namingScheme, resolutionLevel, null );
+	}
+
+	/**
+	 * @param plateDirectory
+	 * 			the folder that was opened as plate, which keys the stored thumbnails, or null if they are not stored
+	 */
+	public MultiWellImagePlusImg( List< File > files, String channelName, String namingScheme, int resolutionLevel, File plateDirectory )
 	{
 		super( files, namingScheme, resolutionLevel, channelName );
 
+		this.plateDirectory = plateDirectory;
+
 		setImagePlusProperties( files.get( 0 ) );
 
 		multiWellChannelFilesProvider = MultiWellChannelFilesProviderFactory.getMultiWellChannelFilesProvider( files, namingScheme, imageDimensions );
@@ -34,34 +62,168 @@ public class MultiWellImagePlusImg< T extends RealType< T > & NativeType< T > >
 
 		wellNames = multiWellChannelFilesProvider.getWellNames();
 
-		loader = new MultiSiteImagePlusLoader( singleSiteChannelFiles );
+		loader = new MultiSiteImagePlusLoader( multiWellChannelFilesProvider.getPlateLayoutIndex() );
 
 		setCachedCellImg();
+
+		setMultiResolutionSource();
 	}
 
-	private void setImagePlusProperties( File file )
+	private void setMultiResolutionSource()
+	{
+		final MultiResolutionImagePlusChannelSourceCreator< T > sourceCreator = new MultiResolutionImagePlusChannelSourceCreator<>( this );
+
+		sourceCreator.create();
+
+		setSource( sourceCreator.getSource() );
+	}
+
+	/**
+	 * @return the dimensions of the given image, read from its header if possible
+	 */
+	public static int[] getImageDimensions( File file )
 	{
+		final ImageMetadataProbe metadata = ImageMetadataProbe.probe( file );
+
+		if ( metadata != null )
+			return new int[]{ metadata.width, metadata.height };
+
 		final ImagePlus imagePlus = IJ.openImage( file.getAbsolutePath() );
+		return new int[]{ imagePlus.getWidth(), imagePlus.getHeight() };
+	}
+
+	private void setImagePlusProperties( File file )
+	{
+		isRegionReadable = isRegionReadable( file );
+
+		final ImageMetadataProbe metadata = ImageMetadataProbe.probe( file );
 
-		setLut( imagePlus );
+		if ( metadata == null )
+		{
+			final ImagePlus imagePlus = IJ.openImage( file.getAbsolutePath() );
+
+			setLut( imagePlus );
+
+			setImageDataType( imagePlus.getBitDepth() );
+
+			setImageDimensions( imagePlus.getWidth(), imagePlus.getHeight() );
+		}
+		else
+		{
+			setLut( file, metadata );
 
-		setImageDataType( imagePlus );
+			setImageDataType( metadata.bitDepth );
 
-		setImageDimensions( imagePlus );
+			setImageDimensions( metadata.width, metadata.height );
+		}
 	}
 
 	private void setLut( ImagePlus imagePlus )
 	{
-		setLutColor( imagePlus );
+		if ( ! setLutColor( imagePlus.getTitle() ) )
+			setLutColor( imagePlus.getLuts() );
 
 		setLutMinMax( imagePlus );
 
 		isInitiallyVisible = true;
 	}
 
-	private void setLutColor( ImagePlus imagePlus )
+	/**
+	 * The contrast limits are determined from the pixel values (as ImageJ does it),
+	 * which requires reading the whole image, thus this is done in the background.
+	 */
+	private void setLut( File file, ImageMetadataProbe metadata )
 	{
-		final String title = imagePlus.getTitle().toLowerCase();
+		if ( ! setLutColor( file.getName() ) )
+		{
+			if ( metadata.lutMaximum != null )
+				argbType = new ARGBType( ARGBType.rgba( metadata.lutMaximum[ 0 ], metadata.lutMaximum[ 1 ], metadata.lutMaximum[ 2 ], 255 ) );
+			else
+				argbType = ColorUtils.getARGBType( Color.WHITE );
+		}
+
+		setInitialLutMinMax( metadata.bitDepth );
+
+		contrastLimitsExecutor.execute( () -> computeContrastLimits( file ) );
+
+		isInitiallyVisible = true;
+	}
+
+	private void computeContrastLimits( File file )
+	{
+		final ImagePlus imagePlus;
+		try
+		{
+			imagePlus = IJ.openImage( file.getAbsolutePath() );
+		}
+		catch ( Exception e )
+		{
+			Utils.log( "Could not determine the contrast limits of channel " + channelName + ": " + e.getMessage() );
+			return;
+		}
+
+		if ( imagePlus == null )
+		{
+			Utils.log( "Could not open " + file.getName() + " to determine the contrast limits of channel " + channelName + "." );
+			return;
+		}
+
+		synchronized ( this )
+		{
+			setLutMinMax( imagePlus );
+			applyContrastLimits();
+		}
+	}
+
+	/**
+	 * The contrast limits that are computed in the background are applied
+	 * to the source when it is added, if they were computed before.
+	 */
+	@Override
+	public synchronized void setBdvSource( BdvSource bdvSource )
+	{
+		super.setBdvSource( bdvSource );
+		applyContrastLimits();
+	}
+
+	private void applyContrastLimits()
+	{
+		final BdvSource bdvSource = getBdvSource();
+		final double[] contrastLimits = this.contrastLimits;
+		if ( bdvSource != null )
+			bdvSource.setDisplayRange( contrastLimits[ 0 ], contrastLimits[ 1 ] );
+	}
+
+	/**
+	 * Only TIFFs that {@link TiffRegionReader} can decode are read in parts,
+	 * all other files (e.g. JPEGs) are opened as a whole by ImageJ.
+	 * Compressed TIFFs whose strips or tiles are larger than a cell are also read as a whole,
+	 * as otherwise each cell would decode (most of) the site.
+	 */
+	private static boolean isRegionReadable( File file )
+	{
+		try
+		{
+			final TiffRegionReader reader = TiffRegionReader.open( file );
+			if ( reader == null ) return false;
+
+			final int[] cellDimensions = getSiteCellDimensions();
+			if ( cellDimensions == null ) return true; // whole sites are loaded anyway
+
+			return reader.isRegionReadable( cellDimensions[ 0 ], cellDimensions[ 1 ] );
+		}
+		catch ( IOException e )
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * @return false if the color cannot be inferred from the file name
+	 */
+	private boolean setLutColor( String title )
+	{
+		title = title.toLowerCase();
 
 		if ( title.contains( "gfp" ) )
 			argbType = new ARGBType( ARGBType.rgba( 0, 255, 0, 255 ) );
@@ -88,39 +250,44 @@ public class MultiWellImagePlusImg< T extends RealType< T > & NativeType< T > >
 		else if ( title.contains( "c02.ome.tif" ) )
 			argbType = new ARGBType( ARGBType.rgba( 255, 0, 255, 255 ) );
 		else
+			return false;
+
+		return true;
+	}
+
+	private void setLutColor( LUT[] luts )
+	{
+		if ( luts.length > 0 )
 		{
-			final LUT[] luts = imagePlus.getLuts();
-
-			if ( luts.length > 0 )
-			{
-				final LUT lut = luts[ 0 ];
-				final IndexColorModel colorModel = lut.getColorModel();
-				final int mapSize = colorModel.getMapSize();
-				final int red = colorModel.getRed( mapSize - 1 );
-				final int green = colorModel.getRed( mapSize - 1 );
-				final int blue = colorModel.getRed( mapSize - 1 );
-
-				final int rgba = ARGBType.rgba( red, green, blue, 255 );
-				argbType = new ARGBType( rgba );
-			}
-			else
-			{
-				argbType = ColorUtils.getARGBType( Color.WHITE );
-			}
+			final LUT lut = luts[ 0 ];
+			final IndexColorModel colorModel = lut.getColorModel();
+			final int mapSize = colorModel.getMapSize();
+			final int red = colorModel.getRed( mapSize - 1 );
+			final int green = colorModel.getGreen( mapSize - 1 );
+			final int blue = colorModel.getBlue( mapSize - 1 );
+
+			final int rgba = ARGBType.rgba( red, green, blue, 255 );
+			argbType = new ARGBType( rgba );
+		}
+		else
+		{
+			argbType = ColorUtils.getARGBType( Color.WHITE );
 		}
 	}
 
 	private void setLutMinMax( ImagePlus imagePlus )
 	{
-		contrastLimits = new double[ 2 ];
-		contrastLimits[ 0 ] = imagePlus.getProcessor().getMin();
-		contrastLimits[ 1 ] = imagePlus.getProcessor().getMax();
+		// a new array is published at once, such that readers never see half of the limits
+		contrastLimits = new double[]{ imagePlus.getProcessor().getMin(), imagePlus.getProcessor().getMax() };
 	}
 
-	private void setImageDataType( ImagePlus imagePlus )
+	private void setInitialLutMinMax( int bitDepth )
 	{
-		int bitDepth = imagePlus.getBitDepth();
+		contrastLimits = new double[]{ 0, bitDepth == 16 ? 65535 : bitDepth == 32 ? 1 : 255 };
+	}
 
+	private void setImageDataType( int bitDepth )
+	{
 		switch ( bitDepth )
 		{
 			case 8:
@@ -140,10 +307,10 @@ public class MultiWellImagePlusImg< T extends RealType< T > & NativeType< T > >
 		}
 	}
 
-	private void setImageDimensions( ImagePlus imagePlus )
+	private void setImageDimensions( int width, int height )
 	{
 		imageDimensions = new int[ 2 ];
-		imageDimensions[ 0 ] = imagePlus.getWidth();
-		imageDimensions[ 1 ] = imagePlus.getHeight();
+		imageDimensions[ 0 ] = width;
+		imageDimensions[ 1 ] = height;
 	}
 }
@@ -5,28 +5,46 @@ import bdv.util.BdvOverlaySource;
 import bdv.util.BdvSource;
 import bdv.viewer.Source;
 import de.embl.cba.bdv.utils.sources.Metadata;
+import de.embl.cba.plateviewer.cache.CellCaches;
+import de.embl.cba.plateviewer.cache.DiskCachedCellLoader;
+import de.embl.cba.plateviewer.cache.ThumbnailStore;
 import de.embl.cba.plateviewer.image.cellloader.MultiSiteLoader;
 import de.embl.cba.plateviewer.image.MultiWellChannelFilesProvider;
 import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.image.source.RandomAccessibleIntervalPlateViewerSource;
+import de.embl.cba.plateviewer.util.Utils;
 import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.cache.img.CachedCellImg;
-import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
-import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.IntervalIndexer;
 import net.imglib2.util.Intervals;
 
 import java.io.File;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class MultiWellImg < T extends RealType< T > & NativeType< T > > extends AbstractBdvViewable
 {
+	/**
+	 * Dimensions of the cells that tile each site; null means that each site is one cell.
+	 */
+	private static int[] siteCellDimensions = null;
+
+	/**
+	 * Whether the images span the full plate, including wells without files,
+	 * such that files that are added later (see {@link #addFiles(List)}) can be shown.
+	 */
+	private static boolean isFullPlateExtent = false;
+
 	protected long[] plateDimensions;
 	protected int[] imageDimensions;
-	protected double[] contrastLimits = new double[]{0, 255};
+	protected volatile double[] contrastLimits = new double[]{0, 255};
 	protected ARGBType argbType;
 
 	protected ArrayList< SingleSiteChannelFile > singleSiteChannelFiles;
@@ -46,6 +64,12 @@ public abstract class MultiWellImg < T extends RealType< T > & NativeType< T > >
 	protected Metadata.Type type = Metadata.Type.Image;
 	protected boolean isInitiallyVisible;
 	protected MultiWellChannelFilesProvider multiWellChannelFilesProvider;
+	protected boolean isRegionReadable = true; // whether parts of a site can be read without reading the whole site
+	protected File plateDirectory; // the folder that was opened as plate, or null if unknown
+	protected ThumbnailStore< ? > thumbnailStore;
+	protected final List< ResolutionLevel > resolutionLevels = new CopyOnWriteArrayList<>();
+	private Set< File > knownFiles;
+	private boolean isCellDimensionsMismatchLogged;
 
 	public MultiWellImg( List< File > files, String namingScheme, int resolutionLevel, String channelName )
 	{
@@ -59,7 +83,12 @@ public abstract class MultiWellImg < T extends RealType< T > & NativeType< T > >
 	{
 		if( bdvSource != null ) bdvSource.removeFromBdv();
 		if ( bdvOverlaySource != null ) bdvOverlaySource.removeFromBdv();
+		// frees the shared memory budget, also of the lower resolution levels
+		if ( cachedCellImg != null ) cachedCellImg.getCache().invalidateAll();
+		for ( ResolutionLevel level : resolutionLevels )
+			level.img.getCache().invalidateAll();
 		cachedCellImg = null;
+		resolutionLevels.clear();
 	}
 
 	public ArrayList< String > getWellNames()
@@ -78,16 +107,40 @@ public abstract class MultiWellImg < T extends RealType< T > & NativeType< T > >
 	}
 
 	public void setCachedCellImgDimensions( ArrayList< SingleSiteChannelFile > singleSiteChannelFiles )
+	{
+		plateDimensions = getPlateDimensions( singleSiteChannelFiles, multiWellChannelFilesProvider );
+	}
+
+	/**
+	 * @param provider
+	 * 			the provider of the sites, which determines the full plate extent, or null
+	 * @return the dimensions of the images of a channel with the given sites
+	 */
+	public static long[] getPlateDimensions( List< SingleSiteChannelFile > singleSiteChannelFiles, MultiWellChannelFilesProvider provider )
 	{
 		FinalInterval union = new FinalInterval( singleSiteChannelFiles.get( 0 ).getInterval() );
 
 		for ( SingleSiteChannelFile singleSiteChannelFile : singleSiteChannelFiles )
 			union = Intervals.union( singleSiteChannelFile.getInterval(), union );
 
-		plateDimensions = new long[ 2 ];
+		final long[] plateDimensions = new long[ 2 ];
 
 		for ( int d = 0; d < 2; ++d )
 			plateDimensions[ d ] = union.max( d ) + 1;
+
+		if ( isFullPlateExtent && provider != null )
+		{
+			final long[] fullPlateDimensions = provider.getPlateDimensions();
+			for ( int d = 0; d < 2; ++d )
+				plateDimensions[ d ] = Math.max( plateDimensions[ d ], fullPlateDimensions[ d ] );
+		}
+
+		return plateDimensions;
+	}
+
+	public int[] getImageDimensions()
+	{
+		return imageDimensions;
 	}
 
 	public double[] getContrastLimits()
@@ -100,6 +153,24 @@ public abstract class MultiWellImg < T extends RealType< T > & NativeType< T > >
 		return loader;
 	}
 
+	public File getPlateDirectory()
+	{
+		return plateDirectory;
+	}
+
+	/**
+	 * @return the thumbnails of the sites, or null if this image has no thumbnail level
+	 */
+	public ThumbnailStore< ? > getThumbnailStore()
+	{
+		return thumbnailStore;
+	}
+
+	public void setThumbnailStore( ThumbnailStore< ? > thumbnailStore )
+	{
+		this.thumbnailStore = thumbnailStore;
+	}
+
 	public RandomAccessibleInterval< T > getRAI( )
 	{
 		return cachedCellImg;
@@ -109,11 +180,105 @@ public abstract class MultiWellImg < T extends RealType< T > & NativeType< T > >
 	{
 		setCachedCellImgDimensions( singleSiteChannelFiles );
 
-		cachedCellImg = new ReadOnlyCachedCellImgFactory().create(
+		cachedCellImg = CellCaches.create(
+				channelName,
 				plateDimensions,
-				nativeType,
-				loader,
-				ReadOnlyCachedCellImgOptions.options().cellDimensions( imageDimensions ) );
+				getCellDimensions(),
+				( T ) nativeType,
+				DiskCachedCellLoader.wrap( loader, loader.getPlateLayoutIndex(), 1, channelName + ";level" + resolutionLevel ),
+				cell -> loader.getPlateLayoutIndex().getSite( cell ) == null );
+
+		addResolutionLevel( cachedCellImg, new double[]{ 1, 1 } );
+	}
+
+	/**
+	 * Registers a cached image of this channel, whose cells are invalidated when files are added.
+	 *
+	 * @param scale
+	 * 			the size of a pixel of the image in pixels of the full resolution image
+	 */
+	public void addResolutionLevel( CachedCellImg< ?, ? > img, double[] scale )
+	{
+		resolutionLevels.add( new ResolutionLevel( img, scale ) );
+	}
+
+	/**
+	 * Adds files that were written after this image was created, e.g. during an acquisition.
+	 *
+	 * The cells of the new sites were loaded as empty cells before, thus they are
+	 * invalidated in all resolution levels, such that they are loaded from the new files.
+	 * Files that this image already contains are skipped.
+	 *
+	 * @return the sites of the added files
+	 */
+	public synchronized List< SingleSiteChannelFile > addFiles( List< File > files )
+	{
+		if ( knownFiles == null ) knownFiles = new HashSet<>( channelFiles );
+
+		final List< File > newFiles = new ArrayList<>();
+		for ( File file : files )
+			if ( knownFiles.add( file ) )
+				newFiles.add( file );
+
+		final List< SingleSiteChannelFile > sites = multiWellChannelFilesProvider.addFiles( newFiles );
+
+		if ( sites.isEmpty() ) return sites;
+
+		for ( ResolutionLevel level : resolutionLevels )
+			for ( SingleSiteChannelFile site : sites )
+				level.invalidate( site.getInterval() );
+
+		if ( source instanceof RandomAccessibleIntervalPlateViewerSource )
+			( ( RandomAccessibleIntervalPlateViewerSource< ? > ) source ).clearVolatileSources();
+
+		return sites;
+	}
+
+	public static void setSiteCellDimensions( int[] siteCellDimensions )
+	{
+		MultiWellImg.siteCellDimensions = siteCellDimensions;
+	}
+
+	public static int[] getSiteCellDimensions()
+	{
+		return siteCellDimensions;
+	}
+
+	public static void setFullPlateExtent( boolean isFullPlateExtent )
+	{
+		MultiWellImg.isFullPlateExtent = isFullPlateExtent;
+	}
+
+	public static boolean isFullPlateExtent()
+	{
+		return isFullPlateExtent;
+	}
+
+	/**
+	 * The cells must tile each site exactly, because a cell is loaded from one site file.
+	 * If the configured cell dimensions do not divide the site dimensions the whole site is used as one cell.
+	 * Sites whose format cannot be read in parts are also loaded as one cell, as each tile would read the whole site.
+	 */
+	public int[] getCellDimensions()
+	{
+		if ( siteCellDimensions == null || ! isRegionReadable ) return imageDimensions;
+
+		for ( int d = 0; d < 2; ++d )
+		{
+			if ( siteCellDimensions[ d ] <= 0 || imageDimensions[ d ] % siteCellDimensions[ d ] != 0 )
+			{
+				if ( ! isCellDimensionsMismatchLogged )
+				{
+					Utils.log( "Cell dimensions " + Arrays.toString( siteCellDimensions )
+							+ " do not divide site dimensions " + Arrays.toString( imageDimensions )
+							+ " of channel " + channelName + "; loading whole sites." );
+					isCellDimensionsMismatchLogged = true;
+				}
+				return imageDimensions;
+			}
+		}
+
+		return siteCellDimensions;
 	}
 
 	public boolean isInitiallyVisible()
@@ -153,4 +318,37 @@ public abstract class MultiWellImg < T extends RealType< T > & NativeType< T > >
 		return null;
 	}
 
+	protected static class ResolutionLevel
+	{
+		final CachedCellImg< ?, ? > img;
+		final double[] scale;
+
+		ResolutionLevel( CachedCellImg< ?, ? > img, double[] scale )
+		{
+			this.img = img;
+			this.scale = scale;
+		}
+
+		/**
+		 * Invalidates the cached cells that intersect the given interval of the full resolution image.
+		 */
+		void invalidate( Interval interval )
+		{
+			final CellGrid grid = img.getCellGrid();
+			final long[] gridDimensions = grid.getGridDimensions();
+			final long[] minCell = new long[ 2 ];
+			final long[] maxCell = new long[ 2 ];
+
+			for ( int d = 0; d < 2; ++d )
+			{
+				minCell[ d ] = ( long ) Math.floor( interval.min( d ) / scale[ d ] ) / grid.cellDimension( d );
+				maxCell[ d ] = Math.min( ( long ) Math.floor( interval.max( d ) / scale[ d ] ) / grid.cellDimension( d ), gridDimensions[ d ] - 1 );
+			}
+
+			final long[] cellPosition = new long[ 2 ];
+			for ( cellPosition[ 1 ] = minCell[ 1 ]; cellPosition[ 1 ] <= maxCell[ 1 ]; ++cellPosition[ 1 ] )
+				for ( cellPosition[ 0 ] = minCell[ 0 ]; cellPosition[ 0 ] <= maxCell[ 0 ]; ++cellPosition[ 0 ] )
+					img.getCache().invalidate( IntervalIndexer.positionToIndex( cellPosition, gridDimensions ) );
+		}
+	}
 }
@@ -1,5 +1,9 @@
 package de.embl.cba.plateviewer.image.channel;
 
+import de.embl.cba.plateviewer.image.BatchLibHdf5SiteIndex;
+import de.embl.cba.plateviewer.image.MultiWellChannelFilesProvider;
+import de.embl.cba.plateviewer.image.MultiWellChannelFilesProviderBatchLibHdf5;
+import de.embl.cba.plateviewer.image.MultiWellChannelFilesProviderFactory;
 import de.embl.cba.plateviewer.util.Utils;
 import de.embl.cba.plateviewer.image.NamingSchemes;
 import de.embl.cba.plateviewer.image.source.MultiResolutionBatchLibHdf5ChannelSourceCreator;
@@ -11,12 +15,38 @@ import java.util.List;
 public class MultiWellImgCreator
 {
 	public static MultiWellImg create( List< File > fileList, String namingScheme, String channelPattern )
+	{
+		return create( fileList, namingScheme, channelPattern, null );
+	}
+
+	/**
+	 * @param plateDirectory
+	 * 			the folder that was opened as plate, which keys the stored thumbnails, or null if they are not stored
+	 */
+	public static MultiWellImg create( List< File > fileList, String namingScheme, String channelPattern, File plateDirectory )
 	{
 		List< File > channelFiles = getChannelFiles( fileList, namingScheme, channelPattern );
-		return createFromChannelFiles( channelFiles, namingScheme, channelPattern );
+		return createFromChannelFiles( channelFiles, namingScheme, channelPattern, null, plateDirectory );
 	}
 
 	public static MultiWellImg createFromChannelFiles( List< File > channelFiles, String namingScheme, String channelPattern )
+	{
+		return createFromChannelFiles( channelFiles, namingScheme, channelPattern, null );
+	}
+
+	public static MultiWellImg createFromChannelFiles( List< File > channelFiles, String namingScheme, String channelPattern, BatchLibHdf5SiteIndex siteIndex )
+	{
+		return createFromChannelFiles( channelFiles, namingScheme, channelPattern, siteIndex, null );
+	}
+
+	/**
+	 * @param siteIndex
+	 * 			the wells and sites of a BatchLib plate, which all its channels share;
+	 * 			if null, it is created from the channel files
+	 * @param plateDirectory
+	 * 			the folder that was opened as plate, see {@link #create(List, String, String, File)}
+	 */
+	public static MultiWellImg createFromChannelFiles( List< File > channelFiles, String namingScheme, String channelPattern, BatchLibHdf5SiteIndex siteIndex, File plateDirectory )
 	{
 		MultiWellImg wellImg;
 
@@ -30,7 +60,8 @@ public class MultiWellImgCreator
 					new MultiResolutionBatchLibHdf5ChannelSourceCreator(
 							namingScheme,
 							channelName,
-							channelFiles );
+							channelFiles,
+							siteIndex != null ? siteIndex : new BatchLibHdf5SiteIndex( channelFiles ) );
 
 			sourceCreator.create();
 
@@ -44,29 +75,64 @@ public class MultiWellImgCreator
 					channelFiles,
 					channelName,
 					namingScheme,
-					0 );
+					0,
+					plateDirectory );
 		}
 		return wellImg;
 	}
 
 
-	private static List< File > getChannelFiles( List < File > fileList, String namingScheme, String channelPattern )
+	/**
+	 * Determines the wells and sites of the given channel, which only requires the file names
+	 * and the dimensions of one image, but no image of the channel to be created.
+	 *
+	 * @param siteIndex
+	 * 			the wells and sites of a BatchLib plate, see {@link #createFromChannelFiles(List, String, String, BatchLibHdf5SiteIndex)}
+	 */
+	public static MultiWellChannelFilesProvider createFilesProvider( List< File > fileList, String namingScheme, String channelPattern, BatchLibHdf5SiteIndex siteIndex )
 	{
-		Utils.log( "Fetching channel files..." );
-		List< File > channelFiles;
+		final List< File > channelFiles = getChannelFiles( fileList, namingScheme, channelPattern );
+
 		if ( namingScheme.equals( NamingSchemes.PATTERN_NIKON_TI2_HDF5 ) )
 		{
-			// each file contains all channels => we need all
-			channelFiles = fileList;
-		} else
+			return new MultiWellChannelFilesProviderBatchLibHdf5(
+					channelFiles,
+					siteIndex != null ? siteIndex : new BatchLibHdf5SiteIndex( channelFiles ),
+					MultiWellBatchLibHdf5Img.getHdf5DataSetName( channelPattern, 0 ),
+					MultiWellBatchLibHdf5Img.getImageDimensions( channelFiles.get( 0 ), channelPattern, 0 ),
+					0 );
+		}
+		else
 		{
-			// one channel per file => we need to filter the relevant files
-			channelFiles = FileUtils.filterFiles( fileList, channelPattern );
+			return MultiWellChannelFilesProviderFactory.getMultiWellChannelFilesProvider(
+					channelFiles,
+					namingScheme,
+					MultiWellImagePlusImg.getImageDimensions( channelFiles.get( 0 ) ) );
 		}
+	}
+
+	private static List< File > getChannelFiles( List < File > fileList, String namingScheme, String channelPattern )
+	{
+		Utils.log( "Fetching channel files..." );
+		final List< File > channelFiles = filterChannelFiles( fileList, namingScheme, channelPattern );
 
 		if ( channelFiles.size() == 0 )
 			throw new UnsupportedOperationException( "Could not find files for channel: " + channelPattern );
 
 		return channelFiles;
 	}
+
+	public static List< File > filterChannelFiles( List < File > fileList, String namingScheme, String channelPattern )
+	{
+		if ( namingScheme.equals( NamingSchemes.PATTERN_NIKON_TI2_HDF5 ) )
+		{
+			// each file contains all channels => we need all
+			return fileList;
+		}
+		else
+		{
+			// one channel per file => we need to filter the relevant files
+			return FileUtils.filterFiles( fileList, channelPattern );
+		}
+	}
 }
@@ -1,7 +1,7 @@
 package de.embl.cba.plateviewer.image.source;
 
-import bdv.util.volatiles.SharedQueue;
 import bdv.viewer.Source;
+import de.embl.cba.plateviewer.image.BatchLibHdf5SiteIndex;
 import de.embl.cba.plateviewer.util.Utils;
 import de.embl.cba.plateviewer.image.channel.MultiWellBatchLibHdf5Img;
 import mpicbg.spim.data.sequence.FinalVoxelDimensions;
@@ -22,16 +22,19 @@ public class MultiResolutionBatchLibHdf5ChannelSourceCreator< R extends NativeTy
 	private final String namingScheme;
 	private final String channelName;
 	private final List< File > channelFiles;
+	private final BatchLibHdf5SiteIndex siteIndex;
 	private RandomAccessibleIntervalPlateViewerSource< R > source;
 	private MultiWellBatchLibHdf5Img< R > multiWellHdf5CachedCellImage;
 
 	public MultiResolutionBatchLibHdf5ChannelSourceCreator( String namingScheme,
 															String channelName,
-															List< File > channelFiles)
+															List< File > channelFiles,
+															BatchLibHdf5SiteIndex siteIndex )
 	{
 		this.namingScheme = namingScheme;
 		this.channelName = channelName;
 		this.channelFiles = channelFiles;
+		this.siteIndex = siteIndex;
 	}
 
 	public void create()
@@ -48,6 +51,7 @@ public class MultiResolutionBatchLibHdf5ChannelSourceCreator< R extends NativeTy
 			final MultiWellBatchLibHdf5Img< R > cachedCellImage
 					= new MultiWellBatchLibHdf5Img<>(
 						channelFiles,
+						siteIndex,
 						namingScheme,
 						channelName,
 						resolutionLevel );
@@ -63,6 +67,10 @@ public class MultiResolutionBatchLibHdf5ChannelSourceCreator< R extends NativeTy
 			{
 				this.multiWellHdf5CachedCellImage = cachedCellImage;
 			}
+			else
+			{
+				this.multiWellHdf5CachedCellImage.addLowerResolutionLevel( cachedCellImage );
+			}
 		}
 
 		final VoxelDimensions voxelDimensions =
@@ -92,7 +100,7 @@ public class MultiResolutionBatchLibHdf5ChannelSourceCreator< R extends NativeTy
 
 	public Source< ? extends Volatile< R > > getVolatileSource()
 	{
-		return source.asVolatile( new SharedQueue( 1 ) );
+		return source.asVolatile( PlateViewerLoadingQueue.getInstance() );
 	}
 
 	public MultiWellBatchLibHdf5Img< R > getMultiWellHdf5CachedCellImage()
@@ -0,0 +1,173 @@
+package de.embl.cba.plateviewer.image.source;
+
+import bdv.viewer.Source;
+import de.embl.cba.plateviewer.cache.CellCaches;
+import de.embl.cba.plateviewer.cache.DiskCachedCellLoader;
+import de.embl.cba.plateviewer.cache.ThumbnailStore;
+import de.embl.cba.plateviewer.image.PlateLayoutIndex;
+import de.embl.cba.plateviewer.image.cellloader.DownsampledMultiSiteLoader;
+import de.embl.cba.plateviewer.image.cellloader.ThumbnailMultiSiteLoader;
+import de.embl.cba.plateviewer.image.channel.MultiWellImg;
+import de.embl.cba.plateviewer.util.Utils;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+
+/**
+ * Creates a multi-resolution source for plates of which only the full resolution
+ * images exist (e.g. TIFF or JPEG files).
+ *
+ * The lower resolution levels are computed lazily, one cell per site,
+ * each from the cached cells of the next higher resolution level.
+ * Only downsampling factors that divide the site dimensions are used.
+ * The coarsest level consists of the thumbnails of the sites (see {@link ThumbnailStore}),
+ * which are computed when the viewer first requests them and are then persisted.
+ */
+public class MultiResolutionImagePlusChannelSourceCreator< R extends NativeType< R > & RealType< R > >
+{
+	public static final int NUM_DIMENSIONS = 3;
+	public static final int MIN_SITE_SIZE = 64;
+
+	private final MultiWellImg< R > multiWellImg;
+	private RandomAccessibleIntervalPlateViewerSource< R > source;
+
+	public MultiResolutionImagePlusChannelSourceCreator( MultiWellImg< R > multiWellImg )
+	{
+		this.multiWellImg = multiWellImg;
+	}
+
+	public void create()
+	{
+		final ArrayList< RandomAccessibleInterval< R > > levels = new ArrayList<>();
+		final ArrayList< double[] > scales = new ArrayList<>();
+		levels.add( multiWellImg.getRAI() );
+		scales.add( new double[]{ 1, 1 } );
+
+		final R type = Util.getTypeFromInterval( multiWellImg.getRAI() );
+		final int[] siteDimensions = multiWellImg.getImageDimensions().clone();
+		final long[] plateDimensions = new long[]{ multiWellImg.getRAI().dimension( 0 ), multiWellImg.getRAI().dimension( 1 ) };
+
+		long scale = 1;
+		while ( isDownsamplable( siteDimensions ) )
+		{
+			scale *= 2;
+
+			for ( int d = 0; d < 2; d++ )
+			{
+				siteDimensions[ d ] /= 2;
+				plateDimensions[ d ] /= 2;
+			}
+
+			final double[] levelScale = new double[]{ scale, scale };
+			final DownsampledMultiSiteLoader< R > loader = new DownsampledMultiSiteLoader<>(
+					levels.get( levels.size() - 1 ),
+					multiWellImg.getLoader().getPlateLayoutIndex(),
+					scale );
+
+			final CachedCellImg< R, ? > level = CellCaches.create(
+					multiWellImg.getName() + " - level " + levels.size(),
+					plateDimensions,
+					siteDimensions,
+					type,
+					DiskCachedCellLoader.wrap( loader, multiWellImg.getLoader().getPlateLayoutIndex(), scale, multiWellImg.getName() + ";downsampled" + scale ),
+					cell -> ! multiWellImg.getLoader().getPlateLayoutIndex().hasSite( cell, levelScale ) );
+			levels.add( level );
+			scales.add( levelScale );
+			multiWellImg.addResolutionLevel( level, levelScale );
+		}
+
+		if ( getMaxSiteSize( siteDimensions ) > ThumbnailStore.THUMBNAIL_SIZE )
+			addThumbnailLevel( levels, scales, type, scale );
+
+		Utils.log( "Number of resolution levels: " + levels.size() );
+
+		final RandomAccessibleInterval< R >[] rais = new RandomAccessibleInterval[ levels.size() ];
+		final double[][] mipmapScales = new double[ levels.size() ][ NUM_DIMENSIONS ];
+
+		for ( int level = 0; level < levels.size(); level++ )
+		{
+			rais[ level ] = Views.addDimension( levels.get( level ), 0, 0 );
+			mipmapScales[ level ][ 0 ] = scales.get( level )[ 0 ];
+			mipmapScales[ level ][ 1 ] = scales.get( level )[ 1 ];
+			mipmapScales[ level ][ 2 ] = 1;
+		}
+
+		final VoxelDimensions voxelDimensions =
+				new FinalVoxelDimensions("pixel", 1, 1, 1 );
+
+		source = new RandomAccessibleIntervalPlateViewerSource<>(
+				rais,
+				type,
+				mipmapScales,
+				voxelDimensions,
+				multiWellImg.getName() );
+	}
+
+	/**
+	 * Adds the thumbnails of the sites as the coarsest level, whose scale factors need not be integers.
+	 * The thumbnails are computed from the coarsest downsampled level.
+	 */
+	private void addThumbnailLevel( ArrayList< RandomAccessibleInterval< R > > levels, ArrayList< double[] > scales, R type, long scale )
+	{
+		final PlateLayoutIndex plateLayoutIndex = multiWellImg.getLoader().getPlateLayoutIndex();
+
+		final ThumbnailStore< R > thumbnailStore = new ThumbnailStore<>(
+				levels.get( levels.size() - 1 ),
+				scale,
+				plateLayoutIndex,
+				ThumbnailStore.getDirectory( multiWellImg.getPlateDirectory(), multiWellImg.getName() ) );
+		multiWellImg.setThumbnailStore( thumbnailStore );
+
+		final long[] siteDimensions = plateLayoutIndex.getSiteDimensions();
+		final int[] thumbnailDimensions = thumbnailStore.getThumbnailDimensions();
+		final long[] plateDimensions = new long[ 2 ];
+		final double[] thumbnailScale = new double[ 2 ];
+		for ( int d = 0; d < 2; d++ )
+		{
+			final long numSites = ( multiWellImg.getRAI().dimension( d ) + siteDimensions[ d ] - 1 ) / siteDimensions[ d ];
+			plateDimensions[ d ] = numSites * thumbnailDimensions[ d ];
+			thumbnailScale[ d ] = 1.0 * siteDimensions[ d ] / thumbnailDimensions[ d ];
+		}
+
+		final CachedCellImg< R, ? > level = CellCaches.create(
+				multiWellImg.getName() + " - thumbnails",
+				plateDimensions,
+				thumbnailDimensions,
+				type,
+				new ThumbnailMultiSiteLoader<>( thumbnailStore, plateLayoutIndex ),
+				cell -> ! plateLayoutIndex.hasSite( cell, thumbnailScale ) );
+		levels.add( level );
+		scales.add( thumbnailScale );
+		multiWellImg.addResolutionLevel( level, thumbnailScale );
+	}
+
+	/**
+	 * Downsampling stops before the sites would get as small as the thumbnails,
+	 * such that the thumbnails always form the coarsest level.
+	 */
+	private static boolean isDownsamplable( int[] siteDimensions )
+	{
+		for ( int d = 0; d < 2; d++ )
+			if ( siteDimensions[ d ] % 2 != 0 || siteDimensions[ d ] / 2 < MIN_SITE_SIZE )
+				return false;
+
+		return getMaxSiteSize( siteDimensions ) / 2 > ThumbnailStore.THUMBNAIL_SIZE;
+	}
+
+	private static int getMaxSiteSize( int[] siteDimensions )
+	{
+		return Math.max( siteDimensions[ 0 ], siteDimensions[ 1 ] );
+	}
+
+	public Source< R > getSource()
+	{
+		return source;
+	}
+}
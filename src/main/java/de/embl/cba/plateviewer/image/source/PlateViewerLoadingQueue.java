@@ -0,0 +1,137 @@
+package de.embl.cba.plateviewer.image.source;
+
+import bdv.util.volatiles.SharedQueue;
+import de.embl.cba.plateviewer.util.Utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One queue of fetcher threads that loads the cells of all channels,
+ * such that the number of threads doing I/O is bounded by the
+ * configured number of I/O threads.
+ *
+ * The priority of a request is the resolution level of its cell
+ * (see {@link VolatileRandomAccessibleIntervalPlateViewerSource});
+ * the lowest priority is reserved for prefetching cells that are not visible yet.
+ *
+ * Each request is stamped with the generation in which it was enqueued.
+ * A new generation starts with every frame that BigDataViewer renders
+ * ({@link #clearToPrefetch()}), which re-enqueues the cells that are still visible.
+ * Requests of older generations are thus dropped before their I/O starts,
+ * except for prefetch requests.
+ */
+public class PlateViewerLoadingQueue extends SharedQueue
+{
+	public static final int DEFAULT_NUM_IO_THREADS = 4;
+	public static final int MAX_NUM_RESOLUTION_LEVELS = 16;
+	public static final int PREFETCH_PRIORITY = MAX_NUM_RESOLUTION_LEVELS;
+
+	private static PlateViewerLoadingQueue loadingQueue;
+
+	private final int numIoThreads;
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong numSkippedRequests = new AtomicLong();
+	private final AtomicLong numExecutedRequests = new AtomicLong();
+
+	private PlateViewerLoadingQueue( int numIoThreads )
+	{
+		super( numIoThreads, MAX_NUM_RESOLUTION_LEVELS + 1 );
+		this.numIoThreads = numIoThreads;
+	}
+
+	/**
+	 * The queue is created with the given number of I/O threads on first use;
+	 * later calls return the same queue.
+	 */
+	public static synchronized PlateViewerLoadingQueue getInstance( int numIoThreads )
+	{
+		if ( loadingQueue == null )
+			loadingQueue = new PlateViewerLoadingQueue( numIoThreads );
+		else if ( loadingQueue.numIoThreads != numIoThreads )
+			Utils.log( "Loading queue already exists, using its " + loadingQueue.numIoThreads + " I/O threads." );
+
+		return loadingQueue;
+	}
+
+	public static synchronized PlateViewerLoadingQueue getInstance()
+	{
+		if ( loadingQueue == null )
+			loadingQueue = new PlateViewerLoadingQueue( DEFAULT_NUM_IO_THREADS );
+
+		return loadingQueue;
+	}
+
+	public int getNumIoThreads()
+	{
+		return numIoThreads;
+	}
+
+	public long getNumSkippedRequests()
+	{
+		return numSkippedRequests.get();
+	}
+
+	public long getNumExecutedRequests()
+	{
+		return numExecutedRequests.get();
+	}
+
+	@Override
+	public void put( final Callable< ? > element, final int priority, final boolean enqueueToFront )
+	{
+		// there is one queue per priority
+		final int queuePriority = Math.min( priority, PREFETCH_PRIORITY );
+
+		super.put( new StampedRequest( element, generation.get(), queuePriority == PREFETCH_PRIORITY ), queuePriority, enqueueToFront );
+	}
+
+	@Override
+	public void clearToPrefetch()
+	{
+		generation.incrementAndGet();
+		super.clearToPrefetch();
+	}
+
+	@Override
+	public Callable< ? > take() throws InterruptedException
+	{
+		while ( true )
+		{
+			final Callable< ? > element = super.take();
+
+			if ( ! ( element instanceof StampedRequest ) )
+				return element;
+
+			final StampedRequest request = ( StampedRequest ) element;
+
+			if ( request.isPrefetch || request.generation == generation.get() )
+			{
+				numExecutedRequests.incrementAndGet();
+				return request.request;
+			}
+
+			numSkippedRequests.incrementAndGet();
+		}
+	}
+
+	private static class StampedRequest implements Callable< Object >
+	{
+		private final Callable< ? > request;
+		private final long generation;
+		private final boolean isPrefetch;
+
+		StampedRequest( Callable< ? > request, long generation, boolean isPrefetch )
+		{
+			this.request = request;
+			this.generation = generation;
+			this.isPrefetch = isPrefetch;
+		}
+
+		@Override
+		public Object call() throws Exception
+		{
+			return request.call();
+		}
+	}
+}
@@ -29,6 +29,8 @@
 
 package de.embl.cba.plateviewer.image.source;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Supplier;
 
 import bdv.util.AbstractSource;
@@ -49,6 +51,8 @@ public class RandomAccessibleIntervalPlateViewerSource< T extends NumericType< T
 
 	protected final VoxelDimensions voxelDimensions;
 
+	private final List< VolatileRandomAccessibleIntervalPlateViewerSource< T, ? > > volatileSources = new CopyOnWriteArrayList<>();
+
 	public RandomAccessibleIntervalPlateViewerSource(
 			final RandomAccessibleInterval< T >[] rais,
 			final T type,
@@ -121,12 +125,12 @@ public class RandomAccessibleIntervalPlateViewerSource< T extends NumericType< T
 
 	public < V extends Volatile< T > & NumericType< V > > VolatileRandomAccessibleIntervalPlateViewerSource asVolatile( final V vType, final SharedQueue queue )
 	{
-		return new VolatileRandomAccessibleIntervalPlateViewerSource( this, vType, queue );
+		return register( new VolatileRandomAccessibleIntervalPlateViewerSource<>( this, vType, queue ) );
 	}
 
 	public < V extends Volatile< T > & NumericType< V > > VolatileRandomAccessibleIntervalPlateViewerSource< T, V > asVolatile( final Supplier< V > vTypeSupplier, final SharedQueue queue )
 	{
-		return new VolatileRandomAccessibleIntervalPlateViewerSource<>( this, vTypeSupplier, queue );
+		return register( new VolatileRandomAccessibleIntervalPlateViewerSource<>( this, vTypeSupplier, queue ) );
 	}
 
 	@SuppressWarnings( { "unchecked", "rawtypes" } )
@@ -134,8 +138,24 @@ public class RandomAccessibleIntervalPlateViewerSource< T extends NumericType< T
 	{
 		final T t = getType();
 		if ( t instanceof NativeType )
-			return new VolatileRandomAccessibleIntervalPlateViewerSource<>( this, ( V )VolatileTypeMatcher.getVolatileTypeForType( ( NativeType )getType() ), queue );
+			return register( new VolatileRandomAccessibleIntervalPlateViewerSource<>( this, ( V )VolatileTypeMatcher.getVolatileTypeForType( ( NativeType )getType() ), queue ) );
 		else
 			throw new UnsupportedOperationException( "This method only works for sources of NativeType." );
 	}
+
+	/**
+	 * Must be called after cells of the mipmap sources were invalidated,
+	 * such that the volatile sources created from this source show the reloaded cells.
+	 */
+	public void clearVolatileSources()
+	{
+		for ( VolatileRandomAccessibleIntervalPlateViewerSource< T, ? > volatileSource : volatileSources )
+			volatileSource.clearVolatileSources();
+	}
+
+	private < V extends Volatile< T > & NumericType< V > > VolatileRandomAccessibleIntervalPlateViewerSource< T, V > register( VolatileRandomAccessibleIntervalPlateViewerSource< T, V > volatileSource )
+	{
+		volatileSources.add( volatileSource );
+		return volatileSource;
+	}
 }
@@ -12,6 +12,7 @@ import net.imglib2.img.cell.LazyCellImg;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.NumericType;
 
+import java.util.Arrays;
 import java.util.function.Supplier;
 
 public class VolatileRandomAccessibleIntervalPlateViewerSource< T extends NumericType< T >, V extends Volatile< T > & NumericType< V > > extends AbstractSource< V >
@@ -20,6 +21,8 @@ public class VolatileRandomAccessibleIntervalPlateViewerSource< T extends Numeri
 
 	private SharedQueue queue;
 
+	private final RandomAccessibleInterval< V >[] volatileSources;
+
 	public VolatileRandomAccessibleIntervalPlateViewerSource(
 			final RandomAccessibleIntervalPlateViewerSource< T > source,
 			final V type,
@@ -28,6 +31,7 @@ public class VolatileRandomAccessibleIntervalPlateViewerSource< T extends Numeri
 		super( type, source.getName() );
 		this.source = source;
 		this.queue = queue;
+		this.volatileSources = new RandomAccessibleInterval[ source.getNumMipmapLevels() ];
 	}
 
 	public VolatileRandomAccessibleIntervalPlateViewerSource(
@@ -39,9 +43,22 @@ public class VolatileRandomAccessibleIntervalPlateViewerSource< T extends Numeri
 	}
 
 	@Override
-	public RandomAccessibleInterval< V > getSource( final int t, final int level )
+	public synchronized RandomAccessibleInterval< V > getSource( final int t, final int level )
+	{
+		// the plate has only one time point
+		if ( volatileSources[ level ] == null )
+			volatileSources[ level ] = VolatileViews.wrapAsVolatile( source.getSource( t, level ), queue, new CacheHints( LoadingStrategy.VOLATILE, level, true ) );
+
+		return volatileSources[ level ];
+	}
+
+	/**
+	 * Drops the volatile views, such that cells that were invalidated in the
+	 * underlying caches (e.g. because sites were added) are not served from the volatile caches.
+	 */
+	public synchronized void clearVolatileSources()
 	{
-		return VolatileViews.wrapAsVolatile( source.getSource( t, level ), queue, new CacheHints( LoadingStrategy.VOLATILE, level, true ) );
+		Arrays.fill( volatileSources, null );
 	}
 
 	@Override
@@ -1,13 +1,28 @@
 package de.embl.cba.plateviewer.io;
 
+import de.embl.cba.plateviewer.util.Utils;
+
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 public class FileUtils
 {
+	public static final int NUM_SCAN_THREADS = 8;
+	public static final long PROGRESS_INTERVAL_MILLIS = 2000;
+
 	public static List< File > getFileList( File directory, String fileNameRegExp, boolean includeSubFolders )
 	{
 		final List< File > files = new ArrayList<>();
@@ -15,53 +30,181 @@ public class FileUtils
 		return files;
 	}
 
-	public static void populateFileList( File directory, String fileNameRegExp, List< File > files, boolean includeSubFolders ) {
-
-		// Get all the files from a directory.
-		File[] fList = directory.listFiles();
+	/**
+	 * Adds the files whose names match the pattern, sorted by path.
+	 *
+	 * Hidden files and folders are skipped, see {@link #scan(Path, FolderVisitor)}.
+	 */
+	public static void populateFileList( File directory, String fileNameRegExp, List< File > files, boolean includeSubFolders )
+	{
+		final Pattern pattern = Pattern.compile( fileNameRegExp );
+		final ConcurrentLinkedQueue< File > scannedFiles = new ConcurrentLinkedQueue<>();
 
-		if( fList != null )
+		scan( directory.toPath(), ( folder, subFolders ) ->
 		{
-			for ( File file : fList )
-			{
-				final Matcher matcher = Pattern.compile( fileNameRegExp ).matcher( file.getName() );
+			final DirectoryListing listing = listDirectory( folder, pattern, includeSubFolders );
 
-				if ( file.getName().equals( ".DS_Store" ) )
-					continue;
+			for ( Path file : listing.files )
+				scannedFiles.add( file.toFile() );
 
-				if ( matcher.matches() )
-				{
-					files.add( file );
-				}
-				else
-				{
-					if ( includeSubFolders )
-					{
-						if ( file.isDirectory() )
-						{
-							populateFileList( file, fileNameRegExp, files, includeSubFolders );
-						}
-					}
-				}
-			}
+			subFolders.addAll( listing.subFolders );
+			return listing.files.size();
+		} );
+
+		final List< File > sortedFiles = new ArrayList<>( scannedFiles );
+		Collections.sort( sortedFiles );
+		files.addAll( sortedFiles );
+	}
+
+	/**
+	 * Visits the given folder and, recursively, the sub-folders that the visitor returns.
+	 *
+	 * Sub-folders are visited in parallel, which matters for network storage,
+	 * and the progress is logged for folders that take long to scan.
+	 * Symbolic links to folders are followed, but each folder is visited only once,
+	 * such that links cannot cause cycles.
+	 */
+	public static void scan( Path directory, FolderVisitor visitor )
+	{
+		final DirectoryScan scan = new DirectoryScan( visitor );
+
+		final ForkJoinPool pool = new ForkJoinPool( NUM_SCAN_THREADS );
+		try
+		{
+			pool.invoke( scan.new ScanDirectory( directory ) );
+		}
+		finally
+		{
+			pool.shutdown();
 		}
+
+		if ( scan.isProgressReported )
+			Utils.log( "Scanned " + scan.numDirectories.get() + " folders, found " + scan.numFiles.get() + " files." );
 	}
 
 	public static List< File > filterFiles( List< File > files, String filterPattern )
 	{
+		final Pattern pattern = Pattern.compile( filterPattern );
+
 		final List< File > filteredFiles = new ArrayList<>( );
 
 		for ( File file : files )
 		{
-			final Matcher matcher = Pattern.compile( filterPattern ).matcher( file.getName() );
-
-			if ( matcher.matches() )
+			if ( pattern.matcher( file.getName() ).matches() )
 			{
 				filteredFiles.add( file );
 			}
-
 		}
 
 		return filteredFiles;
 	}
+
+	/**
+	 * Lists the files of one folder whose names match the pattern and, optionally,
+	 * its sub-folders (including links to folders) whose names do not match. Hidden entries are skipped.
+	 */
+	public static DirectoryListing listDirectory( Path directory, Pattern pattern, boolean includeSubFolders ) throws IOException
+	{
+		final DirectoryListing listing = new DirectoryListing();
+
+		try ( DirectoryStream< Path > stream = Files.newDirectoryStream( directory ) )
+		{
+			for ( Path path : stream )
+			{
+				final String name = path.getFileName().toString();
+
+				if ( name.startsWith( "." ) ) continue;
+
+				if ( pattern.matcher( name ).matches() )
+					listing.files.add( path );
+				else if ( includeSubFolders && Files.isDirectory( path ) )
+					listing.subFolders.add( path );
+			}
+		}
+
+		return listing;
+	}
+
+	public static class DirectoryListing
+	{
+		public final List< Path > files = new ArrayList<>();
+		public final List< Path > subFolders = new ArrayList<>();
+	}
+
+	/**
+	 * Visits one folder of a {@link #scan(Path, FolderVisitor)}.
+	 */
+	public interface FolderVisitor
+	{
+		/**
+		 * @param subFolders
+		 * 			to be filled with the sub-folders that are visited next
+		 * @return the number of files found in the folder
+		 */
+		int visit( Path folder, List< Path > subFolders ) throws IOException;
+	}
+
+	private static class DirectoryScan
+	{
+		final FolderVisitor visitor;
+		final Set< Path > visitedFolders = ConcurrentHashMap.newKeySet();
+		final AtomicLong numFiles = new AtomicLong();
+		final AtomicLong numDirectories = new AtomicLong();
+		final AtomicLong lastProgressMillis = new AtomicLong( System.currentTimeMillis() );
+		volatile boolean isProgressReported;
+
+		DirectoryScan( FolderVisitor visitor )
+		{
+			this.visitor = visitor;
+		}
+
+		private void reportProgress()
+		{
+			final long now = System.currentTimeMillis();
+			final long last = lastProgressMillis.get();
+
+			if ( now - last > PROGRESS_INTERVAL_MILLIS && lastProgressMillis.compareAndSet( last, now ) )
+			{
+				isProgressReported = true;
+				Utils.log( "Scanned " + numDirectories.get() + " folders, found " + numFiles.get() + " files..." );
+			}
+		}
+
+		class ScanDirectory extends RecursiveAction
+		{
+			private final Path directory;
+
+			ScanDirectory( Path directory )
+			{
+				this.directory = directory;
+			}
+
+			@Override
+			protected void compute()
+			{
+				final List< Path > subFolderPaths = new ArrayList<>();
+
+				try
+				{
+					// links may point to folders that are visited anyway
+					if ( ! visitedFolders.add( directory.toRealPath() ) ) return;
+
+					numFiles.addAndGet( visitor.visit( directory, subFolderPaths ) );
+				}
+				catch ( IOException e )
+				{
+					Utils.log( "Could not read folder " + directory + ": " + e.getMessage() );
+				}
+
+				numDirectories.incrementAndGet();
+				reportProgress();
+
+				final List< ScanDirectory > subFolders = new ArrayList<>();
+				for ( Path subFolder : subFolderPaths )
+					subFolders.add( new ScanDirectory( subFolder ) );
+
+				invokeAll( subFolders );
+			}
+		}
+	}
 }
@@ -0,0 +1,216 @@
+package de.embl.cba.plateviewer.io;
+
+import ch.systemsx.cisd.hdf5.HDF5DataSetInformation;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Pool of open HDF5 readers, such that files are not re-opened
+ * (and their metadata re-parsed) for every cell that is loaded.
+ *
+ * At most {@link #getMaxNumReaders()} files are kept open; the least recently
+ * used reader is closed once this number is exceeded.
+ *
+ * The HDF5 library is not thread safe, thus access to one reader
+ * is serialised, while different files can be read in parallel.
+ *
+ * Readers are shared by all channels of a plate (e.g. all BatchLib channels are in the same files),
+ * thus they are not closed when a channel is removed, but only when they are evicted
+ * or the plate is closed (see {@link #close(Collection)}).
+ */
+public class Hdf5ReaderPool
+{
+	public static final int DEFAULT_MAX_NUM_READERS = 64;
+
+	private static int maxNumReaders = DEFAULT_MAX_NUM_READERS;
+
+	private static final LinkedHashMap< File, PooledReader > fileToReader = new LinkedHashMap<>( 16, 0.75f, true );
+	private static final Map< File, Map< String, HDF5DataSetInformation > > fileToDataSetInformation = new ConcurrentHashMap<>();
+
+	public static < R > R read( File file, Function< IHDF5Reader, R > function )
+	{
+		final PooledReader pooledReader = acquire( file );
+
+		try
+		{
+			synchronized ( pooledReader )
+			{
+				return function.apply( pooledReader.reader );
+			}
+		}
+		finally
+		{
+			release( pooledReader );
+		}
+	}
+
+	public static void access( File file, Consumer< IHDF5Reader > consumer )
+	{
+		read( file, reader -> {
+			consumer.accept( reader );
+			return null;
+		} );
+	}
+
+	/**
+	 * The information (data type, signedness, dimensions) is read only once per file and data set.
+	 */
+	public static HDF5DataSetInformation getDataSetInformation( File file, String dataSetName )
+	{
+		final Map< String, HDF5DataSetInformation > dataSetInformation =
+				fileToDataSetInformation.computeIfAbsent( file, f -> new ConcurrentHashMap<>() );
+
+		HDF5DataSetInformation information = dataSetInformation.get( dataSetName );
+
+		if ( information == null )
+		{
+			information = read( file, reader -> reader.getDataSetInformation( dataSetName ) );
+			dataSetInformation.put( dataSetName, information );
+		}
+
+		return information;
+	}
+
+	public static synchronized int getMaxNumReaders()
+	{
+		return maxNumReaders;
+	}
+
+	public static synchronized void setMaxNumReaders( int maxNumReaders )
+	{
+		if ( maxNumReaders < 1 )
+			throw new UnsupportedOperationException( "The number of HDF5 readers must be at least 1, but is " + maxNumReaders );
+
+		Hdf5ReaderPool.maxNumReaders = maxNumReaders;
+		evict();
+	}
+
+	public static synchronized void close( Collection< File > files )
+	{
+		for ( File file : files )
+		{
+			final PooledReader pooledReader = fileToReader.remove( file );
+			if ( pooledReader != null ) retire( pooledReader );
+			fileToDataSetInformation.remove( file );
+		}
+	}
+
+	public static synchronized void closeAll()
+	{
+		close( new ArrayList<>( fileToReader.keySet() ) );
+	}
+
+	/**
+	 * Opening a file can take long, e.g. on network storage; it is therefore done outside of the lock,
+	 * such that reads of other files are not blocked. Threads that want to read a file that is
+	 * being opened wait for the thread that opens it.
+	 */
+	private static PooledReader acquire( File file )
+	{
+		final PooledReader pooledReader;
+		final boolean isOpener;
+
+		synchronized ( Hdf5ReaderPool.class )
+		{
+			PooledReader existing = fileToReader.get( file );
+
+			isOpener = existing == null;
+
+			if ( isOpener )
+			{
+				existing = new PooledReader();
+				fileToReader.put( file, existing );
+				evict();
+			}
+
+			existing.numUsers++;
+			pooledReader = existing;
+		}
+
+		if ( isOpener )
+		{
+			try
+			{
+				pooledReader.opened.complete( HDF5Factory.openForReading( file ) );
+			}
+			catch ( RuntimeException e )
+			{
+				pooledReader.opened.completeExceptionally( e );
+				synchronized ( Hdf5ReaderPool.class )
+				{
+					fileToReader.remove( file, pooledReader );
+				}
+			}
+		}
+
+		try
+		{
+			pooledReader.reader = pooledReader.opened.join();
+		}
+		catch ( CompletionException e )
+		{
+			release( pooledReader );
+			throw new UnsupportedOperationException( "Could not open HDF5 file " + file, e.getCause() );
+		}
+
+		return pooledReader;
+	}
+
+	private static synchronized void release( PooledReader pooledReader )
+	{
+		pooledReader.numUsers--;
+
+		if ( pooledReader.isRetired && pooledReader.numUsers == 0 )
+			closeReader( pooledReader );
+	}
+
+	private static void evict()
+	{
+		final Iterator< Map.Entry< File, PooledReader > > iterator = fileToReader.entrySet().iterator();
+
+		while ( fileToReader.size() > maxNumReaders && iterator.hasNext() )
+		{
+			final Map.Entry< File, PooledReader > entry = iterator.next();
+			iterator.remove();
+			retire( entry.getValue() );
+			fileToDataSetInformation.remove( entry.getKey() );
+		}
+	}
+
+	/**
+	 * Readers that are still in use are closed once they are released.
+	 */
+	private static void retire( PooledReader pooledReader )
+	{
+		pooledReader.isRetired = true;
+
+		if ( pooledReader.numUsers == 0 )
+			closeReader( pooledReader );
+	}
+
+	private static void closeReader( PooledReader pooledReader )
+	{
+		// a reader that could not be opened has nothing to close
+		pooledReader.opened.thenAccept( IHDF5Reader::close );
+	}
+
+	private static class PooledReader
+	{
+		private final CompletableFuture< IHDF5Reader > opened = new CompletableFuture<>();
+		private volatile IHDF5Reader reader;
+		private int numUsers;
+		private boolean isRetired;
+	}
+}
@@ -0,0 +1,105 @@
+package de.embl.cba.plateviewer.io;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Reads the dimensions and the bit depth (as ImageJ would report it) of an image
+ * from the TIFF or JPEG header only, without decoding any pixels.
+ */
+public class ImageMetadataProbe
+{
+	public final int width;
+	public final int height;
+	public final int bitDepth;
+
+	/**
+	 * Red, green and blue value of the brightest LUT entry, or null for gray scale images.
+	 */
+	public final int[] lutMaximum;
+
+	private ImageMetadataProbe( int width, int height, int bitDepth, int[] lutMaximum )
+	{
+		this.width = width;
+		this.height = height;
+		this.bitDepth = bitDepth;
+		this.lutMaximum = lutMaximum;
+	}
+
+	/**
+	 * @return the metadata, or null if it cannot be determined from the header,
+	 * in which case the image needs to be opened with ImageJ
+	 */
+	public static ImageMetadataProbe probe( File file )
+	{
+		try
+		{
+			final String name = file.getName().toLowerCase();
+
+			if ( name.endsWith( ".tif" ) || name.endsWith( ".tiff" ) )
+				return probeTiff( file );
+			else if ( name.endsWith( ".jpg" ) || name.endsWith( ".jpeg" ) )
+				return probeJpeg( file );
+			else
+				return null;
+		}
+		catch ( IOException e )
+		{
+			return null;
+		}
+	}
+
+	private static ImageMetadataProbe probeTiff( File file ) throws IOException
+	{
+		final TiffRegionReader header = TiffRegionReader.readHeader( file );
+
+		if ( header == null ) return null;
+
+		final int bitDepth;
+		if ( header.getSamplesPerPixel() == 1 && ( header.getBitDepth() == 8 || header.getBitDepth() == 16 || header.getBitDepth() == 32 ) )
+			bitDepth = header.getBitDepth();
+		else if ( header.getSamplesPerPixel() == 3 && header.getBitDepth() == 8 )
+			bitDepth = 24;
+		else
+			return null;
+
+		final int[] lutMaximum = header.isPalette() ? header.getColorMapMaximum() : null;
+
+		return new ImageMetadataProbe( header.getWidth(), header.getHeight(), bitDepth, lutMaximum );
+	}
+
+	/**
+	 * Only gray scale JPEGs can be probed, because ImageJ converts
+	 * RGB JPEGs to 8 bit if all three channels are identical.
+	 */
+	private static ImageMetadataProbe probeJpeg( File file ) throws IOException
+	{
+		try ( ImageInputStream inputStream = ImageIO.createImageInputStream( file ) )
+		{
+			if ( inputStream == null ) return null;
+
+			final Iterator< ImageReader > readers = ImageIO.getImageReaders( inputStream );
+			if ( ! readers.hasNext() ) return null;
+
+			final ImageReader reader = readers.next();
+			try
+			{
+				reader.setInput( inputStream, true, true );
+
+				final ImageTypeSpecifier imageType = reader.getRawImageType( 0 );
+				if ( imageType == null || imageType.getNumBands() != 1 ) return null;
+
+				return new ImageMetadataProbe( reader.getWidth( 0 ), reader.getHeight( 0 ), 8, null );
+			}
+			finally
+			{
+				reader.dispose();
+			}
+		}
+	}
+}
@@ -0,0 +1,495 @@
+package de.embl.cba.plateviewer.io;
+
+import de.embl.cba.plateviewer.cache.CacheDirectories;
+import de.embl.cba.plateviewer.channel.ChannelProperties;
+import de.embl.cba.plateviewer.util.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * The files of a plate folder, persisted in the cache directory of the plate,
+ * such that large plates can be reopened without listing all folders again.
+ *
+ * For each scanned folder the index stores its modification time, the names of the
+ * matching files and the names of its sub-folders. When the index is opened, only the
+ * folders whose modification time changed (i.e. files or sub-folders were added, removed
+ * or renamed) are listed again. The naming scheme and the channels that were detected for
+ * the files are kept as well and are discarded as soon as the files change.
+ *
+ * The site and well information of the files, which can only be read by opening a file,
+ * is kept once it was read (see {@link #putSiteInformation(File, String, String)}), together with
+ * the modification time of the file, such that it is read again if the file was overwritten.
+ *
+ * The wells, sites and channels that are parsed from the file names, and the site intervals
+ * computed from them, are not kept: parsing takes milliseconds even for large plates, whereas
+ * listing the folders of a plate on network storage can take minutes. Likewise, the image
+ * dimensions and data type of a channel are probed from the header of a single file.
+ *
+ * Keeping the index is best-effort: if the cache directory cannot be created,
+ * e.g. because the home directory is read-only, the index is only kept in memory.
+ */
+public class PlateFileIndex
+{
+	public static final String INDEX_FILE_NAME = "plate.index";
+	private static final int VERSION = 3;
+
+	private final File directory;
+	private final String filePattern;
+	private final boolean includeSubFolders;
+	private final File indexFile; // null if the index cannot be persisted
+
+	private Map< String, Folder > pathToFolder;
+	private String namingScheme;
+	private Map< String, ChannelProperties > channels;
+	private Map< String, SiteInformation > fileToSiteInformation;
+	private boolean isModified;
+	private boolean isSaved;
+
+	private PlateFileIndex( File directory, String filePattern, boolean includeSubFolders )
+	{
+		this.directory = directory.getAbsoluteFile();
+		this.filePattern = filePattern;
+		this.includeSubFolders = includeSubFolders;
+		this.indexFile = getIndexFile( this.directory );
+		this.pathToFolder = new ConcurrentHashMap<>();
+		this.fileToSiteInformation = new ConcurrentHashMap<>();
+	}
+
+	private static File getIndexFile( File directory )
+	{
+		try
+		{
+			return new File( CacheDirectories.getPlateDirectory( directory.getPath() ), INDEX_FILE_NAME );
+		}
+		catch ( UnsupportedOperationException e )
+		{
+			Utils.log( "The plate index of " + directory + " is not saved: " + e.getMessage() );
+			return null;
+		}
+	}
+
+	/**
+	 * Opens the index of the given folder and updates it to the current files.
+	 */
+	public static PlateFileIndex open( File directory, String filePattern, boolean includeSubFolders )
+	{
+		final PlateFileIndex index = new PlateFileIndex( directory, filePattern, includeSubFolders );
+
+		final long start = System.currentTimeMillis();
+		final boolean isLoaded = index.load();
+		index.update();
+
+		if ( isLoaded )
+			Utils.log( "Validated plate index of " + directory + " in " + ( System.currentTimeMillis() - start ) + " ms" + ( index.isModified ? ", some folders changed." : "." ) );
+
+		return index;
+	}
+
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * @return the matching files, sorted by path
+	 */
+	public List< File > getFiles()
+	{
+		final List< File > files = new ArrayList<>();
+
+		for ( Map.Entry< String, Folder > entry : pathToFolder.entrySet() )
+			for ( String fileName : entry.getValue().fileNames )
+				files.add( new File( entry.getKey(), fileName ) );
+
+		Collections.sort( files );
+		return files;
+	}
+
+	/**
+	 * @return the scanned folders, i.e. the plate folder and (if included) its sub-folders
+	 */
+	public List< File > getFolders()
+	{
+		final List< File > folders = new ArrayList<>();
+
+		for ( String path : pathToFolder.keySet() )
+			folders.add( new File( path ) );
+
+		return folders;
+	}
+
+	/**
+	 * Updates the index to the current files, e.g. while the plate is still being acquired.
+	 *
+	 * @return false if no folder changed since the last update
+	 */
+	public synchronized boolean refresh()
+	{
+		return update();
+	}
+
+	/**
+	 * @return false if the files are the same as when the index was saved
+	 */
+	public boolean isModified()
+	{
+		return isModified;
+	}
+
+	/**
+	 * @return the naming scheme detected for the files, or null if it is not known
+	 */
+	public String getNamingScheme()
+	{
+		return namingScheme;
+	}
+
+	/**
+	 * @return the channels detected for the files, or null if they are not known
+	 */
+	public Map< String, ChannelProperties > getChannels()
+	{
+		return channels;
+	}
+
+	public void setNamingScheme( String namingScheme )
+	{
+		this.namingScheme = namingScheme;
+		this.isSaved = false;
+	}
+
+	public void setChannels( Map< String, ChannelProperties > channels )
+	{
+		this.channels = channels;
+		this.isSaved = false;
+	}
+
+	/**
+	 * @return the site and the well information of the file,
+	 * or null if it was not read yet or the file was modified since
+	 */
+	public String[] getSiteInformation( File file )
+	{
+		final String path = file.getAbsolutePath();
+		final SiteInformation information = fileToSiteInformation.get( path );
+
+		if ( information == null ) return null;
+
+		if ( information.lastModified != file.lastModified() )
+		{
+			fileToSiteInformation.remove( path );
+			isSaved = false;
+			return null;
+		}
+
+		return new String[]{ information.site, information.well };
+	}
+
+	public void putSiteInformation( File file, String siteInformation, String wellInformation )
+	{
+		fileToSiteInformation.put( file.getAbsolutePath(), new SiteInformation( file.lastModified(), siteInformation, wellInformation ) );
+		isSaved = false;
+	}
+
+	/**
+	 * Writes the index, unless it did not change since it was read or it cannot be persisted.
+	 */
+	public synchronized void save()
+	{
+		if ( isSaved || indexFile == null ) return;
+
+		final File tmpFile = new File( indexFile.getPath() + ".tmp" );
+
+		try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) ) )
+		{
+			out.writeInt( VERSION );
+			out.writeUTF( directory.getPath() );
+			out.writeUTF( filePattern );
+			out.writeBoolean( includeSubFolders );
+
+			out.writeInt( pathToFolder.size() );
+			for ( Map.Entry< String, Folder > entry : pathToFolder.entrySet() )
+			{
+				out.writeUTF( entry.getKey() );
+				entry.getValue().write( out );
+			}
+
+			out.writeBoolean( namingScheme != null );
+			if ( namingScheme != null )
+				out.writeUTF( namingScheme );
+
+			out.writeInt( channels == null ? -1 : channels.size() );
+			if ( channels != null )
+			{
+				for ( ChannelProperties properties : channels.values() )
+				{
+					out.writeUTF( properties.name );
+					out.writeUTF( properties.regExp );
+					out.writeBoolean( properties.isInitiallyVisible );
+				}
+			}
+
+			final List< Map.Entry< String, SiteInformation > > siteInformation = getExistingSiteInformation();
+			out.writeInt( siteInformation.size() );
+			for ( Map.Entry< String, SiteInformation > entry : siteInformation )
+			{
+				out.writeUTF( entry.getKey() );
+				entry.getValue().write( out );
+			}
+		}
+		catch ( IOException e )
+		{
+			Utils.log( "Could not save plate index " + indexFile + ": " + e.getMessage() );
+			tmpFile.delete();
+			return;
+		}
+
+		try
+		{
+			Files.move( tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+			isSaved = true;
+		}
+		catch ( IOException e )
+		{
+			Utils.log( "Could not save plate index " + indexFile + ": " + e.getMessage() );
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * @return the site information of the files that are (still) in the index
+	 */
+	private List< Map.Entry< String, SiteInformation > > getExistingSiteInformation()
+	{
+		final List< Map.Entry< String, SiteInformation > > siteInformation = new ArrayList<>();
+		final Map< String, Set< String > > pathToFileNames = new HashMap<>();
+
+		for ( Map.Entry< String, SiteInformation > entry : fileToSiteInformation.entrySet() )
+		{
+			final File file = new File( entry.getKey() );
+			final Set< String > fileNames = pathToFileNames.computeIfAbsent( file.getParent(), path ->
+			{
+				final Folder folder = pathToFolder.get( path );
+				return folder == null ? Collections.< String >emptySet() : new HashSet<>( folder.fileNames );
+			} );
+
+			if ( fileNames.contains( file.getName() ) )
+				siteInformation.add( entry );
+		}
+
+		return siteInformation;
+	}
+
+	/**
+	 * @return false if there is no index, or it was saved for other scan settings
+	 */
+	private boolean load()
+	{
+		if ( indexFile == null || ! indexFile.exists() ) return false;
+
+		try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( indexFile ) ) ) )
+		{
+			if ( in.readInt() != VERSION
+					|| ! in.readUTF().equals( directory.getPath() )
+					|| ! in.readUTF().equals( filePattern )
+					|| in.readBoolean() != includeSubFolders )
+				return false;
+
+			final Map< String, Folder > folders = new ConcurrentHashMap<>();
+			final int numFolders = in.readInt();
+			for ( int i = 0; i < numFolders; i++ )
+			{
+				final String path = in.readUTF();
+				folders.put( path, Folder.read( in ) );
+			}
+
+			final String namingScheme = in.readBoolean() ? in.readUTF() : null;
+
+			Map< String, ChannelProperties > channels = null;
+			final int numChannels = in.readInt();
+			if ( numChannels >= 0 )
+			{
+				channels = new LinkedHashMap<>();
+				for ( int i = 0; i < numChannels; i++ )
+				{
+					final ChannelProperties properties = new ChannelProperties( in.readUTF(), in.readUTF(), in.readBoolean() );
+					channels.put( properties.name, properties );
+				}
+			}
+
+			final Map< String, SiteInformation > fileToSiteInformation = new ConcurrentHashMap<>();
+			final int numSiteInformation = in.readInt();
+			for ( int i = 0; i < numSiteInformation; i++ )
+			{
+				final String path = in.readUTF();
+				fileToSiteInformation.put( path, SiteInformation.read( in ) );
+			}
+
+			this.pathToFolder = folders;
+			this.namingScheme = namingScheme;
+			this.channels = channels;
+			this.fileToSiteInformation = fileToSiteInformation;
+			this.isSaved = true;
+			return true;
+		}
+		catch ( IOException e )
+		{
+			Utils.log( "Could not read plate index " + indexFile + ", the folders will be scanned again." );
+			return false;
+		}
+	}
+
+	/**
+	 * @return whether any folder was listed again
+	 */
+	private boolean update()
+	{
+		final ConcurrentHashMap< String, Folder > updatedFolders = new ConcurrentHashMap<>();
+		final AtomicLong numListedFolders = new AtomicLong();
+		final Pattern pattern = Pattern.compile( filePattern );
+
+		// an indexed folder is kept if its modification time did not change and listed again otherwise;
+		// its sub-folders are visited in any case, as they may have changed independently
+		FileUtils.scan( directory.toPath(), ( path, subFolders ) ->
+		{
+			final String key = path.toString();
+			final long lastModified = path.toFile().lastModified();
+
+			Folder folder = pathToFolder.get( key );
+
+			if ( folder == null || folder.lastModified != lastModified )
+			{
+				folder = Folder.list( path, pattern, includeSubFolders, lastModified );
+				numListedFolders.incrementAndGet();
+			}
+
+			updatedFolders.put( key, folder );
+
+			for ( String subFolderName : folder.subFolderNames )
+				subFolders.add( path.resolve( subFolderName ) );
+
+			return folder.fileNames.size();
+		} );
+
+		final boolean isChanged = numListedFolders.get() > 0 || ! updatedFolders.keySet().equals( pathToFolder.keySet() );
+
+		if ( isChanged )
+		{
+			isModified = true;
+			isSaved = false;
+			namingScheme = null;
+			channels = null;
+		}
+
+		pathToFolder = updatedFolders;
+
+		return isChanged;
+	}
+
+	private static class SiteInformation
+	{
+		final long lastModified;
+		final String site;
+		final String well;
+
+		SiteInformation( long lastModified, String site, String well )
+		{
+			this.lastModified = lastModified;
+			this.site = site;
+			this.well = well;
+		}
+
+		static SiteInformation read( DataInputStream in ) throws IOException
+		{
+			final long lastModified = in.readLong();
+			final String site = in.readUTF();
+			return new SiteInformation( lastModified, site, in.readUTF() );
+		}
+
+		void write( DataOutputStream out ) throws IOException
+		{
+			out.writeLong( lastModified );
+			out.writeUTF( site );
+			out.writeUTF( well );
+		}
+	}
+
+	private static class Folder
+	{
+		final long lastModified;
+		final List< String > fileNames;
+		final List< String > subFolderNames;
+
+		Folder( long lastModified, List< String > fileNames, List< String > subFolderNames )
+		{
+			this.lastModified = lastModified;
+			this.fileNames = fileNames;
+			this.subFolderNames = subFolderNames;
+		}
+
+		static Folder list( Path path, Pattern pattern, boolean includeSubFolders, long lastModified ) throws IOException
+		{
+			final FileUtils.DirectoryListing listing = FileUtils.listDirectory( path, pattern, includeSubFolders );
+
+			final List< String > fileNames = new ArrayList<>();
+			for ( Path file : listing.files )
+				fileNames.add( file.getFileName().toString() );
+
+			final List< String > subFolderNames = new ArrayList<>();
+			for ( Path subFolder : listing.subFolders )
+				subFolderNames.add( subFolder.getFileName().toString() );
+
+			return new Folder( lastModified, fileNames, subFolderNames );
+		}
+
+		static Folder read( DataInputStream in ) throws IOException
+		{
+			final long lastModified = in.readLong();
+			return new Folder( lastModified, readNames( in ), readNames( in ) );
+		}
+
+		void write( DataOutputStream out ) throws IOException
+		{
+			out.writeLong( lastModified );
+			writeNames( out, fileNames );
+			writeNames( out, subFolderNames );
+		}
+
+		private static List< String > readNames( DataInputStream in ) throws IOException
+		{
+			final int numNames = in.readInt();
+			final List< String > names = new ArrayList<>( numNames );
+			for ( int i = 0; i < numNames; i++ )
+				names.add( in.readUTF() );
+			return names;
+		}
+
+		private static void writeNames( DataOutputStream out, List< String > names ) throws IOException
+		{
+			out.writeInt( names.size() );
+			for ( String name : names )
+				out.writeUTF( name );
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package de.embl.cba.plateviewer.io;
+
+import de.embl.cba.plateviewer.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the folders of a plate that is still being acquired and reports the files that were added.
+ *
+ * The folders are watched for changes and, as file system events are not available
+ * on all (e.g. network) file systems, also checked every {@link #POLLING_INTERVAL_MILLIS}.
+ * A check updates the {@link PlateFileIndex} of the plate, which only lists the folders that changed.
+ *
+ * Files are only reported once they were not modified for {@link #STABLE_MILLIS},
+ * such that files that are still being written by the microscope are not read.
+ */
+public class PlateFolderWatcher
+{
+	public static final long POLLING_INTERVAL_MILLIS = 10000;
+	public static final long STABLE_MILLIS = 2000;
+
+	private final PlateFileIndex index;
+	private final Consumer< List< File > > listener;
+	private final Set< File > knownFiles;
+	private final Set< File > watchedFolders;
+
+	private WatchService watchService;
+	private Thread thread;
+	private volatile boolean isRunning;
+
+	/**
+	 * @param knownFiles
+	 * 			the files that are already shown
+	 * @param listener
+	 * 			is called, on the thread of the watcher, with the files that were added
+	 */
+	public PlateFolderWatcher( PlateFileIndex index, Collection< File > knownFiles, Consumer< List< File > > listener )
+	{
+		this.index = index;
+		this.listener = listener;
+		this.knownFiles = new HashSet<>( knownFiles );
+		this.watchedFolders = new HashSet<>();
+	}
+
+	public synchronized void start()
+	{
+		if ( isRunning ) return;
+
+		try
+		{
+			watchService = FileSystems.getDefault().newWatchService();
+		}
+		catch ( IOException e )
+		{
+			Utils.log( "Could not watch the plate folders, they are checked every " + POLLING_INTERVAL_MILLIS / 1000 + " s." );
+			watchService = null;
+		}
+
+		isRunning = true;
+		thread = new Thread( this::run, "plate folder watcher" );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	public synchronized void stop()
+	{
+		isRunning = false;
+
+		if ( thread != null ) thread.interrupt();
+
+		try
+		{
+			if ( watchService != null ) watchService.close();
+		}
+		catch ( IOException e )
+		{
+			// the thread stops anyway
+		}
+	}
+
+	private void run()
+	{
+		boolean hasPendingFiles = false;
+
+		while ( isRunning )
+		{
+			try
+			{
+				registerFolders();
+				waitForChanges( hasPendingFiles ? STABLE_MILLIS : POLLING_INTERVAL_MILLIS );
+				if ( ! isRunning ) return;
+				hasPendingFiles = check( hasPendingFiles );
+			}
+			catch ( InterruptedException | ClosedWatchServiceException e )
+			{
+				return;
+			}
+			catch ( Exception e )
+			{
+				Utils.log( "Could not check the plate folders for new files: " + e.getMessage() );
+			}
+		}
+	}
+
+	/**
+	 * @return whether there are new files that are still being written
+	 */
+	private boolean check( boolean hadPendingFiles )
+	{
+		// files that are being written do not change the modification time of their folder
+		if ( ! index.refresh() && ! hadPendingFiles ) return false;
+
+		final List< File > addedFiles = new ArrayList<>();
+		boolean hasPendingFiles = false;
+		final long now = System.currentTimeMillis();
+
+		for ( File file : index.getFiles() )
+		{
+			if ( knownFiles.contains( file ) ) continue;
+
+			if ( now - file.lastModified() < STABLE_MILLIS || file.length() == 0 )
+			{
+				hasPendingFiles = true;
+				continue;
+			}
+
+			addedFiles.add( file );
+		}
+
+		if ( ! addedFiles.isEmpty() )
+		{
+			knownFiles.addAll( addedFiles );
+			index.save();
+			listener.accept( addedFiles );
+		}
+
+		return hasPendingFiles;
+	}
+
+	private void waitForChanges( long timeoutMillis ) throws InterruptedException
+	{
+		if ( watchService == null )
+		{
+			Thread.sleep( timeoutMillis );
+			return;
+		}
+
+		WatchKey key = watchService.poll( timeoutMillis, TimeUnit.MILLISECONDS );
+
+		// the events themselves are not needed, as the check lists all folders that changed
+		while ( key != null )
+		{
+			key.pollEvents();
+			if ( ! key.reset() )
+				watchedFolders.remove( new File( key.watchable().toString() ) );
+			key = watchService.poll();
+		}
+	}
+
+	private void registerFolders()
+	{
+		if ( watchService == null ) return;
+
+		for ( File folder : index.getFolders() )
+		{
+			if ( watchedFolders.contains( folder ) ) continue;
+
+			try
+			{
+				folder.toPath().register( watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY );
+				watchedFolders.add( folder );
+			}
+			catch ( IOException e )
+			{
+				Utils.log( "Could not watch folder " + folder + ", it is checked every " + POLLING_INTERVAL_MILLIS / 1000 + " s." );
+				watchedFolders.add( folder );
+			}
+		}
+	}
+}
@@ -0,0 +1,666 @@
+package de.embl.cba.plateviewer.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Lean reader for the first plane of single channel 8, 16 and 32 bit (float) TIFF files,
+ * which are uncompressed or compressed with LZW or deflate (optionally with predictor).
+ *
+ * The file is memory mapped and only the strips or tiles that intersect
+ * the requested region are decoded, directly into the given array.
+ * The readers of recently opened files are kept, such that reading the
+ * cells of a site parses its header and maps the file only once.
+ *
+ * {@link #open(File)} returns null for all other files, which then need to
+ * be opened with ImageJ. {@link #readHeader(File)} only parses the header
+ * of any (classic) TIFF, which is sufficient to probe its metadata.
+ */
+public class TiffRegionReader
+{
+	private static final int IMAGE_WIDTH = 256;
+	private static final int IMAGE_LENGTH = 257;
+	private static final int BITS_PER_SAMPLE = 258;
+	private static final int COMPRESSION = 259;
+	private static final int PHOTOMETRIC_INTERPRETATION = 262;
+	private static final int FILL_ORDER = 266;
+	private static final int STRIP_OFFSETS = 273;
+	private static final int SAMPLES_PER_PIXEL = 277;
+	private static final int ROWS_PER_STRIP = 278;
+	private static final int STRIP_BYTE_COUNTS = 279;
+	private static final int PLANAR_CONFIGURATION = 284;
+	private static final int COLOR_MAP = 320;
+	private static final int PREDICTOR = 317;
+	private static final int TILE_WIDTH = 322;
+	private static final int TILE_LENGTH = 323;
+	private static final int TILE_OFFSETS = 324;
+	private static final int TILE_BYTE_COUNTS = 325;
+	private static final int SAMPLE_FORMAT = 339;
+
+	private static final int COMPRESSION_NONE = 1;
+	private static final int COMPRESSION_LZW = 5;
+	private static final int COMPRESSION_DEFLATE = 8;
+	private static final int COMPRESSION_ADOBE_DEFLATE = 32946;
+
+	private static final int PREDICTOR_NONE = 1;
+	private static final int PREDICTOR_HORIZONTAL = 2;
+	private static final int PREDICTOR_FLOATING_POINT = 3;
+
+	private static final int SAMPLE_FORMAT_UINT = 1;
+	private static final int SAMPLE_FORMAT_FLOAT = 3;
+
+	public static final int MAX_NUM_CACHED_READERS = 256;
+
+	private static final Map< File, TiffRegionReader > fileToReader =
+			new LinkedHashMap< File, TiffRegionReader >( 16, 0.75f, true )
+			{
+				@Override
+				protected boolean removeEldestEntry( Map.Entry< File, TiffRegionReader > eldest )
+				{
+					return size() > MAX_NUM_CACHED_READERS;
+				}
+			};
+
+	private final File file;
+	private final ByteOrder byteOrder;
+
+	private int width;
+	private int height;
+	private int bitsPerSample = 1;
+	private int compression = COMPRESSION_NONE;
+	private int photometricInterpretation = 1;
+	private int fillOrder = 1;
+	private int samplesPerPixel = 1;
+	private int planarConfiguration = 1;
+	private int predictor = PREDICTOR_NONE;
+	private int sampleFormat = SAMPLE_FORMAT_UINT;
+	private long rowsPerStrip = Integer.MAX_VALUE;
+	private int tileWidth;
+	private int tileHeight;
+	private long[] chunkOffsets;
+	private long[] chunkByteCounts;
+	private long[] colorMap;
+	private long lastModified;
+	private MappedByteBuffer buffer;
+
+	private TiffRegionReader( File file, ByteOrder byteOrder )
+	{
+		this.file = file;
+		this.byteOrder = byteOrder;
+	}
+
+	/**
+	 * The reader is reused as long as the file is not modified.
+	 *
+	 * @return the reader, or null if the file is not a TIFF that can be decoded by this class
+	 */
+	public static TiffRegionReader open( File file ) throws IOException
+	{
+		final long lastModified = file.lastModified();
+
+		synchronized ( fileToReader )
+		{
+			final TiffRegionReader reader = fileToReader.get( file );
+			if ( reader != null && reader.lastModified == lastModified ) return reader;
+		}
+
+		final TiffRegionReader reader = readHeader( file );
+
+		if ( reader == null || ! reader.isSupported() ) return null;
+
+		reader.lastModified = lastModified;
+
+		synchronized ( fileToReader )
+		{
+			fileToReader.put( file, reader );
+		}
+
+		return reader;
+	}
+
+	/**
+	 * @return the reader with the parsed header of the first image, or null if the file is not a TIFF
+	 */
+	public static TiffRegionReader readHeader( File file ) throws IOException
+	{
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+		{
+			final ByteBuffer header = ByteBuffer.allocate( 8 );
+			if ( channel.read( header, 0 ) < 8 ) return null;
+			header.flip();
+
+			final ByteOrder byteOrder;
+			if ( header.get( 0 ) == 'I' && header.get( 1 ) == 'I' )
+				byteOrder = ByteOrder.LITTLE_ENDIAN;
+			else if ( header.get( 0 ) == 'M' && header.get( 1 ) == 'M' )
+				byteOrder = ByteOrder.BIG_ENDIAN;
+			else
+				return null;
+
+			header.order( byteOrder );
+
+			// 43 would be BigTIFF, which is not supported
+			if ( header.getShort( 2 ) != 42 ) return null;
+
+			final TiffRegionReader reader = new TiffRegionReader( file, byteOrder );
+			reader.readImageFileDirectory( channel, header.getInt( 4 ) & 0xFFFFFFFFL );
+
+			return reader;
+		}
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public int getBitDepth()
+	{
+		return bitsPerSample;
+	}
+
+	public int getSamplesPerPixel()
+	{
+		return samplesPerPixel;
+	}
+
+	public boolean isPalette()
+	{
+		return photometricInterpretation == 3 && colorMap != null;
+	}
+
+	/**
+	 * @return the 8 bit red, green and blue values of the last entry of the color map,
+	 * or null if the image has no color map
+	 */
+	public int[] getColorMapMaximum()
+	{
+		if ( colorMap == null ) return null;
+
+		final int mapSize = colorMap.length / 3;
+		final int[] rgb = new int[ 3 ];
+		for ( int c = 0; c < 3; c++ )
+			rgb[ c ] = ( int ) ( colorMap[ c * mapSize + mapSize - 1 ] >> 8 );
+
+		return rgb;
+	}
+
+	/**
+	 * Regions of uncompressed files are copied directly from the mapped file. For compressed files
+	 * every strip or tile that intersects a region is decoded as a whole, thus reading a region is
+	 * only worthwhile if the strips or tiles are not (much) larger than the region.
+	 *
+	 * @return whether regions of the given size can be read without decoding much more than the region
+	 */
+	public boolean isRegionReadable( int regionWidth, int regionHeight )
+	{
+		if ( compression == COMPRESSION_NONE && predictor == PREDICTOR_NONE ) return true;
+
+		return ( long ) getChunkWidth() * getChunkHeight() <= 2L * regionWidth * regionHeight;
+	}
+
+	/**
+	 * Reads the region [ x, x + regionWidth ) x [ y, y + regionHeight ) into the given array,
+	 * which must be a byte[], short[] or float[] for 8, 16 and 32 bit images, respectively.
+	 */
+	public void read( int x, int y, int regionWidth, int regionHeight, Object array ) throws IOException
+	{
+		checkArrayType( array );
+
+		final MappedByteBuffer buffer = getBuffer();
+
+		final boolean isTiled = tileWidth > 0;
+		final int chunkWidth = getChunkWidth();
+		final int chunkHeight = getChunkHeight();
+		final int chunksAcross = isTiled ? ( width + tileWidth - 1 ) / tileWidth : 1;
+
+		for ( int chunk = 0; chunk < chunkOffsets.length; chunk++ )
+		{
+			final int chunkX = ( chunk % chunksAcross ) * chunkWidth;
+			final int chunkY = ( chunk / chunksAcross ) * chunkHeight;
+
+			final int minX = Math.max( x, chunkX );
+			final int minY = Math.max( y, chunkY );
+			final int maxX = Math.min( Math.min( x + regionWidth, chunkX + chunkWidth ), width );
+			final int maxY = Math.min( Math.min( y + regionHeight, chunkY + chunkHeight ), height );
+
+			if ( minX >= maxX || minY >= maxY ) continue;
+
+			// strips at the bottom of the image may have fewer rows; tiles are always complete
+			final int chunkRows = isTiled ? chunkHeight : Math.min( chunkHeight, height - chunkY );
+			final ByteBuffer chunkData = decodeChunk( buffer, chunk, chunkWidth, chunkRows );
+
+			for ( int row = minY; row < maxY; row++ )
+			{
+				final int position = ( ( row - chunkY ) * chunkWidth + ( minX - chunkX ) ) * getBytesPerSample();
+				final int offset = ( row - y ) * regionWidth + ( minX - x );
+				copy( chunkData, position, array, offset, maxX - minX );
+			}
+		}
+	}
+
+	/**
+	 * The mapping stays valid after the channel is closed and is
+	 * released once this reader is no longer referenced.
+	 */
+	private synchronized MappedByteBuffer getBuffer() throws IOException
+	{
+		if ( buffer != null ) return buffer;
+
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) )
+		{
+			if ( channel.size() > Integer.MAX_VALUE )
+				throw new IOException( "TIFF file is too large to be memory mapped: " + file );
+
+			buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+		}
+
+		return buffer;
+	}
+
+	private int getChunkWidth()
+	{
+		return tileWidth > 0 ? tileWidth : width;
+	}
+
+	private int getChunkHeight()
+	{
+		return tileWidth > 0 ? tileHeight : ( int ) Math.min( rowsPerStrip, height );
+	}
+
+	private boolean isSupported()
+	{
+		if ( samplesPerPixel != 1 ) return false;
+		if ( planarConfiguration != 1 ) return false;
+		if ( fillOrder != 1 ) return false;
+		if ( photometricInterpretation != 1 ) return false; // BlackIsZero
+		if ( chunkOffsets == null ) return false;
+
+		if ( compression != COMPRESSION_NONE
+				&& compression != COMPRESSION_LZW
+				&& compression != COMPRESSION_DEFLATE
+				&& compression != COMPRESSION_ADOBE_DEFLATE ) return false;
+
+		if ( predictor != PREDICTOR_NONE
+				&& predictor != PREDICTOR_HORIZONTAL
+				&& predictor != PREDICTOR_FLOATING_POINT ) return false;
+
+		if ( bitsPerSample == 8 || bitsPerSample == 16 )
+			return sampleFormat == SAMPLE_FORMAT_UINT && predictor != PREDICTOR_FLOATING_POINT;
+		else if ( bitsPerSample == 32 )
+			return sampleFormat == SAMPLE_FORMAT_FLOAT;
+		else
+			return false;
+	}
+
+	private int getBytesPerSample()
+	{
+		return bitsPerSample / 8;
+	}
+
+	private void checkArrayType( Object array )
+	{
+		if ( bitsPerSample == 8 && array instanceof byte[] ) return;
+		if ( bitsPerSample == 16 && array instanceof short[] ) return;
+		if ( bitsPerSample == 32 && array instanceof float[] ) return;
+
+		throw new UnsupportedOperationException( "Cannot read " + bitsPerSample + " bit TIFF " + file.getName()
+				+ " into " + array.getClass().getSimpleName() );
+	}
+
+	private void copy( ByteBuffer chunkData, int position, Object array, int offset, int length )
+	{
+		final ByteBuffer source = chunkData.duplicate().order( byteOrder );
+		source.position( position );
+
+		if ( array instanceof byte[] )
+			source.get( ( byte[] ) array, offset, length );
+		else if ( array instanceof short[] )
+			source.asShortBuffer().get( ( short[] ) array, offset, length );
+		else
+			source.asFloatBuffer().get( ( float[] ) array, offset, length );
+	}
+
+	private ByteBuffer decodeChunk( MappedByteBuffer buffer, int chunk, int chunkWidth, int chunkRows ) throws IOException
+	{
+		final int numBytes = chunkWidth * chunkRows * getBytesPerSample();
+		final int chunkOffset = ( int ) chunkOffsets[ chunk ];
+
+		if ( compression == COMPRESSION_NONE && predictor == PREDICTOR_NONE )
+		{
+			final ByteBuffer chunkData = buffer.duplicate();
+			chunkData.position( chunkOffset );
+			return chunkData.slice();
+		}
+
+		final ByteBuffer compressed = buffer.duplicate();
+		compressed.position( chunkOffset );
+		compressed.limit( ( int ) Math.min( buffer.capacity(), chunkOffset + getChunkByteCount( chunk, numBytes ) ) );
+
+		final byte[] bytes;
+		if ( compression == COMPRESSION_LZW )
+			bytes = decodeLzw( compressed, numBytes );
+		else if ( compression == COMPRESSION_NONE )
+			bytes = copyBytes( compressed, numBytes );
+		else
+			bytes = inflate( compressed, numBytes );
+
+		if ( predictor == PREDICTOR_HORIZONTAL )
+			undoHorizontalPredictor( bytes, chunkWidth, chunkRows );
+		else if ( predictor == PREDICTOR_FLOATING_POINT )
+			undoFloatingPointPredictor( bytes, chunkWidth, chunkRows );
+
+		return ByteBuffer.wrap( bytes );
+	}
+
+	private long getChunkByteCount( int chunk, int numBytes )
+	{
+		if ( chunkByteCounts == null || chunk >= chunkByteCounts.length )
+			return numBytes;
+		else
+			return chunkByteCounts[ chunk ];
+	}
+
+	private static byte[] copyBytes( ByteBuffer source, int numBytes )
+	{
+		final byte[] bytes = new byte[ numBytes ];
+		source.get( bytes, 0, Math.min( numBytes, source.remaining() ) );
+		return bytes;
+	}
+
+	private byte[] inflate( ByteBuffer compressed, int numBytes ) throws IOException
+	{
+		final byte[] input = new byte[ compressed.remaining() ];
+		compressed.get( input );
+
+		final byte[] bytes = new byte[ numBytes ];
+		final Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput( input );
+			int numInflated = 0;
+			while ( numInflated < numBytes && ! inflater.finished() )
+			{
+				final int n = inflater.inflate( bytes, numInflated, numBytes - numInflated );
+				if ( n == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) ) break;
+				numInflated += n;
+			}
+		}
+		catch ( DataFormatException e )
+		{
+			throw new IOException( "Could not inflate TIFF data: " + file, e );
+		}
+		finally
+		{
+			inflater.end();
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * TIFF flavour of LZW: codes are written most significant bit first and
+	 * the code length increases one code early.
+	 */
+	private static byte[] decodeLzw( ByteBuffer compressed, int numBytes )
+	{
+		final int clearCode = 256;
+		final int endOfInformation = 257;
+
+		final byte[] bytes = new byte[ numBytes ];
+
+		final int[] prefix = new int[ 4096 ];
+		final byte[] suffix = new byte[ 4096 ];
+		final byte[] first = new byte[ 4096 ];
+		final int[] length = new int[ 4096 ];
+
+		for ( int i = 0; i < 256; i++ )
+		{
+			prefix[ i ] = -1;
+			suffix[ i ] = ( byte ) i;
+			first[ i ] = ( byte ) i;
+			length[ i ] = 1;
+		}
+
+		int nextCode = 258;
+		int codeLength = 9;
+		int oldCode = -1;
+		int position = 0;
+
+		int bitBuffer = 0;
+		int numBits = 0;
+
+		while ( position < numBytes )
+		{
+			while ( numBits < codeLength && compressed.hasRemaining() )
+			{
+				bitBuffer = ( bitBuffer << 8 ) | ( compressed.get() & 0xFF );
+				numBits += 8;
+			}
+
+			if ( numBits < codeLength ) break;
+
+			final int code = ( bitBuffer >> ( numBits - codeLength ) ) & ( ( 1 << codeLength ) - 1 );
+			numBits -= codeLength;
+			bitBuffer &= ( 1 << numBits ) - 1;
+
+			if ( code == endOfInformation ) break;
+
+			if ( code == clearCode )
+			{
+				nextCode = 258;
+				codeLength = 9;
+				oldCode = -1;
+				continue;
+			}
+
+			if ( oldCode == -1 )
+			{
+				if ( code >= 256 ) break; // corrupt data
+				position = writeLzwString( bytes, position, code, prefix, suffix, length );
+				oldCode = code;
+				continue;
+			}
+
+			if ( code < nextCode )
+			{
+				position = writeLzwString( bytes, position, code, prefix, suffix, length );
+				if ( nextCode < 4096 )
+					addLzwString( nextCode++, oldCode, first[ code ], prefix, suffix, first, length );
+			}
+			else
+			{
+				if ( nextCode >= 4096 ) break; // corrupt data
+				addLzwString( nextCode++, oldCode, first[ oldCode ], prefix, suffix, first, length );
+				position = writeLzwString( bytes, position, nextCode - 1, prefix, suffix, length );
+			}
+
+			oldCode = code;
+
+			if ( nextCode == 511 ) codeLength = 10;
+			else if ( nextCode == 1023 ) codeLength = 11;
+			else if ( nextCode == 2047 ) codeLength = 12;
+		}
+
+		return bytes;
+	}
+
+	private static void addLzwString( int code, int prefixCode, byte suffixByte, int[] prefix, byte[] suffix, byte[] first, int[] length )
+	{
+		prefix[ code ] = prefixCode;
+		suffix[ code ] = suffixByte;
+		first[ code ] = first[ prefixCode ];
+		length[ code ] = length[ prefixCode ] + 1;
+	}
+
+	private static int writeLzwString( byte[] bytes, int position, int code, int[] prefix, byte[] suffix, int[] length )
+	{
+		final int stringLength = length[ code ];
+
+		for ( int i = stringLength - 1; i >= 0; i-- )
+		{
+			if ( position + i < bytes.length )
+				bytes[ position + i ] = suffix[ code ];
+			code = prefix[ code ];
+		}
+
+		return position + stringLength;
+	}
+
+	private void undoHorizontalPredictor( byte[] bytes, int chunkWidth, int chunkRows )
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap( bytes ).order( byteOrder );
+
+		for ( int row = 0; row < chunkRows; row++ )
+		{
+			final int rowStart = row * chunkWidth;
+
+			for ( int x = 1; x < chunkWidth; x++ )
+			{
+				final int i = rowStart + x;
+
+				if ( bitsPerSample == 8 )
+					bytes[ i ] += bytes[ i - 1 ];
+				else if ( bitsPerSample == 16 )
+					buffer.putShort( 2 * i, ( short ) ( buffer.getShort( 2 * i ) + buffer.getShort( 2 * ( i - 1 ) ) ) );
+				else
+					buffer.putInt( 4 * i, buffer.getInt( 4 * i ) + buffer.getInt( 4 * ( i - 1 ) ) );
+			}
+		}
+	}
+
+	/**
+	 * The bytes of each row are differenced and shuffled, such that all most significant
+	 * bytes come first; the row is restored in the byte order of the file.
+	 */
+	private void undoFloatingPointPredictor( byte[] bytes, int chunkWidth, int chunkRows )
+	{
+		final int bytesPerSample = getBytesPerSample();
+		final int rowLength = chunkWidth * bytesPerSample;
+		final byte[] shuffled = new byte[ rowLength ];
+
+		for ( int row = 0; row < chunkRows; row++ )
+		{
+			final int rowStart = row * rowLength;
+
+			for ( int i = 1; i < rowLength; i++ )
+				bytes[ rowStart + i ] += bytes[ rowStart + i - 1 ];
+
+			System.arraycopy( bytes, rowStart, shuffled, 0, rowLength );
+
+			for ( int x = 0; x < chunkWidth; x++ )
+				for ( int b = 0; b < bytesPerSample; b++ )
+				{
+					final int target = byteOrder == ByteOrder.BIG_ENDIAN ? b : bytesPerSample - 1 - b;
+					bytes[ rowStart + x * bytesPerSample + target ] = shuffled[ b * chunkWidth + x ];
+				}
+		}
+	}
+
+	private void readImageFileDirectory( FileChannel channel, long ifdOffset ) throws IOException
+	{
+		final ByteBuffer count = ByteBuffer.allocate( 2 ).order( byteOrder );
+		channel.read( count, ifdOffset );
+		final int numEntries = count.getShort( 0 ) & 0xFFFF;
+
+		final ByteBuffer entries = ByteBuffer.allocate( 12 * numEntries ).order( byteOrder );
+		channel.read( entries, ifdOffset + 2 );
+
+		long[] stripOffsets = null;
+		long[] stripByteCounts = null;
+		long[] tileOffsets = null;
+		long[] tileByteCounts = null;
+
+		for ( int i = 0; i < numEntries; i++ )
+		{
+			final int entry = 12 * i;
+			final int tag = entries.getShort( entry ) & 0xFFFF;
+			final int type = entries.getShort( entry + 2 ) & 0xFFFF;
+			final int numValues = entries.getInt( entry + 4 );
+
+			switch ( tag )
+			{
+				case IMAGE_WIDTH: width = ( int ) getValue( entries, entry, type ); break;
+				case IMAGE_LENGTH: height = ( int ) getValue( entries, entry, type ); break;
+				case BITS_PER_SAMPLE: bitsPerSample = ( int ) getValues( channel, entries, entry, type, numValues )[ 0 ]; break;
+				case COMPRESSION: compression = ( int ) getValue( entries, entry, type ); break;
+				case PHOTOMETRIC_INTERPRETATION: photometricInterpretation = ( int ) getValue( entries, entry, type ); break;
+				case FILL_ORDER: fillOrder = ( int ) getValue( entries, entry, type ); break;
+				case SAMPLES_PER_PIXEL: samplesPerPixel = ( int ) getValue( entries, entry, type ); break;
+				case ROWS_PER_STRIP: rowsPerStrip = getValue( entries, entry, type ); break;
+				case PLANAR_CONFIGURATION: planarConfiguration = ( int ) getValue( entries, entry, type ); break;
+				case PREDICTOR: predictor = ( int ) getValue( entries, entry, type ); break;
+				case SAMPLE_FORMAT: sampleFormat = ( int ) getValue( entries, entry, type ); break;
+				case TILE_WIDTH: tileWidth = ( int ) getValue( entries, entry, type ); break;
+				case TILE_LENGTH: tileHeight = ( int ) getValue( entries, entry, type ); break;
+				case STRIP_OFFSETS: stripOffsets = getValues( channel, entries, entry, type, numValues ); break;
+				case STRIP_BYTE_COUNTS: stripByteCounts = getValues( channel, entries, entry, type, numValues ); break;
+				case TILE_OFFSETS: tileOffsets = getValues( channel, entries, entry, type, numValues ); break;
+				case TILE_BYTE_COUNTS: tileByteCounts = getValues( channel, entries, entry, type, numValues ); break;
+				case COLOR_MAP: colorMap = getValues( channel, entries, entry, type, numValues ); break;
+				default: break;
+			}
+		}
+
+		if ( tileOffsets != null && tileWidth > 0 && tileHeight > 0 )
+		{
+			chunkOffsets = tileOffsets;
+			chunkByteCounts = tileByteCounts;
+		}
+		else
+		{
+			tileWidth = 0;
+			chunkOffsets = stripOffsets;
+			chunkByteCounts = stripByteCounts;
+		}
+	}
+
+	private static long getValue( ByteBuffer entries, int entry, int type )
+	{
+		if ( type == 3 ) // SHORT
+			return entries.getShort( entry + 8 ) & 0xFFFF;
+		else if ( type == 1 ) // BYTE
+			return entries.get( entry + 8 ) & 0xFF;
+		else // LONG
+			return entries.getInt( entry + 8 ) & 0xFFFFFFFFL;
+	}
+
+	private long[] getValues( FileChannel channel, ByteBuffer entries, int entry, int type, int numValues ) throws IOException
+	{
+		final int valueSize = type == 3 ? 2 : 4;
+
+		final ByteBuffer values;
+		if ( numValues * valueSize <= 4 )
+		{
+			values = entries.duplicate().order( byteOrder );
+			values.position( entry + 8 );
+			values.limit( entry + 12 );
+		}
+		else
+		{
+			values = ByteBuffer.allocate( numValues * valueSize ).order( byteOrder );
+			channel.read( values, entries.getInt( entry + 8 ) & 0xFFFFFFFFL );
+			values.flip();
+		}
+
+		final long[] longs = new long[ numValues ];
+		for ( int i = 0; i < numValues; i++ )
+			longs[ i ] = valueSize == 2 ? values.getShort() & 0xFFFF : values.getInt() & 0xFFFFFFFFL;
+
+		return longs;
+	}
+}
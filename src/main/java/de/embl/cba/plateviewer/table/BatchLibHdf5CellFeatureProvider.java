@@ -1,8 +1,8 @@
 package de.embl.cba.plateviewer.table;
 
-import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import com.google.common.util.concurrent.UncheckedTimeoutException;
+import de.embl.cba.plateviewer.io.Hdf5ReaderPool;
 
 import java.io.File;
 import java.util.*;
@@ -19,8 +19,7 @@ public class BatchLibHdf5CellFeatureProvider
 		this.plateDirectory = plateDirectory;
 		this.siteFiles = siteFiles;
 		siteAndTableGroupToColumns = new HashMap<>();
-		final IHDF5Reader hdf5Reader = HDF5Factory.openForReading( siteFiles.get( 0 ) );
-		fetchTableGroups( hdf5Reader );
+		Hdf5ReaderPool.access( siteFiles.get( 0 ), this::fetchTableGroups );
 	}
 
 	public String fetchFeature( int labelId, String siteName, String tableGroup, String feature )
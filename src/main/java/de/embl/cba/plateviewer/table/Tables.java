@@ -1,9 +1,9 @@
 package de.embl.cba.plateviewer.table;
 
-import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import de.embl.cba.plateviewer.image.MultiWellChannelFilesProviderBatchLibHdf5;
 import de.embl.cba.plateviewer.image.NamingSchemes;
+import de.embl.cba.plateviewer.io.Hdf5ReaderPool;
 import de.embl.cba.plateviewer.mongo.AssayMetadataRepository;
 import de.embl.cba.tables.TableColumns;
 import net.imglib2.Interval;
@@ -206,7 +206,11 @@ public class Tables
 
 	public static Map< String, List< String > > stringColumnsFromHDF5( final String filePath, String tableGroup )
 	{
-		final IHDF5Reader hdf5Reader = HDF5Factory.openForReading( filePath );
+		return Hdf5ReaderPool.read( new File( filePath ), hdf5Reader -> stringColumnsFromHDF5( hdf5Reader, tableGroup ) );
+	}
+
+	private static Map< String, List< String > > stringColumnsFromHDF5( IHDF5Reader hdf5Reader, String tableGroup )
+	{
 		final List< String > groupMembers = hdf5Reader.getGroupMembers( "/" );
 		final List< String > columnNames = new ArrayList<>( Arrays.asList( hdf5Reader.string().readMDArray( tableGroup + "/columns" ).getAsFlatArray() ) );
 
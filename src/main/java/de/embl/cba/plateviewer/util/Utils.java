@@ -1,6 +1,6 @@
 package de.embl.cba.plateviewer.util;
 
-import de.embl.cba.plateviewer.image.NamingSchemes;
+import de.embl.cba.plateviewer.image.SiteFileName;
 import ij.IJ;
 import net.imglib2.FinalInterval;
 import net.imglib2.FinalRealInterval;
@@ -30,8 +30,6 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class Utils
 {
@@ -315,13 +313,9 @@ public class Utils
 	{
 		Set< String > wellNameSet = new HashSet<>(  );
 
-		for ( File file : files )
+		for ( SiteFileName siteFileName : SiteFileName.get( files, namingScheme ) )
 		{
-			final Matcher matcher = Pattern.compile( namingScheme ).matcher( file.getName() );
-
-			matcher.matches();
-
-			wellNameSet.add(  matcher.group( NamingSchemes.WELL ) );
+			wellNameSet.add( siteFileName.well );
 		}
 
 		final ArrayList< String > wellNames = new ArrayList<>( wellNameSet );
@@ -0,0 +1,83 @@
+package develop;
+
+import ch.systemsx.cisd.base.mdarray.MDShortArray;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares the garbage that is produced per loaded site by
+ * (i) reading a data set into a new array and copying it into the cell,
+ * as MultiSiteHdf5Loader used to do, and
+ * (ii) reading the data set directly into the (preallocated) cell array.
+ */
+public class BenchmarkHdf5CellLoadingAllocation
+{
+	public static final String DATA_SET_NAME = "/nuclei/s0";
+	public static final int[] DIMENSIONS = new int[]{ 2048, 2048 }; // y,x
+	public static final int NUM_READS = 50;
+
+	public static void main( String[] args ) throws IOException
+	{
+		final File file = File.createTempFile( "benchmark", ".h5" );
+		file.deleteOnExit();
+
+		final IHDF5Writer writer = HDF5Factory.open( file );
+		writer.uint16().writeMDArray( DATA_SET_NAME, new MDShortArray( DIMENSIONS ) );
+		writer.close();
+
+		final IHDF5Reader reader = HDF5Factory.openForReading( file );
+		final short[] cellData = new short[ DIMENSIONS[ 0 ] * DIMENSIONS[ 1 ] ];
+
+		// warm up
+		readAndCopy( reader, cellData );
+		readInPlace( reader, cellData );
+
+		final com.sun.management.ThreadMXBean threadMXBean = ( com.sun.management.ThreadMXBean ) ManagementFactory.getThreadMXBean();
+		final long threadId = Thread.currentThread().getId();
+
+		long bytes = threadMXBean.getThreadAllocatedBytes( threadId );
+		long start = System.currentTimeMillis();
+		for ( int i = 0; i < NUM_READS; i++ )
+			readAndCopy( reader, cellData );
+		report( "Read and copy", threadMXBean.getThreadAllocatedBytes( threadId ) - bytes, System.currentTimeMillis() - start );
+
+		bytes = threadMXBean.getThreadAllocatedBytes( threadId );
+		start = System.currentTimeMillis();
+		for ( int i = 0; i < NUM_READS; i++ )
+			readInPlace( reader, cellData );
+		report( "Read in place", threadMXBean.getThreadAllocatedBytes( threadId ) - bytes, System.currentTimeMillis() - start );
+
+		reader.close();
+	}
+
+	private static void readAndCopy( IHDF5Reader reader, short[] cellData )
+	{
+		final short[] data = reader.uint16().readArray( DATA_SET_NAME );
+		System.arraycopy( data, 0, cellData, 0, cellData.length );
+	}
+
+	private static void readInPlace( IHDF5Reader reader, short[] cellData )
+	{
+		reader.uint16().readToMDArrayBlockWithOffset(
+				DATA_SET_NAME,
+				new MDShortArray( cellData, DIMENSIONS ),
+				DIMENSIONS,
+				new long[]{ 0, 0 },
+				new int[]{ 0, 0 } );
+	}
+
+	private static void report( String method, long allocatedBytes, long millis )
+	{
+		final long siteBytes = 2L * DIMENSIONS[ 0 ] * DIMENSIONS[ 1 ];
+
+		System.out.println( method + ":" );
+		System.out.println( "  Allocated per site [MB]: " + allocatedBytes / NUM_READS / 1024.0 / 1024.0 );
+		System.out.println( "  Allocated per site / site size: " + ( double ) allocatedBytes / NUM_READS / siteBytes );
+		System.out.println( "  Time per site [ms]: " + ( double ) millis / NUM_READS );
+	}
+}
@@ -0,0 +1,102 @@
+package test;
+
+import de.embl.cba.plateviewer.cache.CellCaches;
+import de.embl.cba.plateviewer.cache.CellMemoryCache;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestCellMemoryCache
+{
+	public static void main( String[] args )
+	{
+		new TestCellMemoryCache().run();
+	}
+
+	@Test
+	public void run()
+	{
+		// 10 cells of 100x100 16 bit pixels
+		final long cellNumBytes = 100 * 100 * 2;
+		CellMemoryCache.setMaxNumBytes( 10 * cellNumBytes );
+
+		try
+		{
+			final CachedCellImg< UnsignedShortType, ? > img0 = createImg( "img0", 3 );
+			final CachedCellImg< UnsignedShortType, ? > img1 = createImg( "img1", 5 );
+
+			// 2 x 16 cells do not fit into the budget
+			for ( UnsignedShortType pixel : Views.iterable( img0 ) )
+				assertEquals( 3, pixel.get() );
+
+			for ( UnsignedShortType pixel : Views.iterable( img1 ) )
+				assertEquals( 5, pixel.get() );
+
+			assertTrue( CellMemoryCache.getInstance().getNumBytes() <= 10 * cellNumBytes );
+
+			// evicted cells are loaded again
+			for ( UnsignedShortType pixel : Views.iterable( img0 ) )
+				assertEquals( 3, pixel.get() );
+
+			img0.getCache().invalidateAll();
+			img1.getCache().invalidateAll();
+			assertEquals( 0, CellMemoryCache.getInstance().getNumBytes() );
+		}
+		finally
+		{
+			CellMemoryCache.setMaxNumBytes( 0 );
+		}
+	}
+
+	@Test
+	public void emptyCells()
+	{
+		CellMemoryCache.setMaxNumBytes( 1024 * 1024 );
+
+		try
+		{
+			// only the left half of the image contains data
+			final CachedCellImg< UnsignedShortType, ? > img = CellCaches.create(
+					"half",
+					new long[]{ 400, 400 },
+					new int[]{ 100, 100 },
+					new UnsignedShortType(),
+					cell -> {
+						for ( UnsignedShortType pixel : cell )
+							pixel.set( 7 );
+					},
+					cell -> cell.min( 0 ) >= 200 );
+
+			for ( UnsignedShortType pixel : Views.iterable( Views.interval( img, new long[]{ 200, 0 }, new long[]{ 399, 399 } ) ) )
+				assertEquals( 0, pixel.get() );
+
+			assertEquals( 0, CellMemoryCache.getInstance().getNumBytes() );
+
+			for ( UnsignedShortType pixel : Views.iterable( Views.interval( img, new long[]{ 0, 0 }, new long[]{ 199, 399 } ) ) )
+				assertEquals( 7, pixel.get() );
+
+			assertEquals( 8 * 100 * 100 * 2, CellMemoryCache.getInstance().getNumBytes() );
+		}
+		finally
+		{
+			CellMemoryCache.setMaxNumBytes( 0 );
+		}
+	}
+
+	private static CachedCellImg< UnsignedShortType, ? > createImg( String name, int value )
+	{
+		return CellCaches.create(
+				name,
+				new long[]{ 400, 400 },
+				new int[]{ 100, 100 },
+				new UnsignedShortType(),
+				cell -> {
+					for ( UnsignedShortType pixel : cell )
+						pixel.set( value );
+				} );
+	}
+}
@@ -0,0 +1,119 @@
+package test;
+
+import de.embl.cba.plateviewer.image.PlateLayoutIndex;
+import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.image.cellloader.MultiSiteImagePlusLoader;
+import de.embl.cba.plateviewer.util.Utils;
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.process.ShortProcessor;
+import net.imglib2.RandomAccess;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TestConcurrentSiteLoading
+{
+	public static final int NUM_SITES = 8;
+	public static final int SITE_SIZE = 64;
+	public static final int TIMEOUT_SECONDS = 30;
+
+	public static void main( String[] args ) throws Exception
+	{
+		new TestConcurrentSiteLoading().run();
+	}
+
+	/**
+	 * Each site is loaded from its own TIFF file by the real loader. The loads of all sites
+	 * have to start before any of them continues, which times out if the cache serialises them.
+	 */
+	@Test
+	public void run() throws Exception
+	{
+		final int[] imageDimensions = new int[]{ SITE_SIZE, SITE_SIZE };
+		final File directory = Files.createTempDirectory( "sites" ).toFile();
+		directory.deleteOnExit();
+
+		final ArrayList< SingleSiteChannelFile > sites = new ArrayList<>();
+		for ( int site = 0; site < NUM_SITES; site++ )
+		{
+			sites.add( new SingleSiteChannelFile(
+					writeSite( directory, site ),
+					Utils.createInterval( new int[]{ site, 0 }, new int[]{ 0, 0 }, new int[]{ 1, 1 }, imageDimensions ),
+					"site" + site,
+					"well" + site ) );
+		}
+
+		final MultiSiteImagePlusLoader loader = new MultiSiteImagePlusLoader( new PlateLayoutIndex( sites ) );
+
+		final CyclicBarrier allLoading = new CyclicBarrier( NUM_SITES );
+		final CellLoader< UnsignedShortType > concurrentLoader = cell -> {
+			allLoading.await( TIMEOUT_SECONDS, TimeUnit.SECONDS );
+			loader.load( cell );
+		};
+
+		final CachedCellImg< UnsignedShortType, ? > img = new ReadOnlyCachedCellImgFactory().create(
+				new long[]{ NUM_SITES * SITE_SIZE, SITE_SIZE },
+				new UnsignedShortType(),
+				concurrentLoader,
+				ReadOnlyCachedCellImgOptions.options().cellDimensions( imageDimensions ) );
+
+		final ExecutorService executorService = Executors.newFixedThreadPool( NUM_SITES );
+		final ArrayList< Future< Integer > > futures = new ArrayList<>();
+
+		try
+		{
+			for ( int site = 0; site < NUM_SITES; site++ )
+			{
+				final long x = site * SITE_SIZE + 5;
+				futures.add( executorService.submit( () -> {
+					final RandomAccess< UnsignedShortType > access = img.randomAccess();
+					access.setPosition( new long[]{ x, 7 } );
+					return access.get().get();
+				} ) );
+			}
+
+			for ( int site = 0; site < NUM_SITES; site++ )
+				assertEquals( getValue( site, 5, 7 ), ( int ) futures.get( site ).get( TIMEOUT_SECONDS, TimeUnit.SECONDS ) );
+		}
+		finally
+		{
+			executorService.shutdownNow();
+		}
+	}
+
+	private static File writeSite( File directory, int site ) throws IOException
+	{
+		final ShortProcessor processor = new ShortProcessor( SITE_SIZE, SITE_SIZE );
+		for ( int y = 0; y < SITE_SIZE; y++ )
+			for ( int x = 0; x < SITE_SIZE; x++ )
+				processor.set( x, y, getValue( site, x, y ) );
+
+		final File file = new File( directory, "site" + site + ".tif" );
+		file.deleteOnExit();
+		if ( ! new FileSaver( new ImagePlus( "site" + site, processor ) ).saveAsTiff( file.getAbsolutePath() ) )
+			throw new IOException( "Could not write " + file );
+
+		return file;
+	}
+
+	private static int getValue( int site, int x, int y )
+	{
+		return ( site * SITE_SIZE + y ) * SITE_SIZE + x;
+	}
+}
@@ -0,0 +1,175 @@
+package test;
+
+import de.embl.cba.plateviewer.cache.CacheDirectories;
+import de.embl.cba.plateviewer.channel.ChannelProperties;
+import de.embl.cba.plateviewer.io.PlateFileIndex;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestPlateFileIndex
+{
+	public static final String FILE_PATTERN = ".*\\.tif";
+
+	public static void main( String[] args ) throws IOException
+	{
+		new TestPlateFileIndex().run();
+		new TestPlateFileIndex().previousVersion();
+	}
+
+	@Test
+	public void run() throws IOException
+	{
+		final File plate = createPlate();
+
+		try
+		{
+			// first scan
+			PlateFileIndex index = PlateFileIndex.open( plate, FILE_PATTERN, true );
+			assertTrue( index.isModified() );
+			assertEquals( Arrays.asList( new File( plate, "A01/A01_s0.tif" ), new File( plate, "A01/A01_s1.tif" ), new File( plate, "B01_s0.tif" ) ), index.getFiles() );
+
+			final Map< String, ChannelProperties > channels = new LinkedHashMap<>();
+			channels.put( "dapi", new ChannelProperties( "dapi", ".*dapi.*", true ) );
+			index.setNamingScheme( "scheme" );
+			index.setChannels( channels );
+			index.putSiteInformation( new File( plate, "B01_s0.tif" ), "site", "well" );
+			index.save();
+
+			// unchanged folders are taken from the saved index
+			index = PlateFileIndex.open( plate, FILE_PATTERN, true );
+			assertFalse( index.isModified() );
+			assertEquals( 3, index.getFiles().size() );
+			assertEquals( "scheme", index.getNamingScheme() );
+			assertEquals( ".*dapi.*", index.getChannels().get( "dapi" ).regExp );
+			assertArrayEquals( new String[]{ "site", "well" }, index.getSiteInformation( new File( plate, "B01_s0.tif" ) ) );
+			assertNull( index.getSiteInformation( new File( plate, "A01/A01_s0.tif" ) ) );
+
+			// a file is added to the sub-folder, which changes its modification time
+			assertTrue( new File( plate, "A01/A01_s2.tif" ).createNewFile() );
+			index = PlateFileIndex.open( plate, FILE_PATTERN, true );
+			assertTrue( index.isModified() );
+			assertTrue( index.getFiles().contains( new File( plate, "A01/A01_s2.tif" ) ) );
+			assertEquals( 4, index.getFiles().size() );
+			assertNull( index.getNamingScheme() );
+			assertNull( index.getChannels() );
+			assertArrayEquals( new String[]{ "site", "well" }, index.getSiteInformation( new File( plate, "B01_s0.tif" ) ) );
+			index.save();
+
+			// the site information of an overwritten file is read again
+			assertTrue( new File( plate, "B01_s0.tif" ).setLastModified( System.currentTimeMillis() - 30000 ) );
+			index = PlateFileIndex.open( plate, FILE_PATTERN, true );
+			assertNull( index.getSiteInformation( new File( plate, "B01_s0.tif" ) ) );
+
+			// other scan settings do not use the saved index
+			index = PlateFileIndex.open( plate, FILE_PATTERN, false );
+			assertTrue( index.isModified() );
+			assertEquals( Collections.singletonList( new File( plate, "B01_s0.tif" ) ), index.getFiles() );
+		}
+		finally
+		{
+			delete( plate );
+		}
+	}
+
+	/**
+	 * An index of the previous format version (whose site information had no modification times) is scanned again.
+	 */
+	@Test
+	public void previousVersion() throws IOException
+	{
+		final File plate = createPlate();
+
+		try
+		{
+			try ( DataOutputStream out = new DataOutputStream( new FileOutputStream( getIndexFile( plate ) ) ) )
+			{
+				out.writeInt( 2 );
+				out.writeUTF( plate.getAbsolutePath() );
+				out.writeUTF( FILE_PATTERN );
+				out.writeBoolean( true );
+				out.writeInt( 1 );
+				out.writeUTF( plate.getAbsolutePath() );
+				out.writeLong( plate.lastModified() );
+				out.writeInt( 1 );
+				out.writeUTF( "outdated.tif" );
+				out.writeInt( 0 );
+				out.writeBoolean( false );
+				out.writeInt( -1 );
+				out.writeInt( 1 );
+				out.writeUTF( new File( plate, "outdated.tif" ).getAbsolutePath() );
+				out.writeUTF( "site" );
+				out.writeUTF( "well" );
+			}
+
+			final PlateFileIndex index = PlateFileIndex.open( plate, FILE_PATTERN, true );
+			assertTrue( index.isModified() );
+			assertEquals( 3, index.getFiles().size() );
+			assertFalse( index.getFiles().contains( new File( plate, "outdated.tif" ) ) );
+			assertNull( index.getSiteInformation( new File( plate, "outdated.tif" ) ) );
+
+			index.save();
+			assertFalse( PlateFileIndex.open( plate, FILE_PATTERN, true ).isModified() );
+		}
+		finally
+		{
+			delete( plate );
+		}
+	}
+
+	private static File createPlate() throws IOException
+	{
+		final File plate = Files.createTempDirectory( "plate" ).toFile();
+		final File well = new File( plate, "A01" );
+		assertTrue( well.mkdir() );
+
+		assertTrue( new File( well, "A01_s0.tif" ).createNewFile() );
+		assertTrue( new File( well, "A01_s1.tif" ).createNewFile() );
+		assertTrue( new File( plate, "B01_s0.tif" ).createNewFile() );
+		assertTrue( new File( plate, "notes.txt" ).createNewFile() );
+
+		// such that adding files changes the modification times, whatever their resolution
+		final long past = System.currentTimeMillis() - 60000;
+		assertTrue( well.setLastModified( past ) );
+		assertTrue( plate.setLastModified( past ) );
+
+		return plate;
+	}
+
+	private static File getIndexFile( File plate )
+	{
+		return new File( CacheDirectories.getPlateDirectory( plate.getAbsolutePath() ), PlateFileIndex.INDEX_FILE_NAME );
+	}
+
+	private static void delete( File plate )
+	{
+		getIndexFile( plate ).delete();
+		getIndexFile( plate ).getParentFile().delete();
+		deleteFiles( plate );
+	}
+
+	private static void deleteFiles( File directory )
+	{
+		final File[] files = directory.listFiles();
+		if ( files != null )
+			for ( File file : files )
+				if ( file.isDirectory() ) deleteFiles( file );
+				else file.delete();
+
+		directory.delete();
+	}
+}
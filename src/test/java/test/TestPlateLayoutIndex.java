@@ -0,0 +1,73 @@
+package test;
+
+import de.embl.cba.plateviewer.image.PlateLayoutIndex;
+import de.embl.cba.plateviewer.image.SingleSiteChannelFile;
+import de.embl.cba.plateviewer.util.Utils;
+import net.imglib2.FinalInterval;
+import net.imglib2.util.Intervals;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class TestPlateLayoutIndex
+{
+	public static void main( String[] args )
+	{
+		new TestPlateLayoutIndex().run();
+	}
+
+	@Test
+	public void run()
+	{
+		final int[] imageDimensions = new int[]{ 100, 50 };
+		final int[] siteDimensions = new int[]{ 2, 2 };
+
+		final ArrayList< SingleSiteChannelFile > sites = new ArrayList<>();
+
+		// two wells with 2x2 sites each, the last site of the second well is missing
+		for ( int well = 0; well < 2; well++ )
+			for ( int site = 0; site < 4; site++ )
+			{
+				if ( well == 1 && site == 3 ) continue;
+
+				final FinalInterval interval = Utils.createInterval(
+						new int[]{ well, 0 },
+						new int[]{ site % 2, site / 2 },
+						siteDimensions,
+						imageDimensions );
+
+				final String wellName = "W" + well;
+				final String siteName = wellName + "-S" + site;
+
+				sites.add( new SingleSiteChannelFile( new File( siteName ), interval, siteName, wellName ) );
+			}
+
+		final PlateLayoutIndex index = new PlateLayoutIndex( sites );
+
+		assertEquals( "W0-S0", index.getSite( 0, 0 ).getSiteName() );
+		assertEquals( "W0-S1", index.getSite( 150, 10 ).getSiteName() );
+		assertEquals( "W0-S3", index.getSite( new long[]{ 199, 99 } ).getSiteName() );
+		assertEquals( "W1-S0", index.getSite( 200, 0 ).getSiteName() );
+		assertNull( index.getSite( 350, 75 ) );
+		assertNull( index.getSite( 1000, 1000 ) );
+		assertNull( index.getSite( -1, 0 ) );
+
+		// a cell that covers exactly one site
+		assertEquals( "W1-S2", index.getSite( new FinalInterval( new long[]{ 200, 50 }, new long[]{ 299, 99 } ) ).getSiteName() );
+
+		// the missing site still belongs to its well
+		assertEquals( "W1", index.getWellName( 350, 75 ) );
+		assertEquals( "W0", index.getWellName( 0, 0 ) );
+		assertNull( index.getWellName( 1000, 0 ) );
+
+		assertArrayEquals( new long[]{ 200, 0 }, Intervals.minAsLongArray( index.getWellInterval( "W1" ) ) );
+		assertArrayEquals( new long[]{ 399, 99 }, Intervals.maxAsLongArray( index.getWellInterval( "W1" ) ) );
+
+		assertEquals( sites.get( 5 ), index.getSite( "W1-S1" ) );
+	}
+}
@@ -0,0 +1,494 @@
+package test;
+
+import de.embl.cba.plateviewer.io.TiffRegionReader;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.process.ShortProcessor;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestTiffRegionReader
+{
+	private static final int WIDTH = 300;
+	private static final int HEIGHT = 217;
+
+	private static final int LZW = 5;
+	private static final int DEFLATE = 8;
+	private static final int ADOBE_DEFLATE = 32946;
+
+	private static final int HORIZONTAL = 2;
+	private static final int FLOATING_POINT = 3;
+
+	// regions in the middle, covering the whole image and touching the last (partial) strips and tiles
+	private static final int[][] REGIONS = new int[][]{
+			{ 37, 51, 150, 120 },
+			{ 0, 0, WIDTH, HEIGHT },
+			{ 250, 200, 50, 17 } };
+
+	public static void main( String[] args ) throws IOException
+	{
+		final TestTiffRegionReader test = new TestTiffRegionReader();
+		test.run();
+		test.lzwStrips();
+		test.lzwHorizontalPredictorBigEndian();
+		test.deflateHorizontalPredictor();
+		test.adobeDeflateFloatingPointPredictor();
+		test.lzwTiles();
+		test.deflateFloatTiles();
+		test.regionReadability();
+	}
+
+	@Test
+	public void run() throws IOException
+	{
+		final ShortProcessor processor = new ShortProcessor( WIDTH, HEIGHT );
+		for ( int y = 0; y < HEIGHT; y++ )
+			for ( int x = 0; x < WIDTH; x++ )
+				processor.set( x, y, ( 7 * x + 300 * y ) % 65536 );
+
+		final File file = File.createTempFile( "site", ".tif" );
+		file.deleteOnExit();
+		new FileSaver( new ImagePlus( "site", processor ) ).saveAsTiff( file.getAbsolutePath() );
+
+		final TiffRegionReader reader = TiffRegionReader.open( file );
+		assertNotNull( reader );
+		assertEquals( WIDTH, reader.getWidth() );
+		assertEquals( HEIGHT, reader.getHeight() );
+		assertEquals( 16, reader.getBitDepth() );
+
+		final int x0 = 37, y0 = 51, regionWidth = 150, regionHeight = 120;
+		final short[] region = new short[ regionWidth * regionHeight ];
+		reader.read( x0, y0, regionWidth, regionHeight, region );
+
+		final ImagePlus imp = IJ.openImage( file.getAbsolutePath() );
+		for ( int y = 0; y < regionHeight; y++ )
+			for ( int x = 0; x < regionWidth; x++ )
+				assertEquals( imp.getProcessor().get( x0 + x, y0 + y ), region[ y * regionWidth + x ] & 0xFFFF );
+	}
+
+	/**
+	 * Random 8 bit data yields long LZW streams, which pass all code length changes (9 to 12 bit)
+	 * and several clear codes.
+	 */
+	@Test
+	public void lzwStrips() throws IOException
+	{
+		final double[] pixels = createPixels( 8, 1 );
+		final File file = writeTiff( pixels, 8, ByteOrder.LITTLE_ENDIAN, LZW, 1, 0, 64 );
+
+		assertRegions( file, pixels, 8, true );
+	}
+
+	@Test
+	public void lzwHorizontalPredictorBigEndian() throws IOException
+	{
+		final double[] pixels = createPixels( 16, 2 );
+		final File file = writeTiff( pixels, 16, ByteOrder.BIG_ENDIAN, LZW, HORIZONTAL, 0, 16 );
+
+		assertRegions( file, pixels, 16, true );
+	}
+
+	@Test
+	public void deflateHorizontalPredictor() throws IOException
+	{
+		final double[] pixels = createPixels( 16, 3 );
+		final File file = writeTiff( pixels, 16, ByteOrder.LITTLE_ENDIAN, DEFLATE, HORIZONTAL, 0, 16 );
+
+		assertRegions( file, pixels, 16, true );
+	}
+
+	/**
+	 * ImageJ does not decode the floating point predictor, thus the pixels are only compared to the written ones.
+	 */
+	@Test
+	public void adobeDeflateFloatingPointPredictor() throws IOException
+	{
+		final double[] pixels = createPixels( 32, 4 );
+		final File file = writeTiff( pixels, 32, ByteOrder.BIG_ENDIAN, ADOBE_DEFLATE, FLOATING_POINT, 0, 16 );
+
+		assertRegions( file, pixels, 32, false );
+	}
+
+	/**
+	 * ImageJ cannot open tiled TIFFs, thus the pixels are only compared to the written ones.
+	 */
+	@Test
+	public void lzwTiles() throws IOException
+	{
+		final double[] pixels = createPixels( 16, 5 );
+		final File file = writeTiff( pixels, 16, ByteOrder.LITTLE_ENDIAN, LZW, HORIZONTAL, 64, 48 );
+
+		assertRegions( file, pixels, 16, false );
+	}
+
+	@Test
+	public void deflateFloatTiles() throws IOException
+	{
+		final double[] pixels = createPixels( 32, 6 );
+		final File file = writeTiff( pixels, 32, ByteOrder.BIG_ENDIAN, DEFLATE, 1, 32, 32 );
+
+		assertRegions( file, pixels, 32, false );
+	}
+
+	/**
+	 * A compressed image in one strip must be read as a whole, as each region would decode the whole strip.
+	 * The reader is reused until the file is modified.
+	 */
+	@Test
+	public void regionReadability() throws IOException
+	{
+		final double[] pixels = createPixels( 16, 7 );
+
+		final File singleStrip = writeTiff( pixels, 16, ByteOrder.LITTLE_ENDIAN, LZW, HORIZONTAL, 0, HEIGHT );
+		assertFalse( TiffRegionReader.open( singleStrip ).isRegionReadable( 100, 100 ) );
+		assertTrue( TiffRegionReader.open( singleStrip ).isRegionReadable( WIDTH, HEIGHT ) );
+
+		final File tiles = writeTiff( pixels, 16, ByteOrder.LITTLE_ENDIAN, LZW, HORIZONTAL, 64, 48 );
+		assertTrue( TiffRegionReader.open( tiles ).isRegionReadable( 100, 100 ) );
+
+		final TiffRegionReader reader = TiffRegionReader.open( tiles );
+		assertSame( reader, TiffRegionReader.open( tiles ) );
+
+		Files.copy( singleStrip.toPath(), tiles.toPath(), StandardCopyOption.REPLACE_EXISTING );
+		tiles.setLastModified( tiles.lastModified() + 2000 );
+		assertNotSame( reader, TiffRegionReader.open( tiles ) );
+		assertRegions( tiles, pixels, 16, true );
+	}
+
+	private static double[] createPixels( int bitDepth, long seed )
+	{
+		final Random random = new Random( seed );
+		final double[] pixels = new double[ WIDTH * HEIGHT ];
+
+		for ( int i = 0; i < pixels.length; i++ )
+		{
+			if ( bitDepth == 8 )
+				pixels[ i ] = random.nextInt( 256 );
+			else if ( bitDepth == 16 )
+				pixels[ i ] = ( i % WIDTH ) * 100 + random.nextInt( 1000 ); // a gradient with noise, as in a microscopy image
+			else
+				pixels[ i ] = ( float ) ( random.nextGaussian() * 1000 );
+		}
+
+		return pixels;
+	}
+
+	private static void assertRegions( File file, double[] pixels, int bitDepth, boolean compareWithImageJ ) throws IOException
+	{
+		final TiffRegionReader reader = TiffRegionReader.open( file );
+		assertNotNull( reader );
+		assertEquals( WIDTH, reader.getWidth() );
+		assertEquals( HEIGHT, reader.getHeight() );
+		assertEquals( bitDepth, reader.getBitDepth() );
+
+		final ImagePlus imp = compareWithImageJ ? IJ.openImage( file.getAbsolutePath() ) : null;
+		if ( compareWithImageJ ) assertNotNull( imp );
+
+		for ( int[] region : REGIONS )
+		{
+			final int x0 = region[ 0 ], y0 = region[ 1 ], regionWidth = region[ 2 ], regionHeight = region[ 3 ];
+			final int size = regionWidth * regionHeight;
+			final Object array = bitDepth == 8 ? new byte[ size ] : bitDepth == 16 ? new short[ size ] : new float[ size ];
+
+			reader.read( x0, y0, regionWidth, regionHeight, array );
+
+			for ( int y = 0; y < regionHeight; y++ )
+				for ( int x = 0; x < regionWidth; x++ )
+				{
+					final double value = getValue( array, y * regionWidth + x );
+					assertEquals( pixels[ ( y0 + y ) * WIDTH + x0 + x ], value, 0 );
+
+					if ( imp != null )
+						assertEquals( imp.getProcessor().getf( x0 + x, y0 + y ), value, 0 );
+				}
+		}
+	}
+
+	private static double getValue( Object array, int i )
+	{
+		if ( array instanceof byte[] )
+			return ( ( byte[] ) array )[ i ] & 0xFF;
+		else if ( array instanceof short[] )
+			return ( ( short[] ) array )[ i ] & 0xFFFF;
+		else
+			return ( ( float[] ) array )[ i ];
+	}
+
+	/**
+	 * Writes a single channel TIFF in tiles, or in strips of the given height if the tile width is 0.
+	 */
+	private static File writeTiff( double[] pixels, int bitDepth, ByteOrder byteOrder, int compression, int predictor,
+								   int tileWidth, int chunkHeight ) throws IOException
+	{
+		final boolean isTiled = tileWidth > 0;
+		final int chunkWidth = isTiled ? tileWidth : WIDTH;
+		final int chunksAcross = ( WIDTH + chunkWidth - 1 ) / chunkWidth;
+		final int chunksDown = ( HEIGHT + chunkHeight - 1 ) / chunkHeight;
+
+		final List< byte[] > chunks = new ArrayList<>();
+		for ( int chunkY = 0; chunkY < chunksDown; chunkY++ )
+			for ( int chunkX = 0; chunkX < chunksAcross; chunkX++ )
+			{
+				// tiles are padded at the image border, strips are not
+				final int rows = isTiled ? chunkHeight : Math.min( chunkHeight, HEIGHT - chunkY * chunkHeight );
+				final byte[] data = getChunk( pixels, bitDepth, byteOrder, chunkX * chunkWidth, chunkY * chunkHeight, chunkWidth, rows );
+				applyPredictor( data, bitDepth, byteOrder, predictor, chunkWidth, rows );
+				chunks.add( compress( data, compression ) );
+			}
+
+		final ByteArrayOutputStream chunkData = new ByteArrayOutputStream();
+		final long[] offsets = new long[ chunks.size() ];
+		final long[] byteCounts = new long[ chunks.size() ];
+		for ( int i = 0; i < chunks.size(); i++ )
+		{
+			offsets[ i ] = 8 + chunkData.size();
+			byteCounts[ i ] = chunks.get( i ).length;
+			chunkData.write( chunks.get( i ) );
+		}
+
+		final Map< Integer, long[] > tags = new HashMap<>();
+		tags.put( 256, new long[]{ WIDTH } );
+		tags.put( 257, new long[]{ HEIGHT } );
+		tags.put( 258, new long[]{ bitDepth } );
+		tags.put( 259, new long[]{ compression } );
+		tags.put( 262, new long[]{ 1 } );
+		tags.put( isTiled ? 324 : 273, offsets );
+		tags.put( 277, new long[]{ 1 } );
+		tags.put( isTiled ? 325 : 279, byteCounts );
+		tags.put( 317, new long[]{ predictor } );
+		tags.put( 339, new long[]{ bitDepth == 32 ? 3 : 1 } );
+		if ( isTiled )
+		{
+			tags.put( 322, new long[]{ tileWidth } );
+			tags.put( 323, new long[]{ chunkHeight } );
+		}
+		else
+		{
+			tags.put( 278, new long[]{ chunkHeight } );
+		}
+
+		final File file = File.createTempFile( "site", ".tif" );
+		file.deleteOnExit();
+		Files.write( file.toPath(), createTiff( byteOrder, chunkData.toByteArray(), tags ) );
+		return file;
+	}
+
+	private static byte[] getChunk( double[] pixels, int bitDepth, ByteOrder byteOrder, int minX, int minY, int chunkWidth, int rows )
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( chunkWidth * rows * bitDepth / 8 ).order( byteOrder );
+
+		for ( int y = minY; y < minY + rows; y++ )
+			for ( int x = minX; x < minX + chunkWidth; x++ )
+			{
+				final double value = x < WIDTH && y < HEIGHT ? pixels[ y * WIDTH + x ] : 0;
+
+				if ( bitDepth == 8 )
+					buffer.put( ( byte ) value );
+				else if ( bitDepth == 16 )
+					buffer.putShort( ( short ) value );
+				else
+					buffer.putFloat( ( float ) value );
+			}
+
+		return buffer.array();
+	}
+
+	private static void applyPredictor( byte[] data, int bitDepth, ByteOrder byteOrder, int predictor, int chunkWidth, int rows )
+	{
+		final int bytesPerSample = bitDepth / 8;
+		final int rowLength = chunkWidth * bytesPerSample;
+
+		if ( predictor == HORIZONTAL )
+		{
+			final ByteBuffer buffer = ByteBuffer.wrap( data ).order( byteOrder );
+			for ( int row = 0; row < rows; row++ )
+				for ( int x = chunkWidth - 1; x > 0; x-- )
+				{
+					final int i = row * chunkWidth + x;
+					if ( bitDepth == 8 )
+						data[ i ] -= data[ i - 1 ];
+					else if ( bitDepth == 16 )
+						buffer.putShort( 2 * i, ( short ) ( buffer.getShort( 2 * i ) - buffer.getShort( 2 * ( i - 1 ) ) ) );
+					else
+						buffer.putInt( 4 * i, buffer.getInt( 4 * i ) - buffer.getInt( 4 * ( i - 1 ) ) );
+				}
+		}
+		else if ( predictor == FLOATING_POINT )
+		{
+			// the bytes of a row are shuffled, most significant bytes first, and then differenced
+			final byte[] shuffled = new byte[ rowLength ];
+			for ( int row = 0; row < rows; row++ )
+			{
+				final int rowStart = row * rowLength;
+
+				for ( int x = 0; x < chunkWidth; x++ )
+					for ( int b = 0; b < bytesPerSample; b++ )
+					{
+						final int source = byteOrder == ByteOrder.BIG_ENDIAN ? b : bytesPerSample - 1 - b;
+						shuffled[ b * chunkWidth + x ] = data[ rowStart + x * bytesPerSample + source ];
+					}
+
+				for ( int i = rowLength - 1; i > 0; i-- )
+					shuffled[ i ] -= shuffled[ i - 1 ];
+
+				System.arraycopy( shuffled, 0, data, rowStart, rowLength );
+			}
+		}
+	}
+
+	private static byte[] compress( byte[] data, int compression )
+	{
+		if ( compression == LZW ) return encodeLzw( data );
+
+		final Deflater deflater = new Deflater();
+		deflater.setInput( data );
+		deflater.finish();
+
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[ 8192 ];
+		while ( ! deflater.finished() )
+			compressed.write( buffer, 0, deflater.deflate( buffer ) );
+		deflater.end();
+
+		return compressed.toByteArray();
+	}
+
+	/**
+	 * TIFF LZW as libtiff writes it: the code length increases one code early,
+	 * i.e. once the next free code needs the longer code, and the table is cleared when it is full.
+	 */
+	private static byte[] encodeLzw( byte[] data )
+	{
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		final Map< Integer, Integer > table = new HashMap<>();
+		final long[] bits = new long[ 2 ]; // bit buffer and number of bits in it
+
+		int nextCode = 258;
+		writeLzwCode( compressed, bits, 256, nextCode );
+
+		int string = data[ 0 ] & 0xFF;
+		for ( int i = 1; i < data.length; i++ )
+		{
+			final int value = data[ i ] & 0xFF;
+			final Integer code = table.get( string << 8 | value );
+
+			if ( code != null )
+			{
+				string = code;
+				continue;
+			}
+
+			writeLzwCode( compressed, bits, string, nextCode );
+			table.put( string << 8 | value, nextCode++ );
+			string = value;
+
+			if ( nextCode == 4094 )
+			{
+				writeLzwCode( compressed, bits, 256, nextCode );
+				table.clear();
+				nextCode = 258;
+			}
+		}
+
+		writeLzwCode( compressed, bits, string, nextCode++ );
+		writeLzwCode( compressed, bits, 257, nextCode );
+
+		if ( bits[ 1 ] > 0 )
+			compressed.write( ( int ) ( bits[ 0 ] << ( 8 - bits[ 1 ] ) ) );
+
+		return compressed.toByteArray();
+	}
+
+	private static void writeLzwCode( ByteArrayOutputStream compressed, long[] bits, int code, int nextCode )
+	{
+		final int codeLength = nextCode >= 2048 ? 12 : nextCode >= 1024 ? 11 : nextCode >= 512 ? 10 : 9;
+
+		bits[ 0 ] = bits[ 0 ] << codeLength | code;
+		bits[ 1 ] += codeLength;
+
+		while ( bits[ 1 ] >= 8 )
+		{
+			bits[ 1 ] -= 8;
+			compressed.write( ( int ) ( bits[ 0 ] >> bits[ 1 ] ) & 0xFF );
+			bits[ 0 ] &= ( 1L << bits[ 1 ] ) - 1;
+		}
+	}
+
+	/**
+	 * Writes the header, the chunks and one image file directory; the tags are SHORT if they fit, else LONG.
+	 */
+	private static byte[] createTiff( ByteOrder byteOrder, byte[] chunkData, Map< Integer, long[] > tags )
+	{
+		final int ifdOffset = 8 + chunkData.length + chunkData.length % 2;
+		final int ifdLength = 2 + tags.size() * 12 + 4;
+
+		int valuesLength = 0;
+		for ( long[] values : tags.values() )
+			if ( values.length > 1 ) valuesLength += values.length * 4;
+
+		final ByteBuffer buffer = ByteBuffer.allocate( ifdOffset + ifdLength + valuesLength ).order( byteOrder );
+		buffer.put( ( byte ) ( byteOrder == ByteOrder.BIG_ENDIAN ? 'M' : 'I' ) );
+		buffer.put( ( byte ) ( byteOrder == ByteOrder.BIG_ENDIAN ? 'M' : 'I' ) );
+		buffer.putShort( ( short ) 42 );
+		buffer.putInt( ifdOffset );
+		buffer.put( chunkData );
+
+		buffer.position( ifdOffset );
+		buffer.putShort( ( short ) tags.size() );
+
+		int valuesOffset = ifdOffset + ifdLength;
+		for ( int tag : new TreeSet<>( tags.keySet() ) )
+		{
+			final long[] values = tags.get( tag );
+			buffer.putShort( ( short ) tag );
+
+			if ( values.length == 1 && values[ 0 ] < 65536 && tag != 273 && tag != 279 && tag != 324 && tag != 325 )
+			{
+				buffer.putShort( ( short ) 3 );
+				buffer.putInt( 1 );
+				buffer.putShort( ( short ) values[ 0 ] );
+				buffer.putShort( ( short ) 0 );
+			}
+			else if ( values.length == 1 )
+			{
+				buffer.putShort( ( short ) 4 );
+				buffer.putInt( 1 );
+				buffer.putInt( ( int ) values[ 0 ] );
+			}
+			else
+			{
+				buffer.putShort( ( short ) 4 );
+				buffer.putInt( values.length );
+				buffer.putInt( valuesOffset );
+				for ( int i = 0; i < values.length; i++ )
+					buffer.putInt( valuesOffset + 4 * i, ( int ) values[ i ] );
+				valuesOffset += values.length * 4;
+			}
+		}
+		buffer.putInt( 0 ); // no further image file directory
+
+		return buffer.array();
+	}
+}